@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import ch.epfl.leb.sass.simulator.loggers.FrameLogger;
+import ch.epfl.leb.sass.simulator.loggers.StateLogger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A kinetics engine that advances every fluorophore in every frame.
+ *
+ * The fluorophores are divided into blocks of {@link #FLUOROPHORES_PER_BLOCK}
+ * that are advanced in parallel on a ForkJoin pool. Subclasses advance a
+ * single fluorophore and must only modify the state of that fluorophore, so
+ * that the result does not depend on the number of threads. The state and
+ * frame loggers are not thread safe, so the fluorophores are advanced one
+ * after the other while either of them is active.
+ *
+ * Besides the photons, the engine keeps track of which fluorophores are
+ * shining. The number of fluorophores in the on state is updated from the
+ * state changes of each frame, and the fluorophores that emitted light are
+ * collected into a list, so that neither counting nor rendering needs to
+ * visit the dark and bleached fluorophores.
+ */
+public abstract class BlockKinetics implements KineticsEngine {
+
+    /**
+     * The number of fluorophores in one block.
+     */
+    public static final int FLUOROPHORES_PER_BLOCK = 1024;
+
+    /**
+     * The pool that runs the blocks.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The expected number of photons of each fluorophore in the last frame.
+     */
+    private double[] photons = new double[0];
+
+    /**
+     * Indices of the fluorophores that emitted light in the last frame. Each
+     * block writes into the part of the array that starts at the index of
+     * its first fluorophore.
+     */
+    private int[] emitting = new int[0];
+
+    /**
+     * The number of entries of {@link #emitting} that are valid.
+     */
+    private int numEmitting = 0;
+
+    /**
+     * The number of fluorophores that emitted light in each block.
+     */
+    private int[] blockEmitting = new int[0];
+
+    /**
+     * The change in the number of fluorophores in the on state of each block.
+     */
+    private int[] blockOnChange = new int[0];
+
+    /**
+     * The number of fluorophores that are in the on state.
+     */
+    private int onCount = 0;
+
+    private final StateLogger stateLogger = StateLogger.getInstance();
+    private final FrameLogger frameLogger = FrameLogger.getInstance();
+
+    /**
+     * Creates the engine.
+     * @param pool The pool that runs the blocks.
+     */
+    protected BlockKinetics(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Simulates the state evolution of one fluorophore for the next frame.
+     * @param index Index of the fluorophore.
+     * @return The expected number of photons that the fluorophore emits
+     *         during the frame.
+     */
+    protected abstract double simulatePhotons(int index);
+
+    /**
+     * @param index Index of the fluorophore.
+     * @return True if the fluorophore is currently in the on state.
+     */
+    public abstract boolean isOn(int index);
+
+    @Override
+    public double[] advance() {
+        resize();
+        int numBlocks = blockEmitting.length;
+        if (numBlocks <= 1 ||
+            stateLogger.getPerformLogging() ||
+            frameLogger.getPerformLogging()) {
+            for (int block = 0; block < numBlocks; block++) {
+                advance(block);
+            }
+        } else {
+            pool.invoke(new KineticsTask(0, numBlocks));
+        }
+
+        // Gather the fluorophores that emitted light at the front of the list
+        numEmitting = 0;
+        for (int block = 0; block < numBlocks; block++) {
+            int from = block * FLUOROPHORES_PER_BLOCK;
+            System.arraycopy(emitting, from, emitting, numEmitting,
+                             blockEmitting[block]);
+            numEmitting += blockEmitting[block];
+            onCount += blockOnChange[block];
+        }
+        return photons;
+    }
+
+    /**
+     * Returns the fluorophores that emitted light in the last frame.
+     *
+     * The indices are given in increasing order.
+     *
+     * @return Indices of the fluorophores that emitted light.
+     */
+    @Override
+    public int[] getEmitting() {
+        return emitting;
+    }
+
+    @Override
+    public int getNumEmitting() {
+        return numEmitting;
+    }
+
+    @Override
+    public int getOnCount() {
+        resize();
+        return onCount;
+    }
+
+    /**
+     * Adapts the buffers to the number of fluorophores.
+     *
+     * The number of fluorophores may change before the first frame while a
+     * set of fluorophores is being populated.
+     */
+    private void resize() {
+        int n = getNumFluorophores();
+        if (photons.length == n) {
+            return;
+        }
+        photons = new double[n];
+        emitting = new int[n];
+        numEmitting = 0;
+
+        int numBlocks = (n + FLUOROPHORES_PER_BLOCK - 1)
+                        / FLUOROPHORES_PER_BLOCK;
+        blockEmitting = new int[numBlocks];
+        blockOnChange = new int[numBlocks];
+
+        onCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (isOn(i)) {
+                onCount++;
+            }
+        }
+    }
+
+    /**
+     * Advances a block of fluorophores.
+     * @param block Index of the block.
+     */
+    private void advance(int block) {
+        int from = block * FLUOROPHORES_PER_BLOCK;
+        int to = Math.min(photons.length, from + FLUOROPHORES_PER_BLOCK);
+        int count = 0;
+        int onChange = 0;
+        for (int i = from; i < to; i++) {
+            boolean wasOn = isOn(i);
+            photons[i] = simulatePhotons(i);
+            if (photons[i] > 0.0) {
+                emitting[from + count] = i;
+                count++;
+            }
+            if (wasOn != isOn(i)) {
+                onChange += wasOn ? -1 : 1;
+            }
+        }
+        blockEmitting[block] = count;
+        blockOnChange[block] = onChange;
+    }
+
+    /**
+     * Splits a range of blocks until each task holds a single block.
+     */
+    private class KineticsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final int from;
+        private final int to;
+
+        KineticsTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                advance(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new KineticsTask(from, mid), new KineticsTask(mid, to));
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.components.Camera;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Simulates the noise sources of the camera on a frame.
+ *
+ * The frame is split into tiles of {@link #ROWS_PER_TILE} rows which are
+ * processed in parallel on a ForkJoin pool. Every tile draws from its own
+ * random number stream whose seed is derived from the simulation seed, so
+ * a given seed always produces the same noise, no matter how many threads
+ * take part in the computation. The deviates are drawn by a
+ * {@link NoiseSampler}, which handles a different mean at every pixel
+ * without any setup.
+ */
+public class CameraNoise {
+
+    /**
+     * The number of image rows in one tile.
+     */
+    public static final int ROWS_PER_TILE = 16;
+
+    /**
+     * The camera whose noise is simulated.
+     */
+    private final Camera camera;
+
+    /**
+     * The pool that runs the tiles.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The tiles covering the frame.
+     */
+    private final Tile[] tiles;
+
+    /**
+     * Creates the noise model for a camera.
+     *
+     * The random streams are derived from the current seed of {@link RNG}
+     * and the tiles run on the common ForkJoin pool.
+     *
+     * @param camera The camera whose noise is simulated.
+     */
+    public CameraNoise(Camera camera) {
+        this(camera, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates the noise model for a camera.
+     *
+     * The random streams are derived from the current seed of {@link RNG}.
+     *
+     * @param camera The camera whose noise is simulated.
+     * @param pool The pool that runs the tiles.
+     */
+    public CameraNoise(Camera camera, ForkJoinPool pool) {
+        this.camera = camera;
+        this.pool = pool;
+
+        int nY = camera.getNY();
+        int numTiles = (nY + ROWS_PER_TILE - 1) / ROWS_PER_TILE;
+        this.tiles = new Tile[numTiles];
+        for (int i = 0; i < numTiles; i++) {
+            int rowStart = i * ROWS_PER_TILE;
+            int rowEnd = Math.min(nY, rowStart + ROWS_PER_TILE);
+            tiles[i] = new Tile(rowStart, rowEnd,
+                                RNG.deriveSeed(RNG.CAMERA_NOISE_STREAM, i));
+        }
+    }
+
+    /**
+     * Adds shot noise, electron multiplication noise and dark noise to a
+     * frame.
+     *
+     * @param pixels Flat frame buffer holding the expected number of
+     *               photons in each pixel. It is overwritten by the number
+     *               of electrons read out of each pixel.
+     */
+    public void addNoise(float[] pixels) {
+        addNoise(pixels, null);
+    }
+
+    /**
+     * Adds a background and then the noise to a frame.
+     *
+     * The background is added to each pixel right before its noise is drawn,
+     * so the frame is only traversed once. The result is the same as adding
+     * the background to the frame first.
+     *
+     * @param pixels Flat frame buffer holding the expected number of
+     *               photons in each pixel. It is overwritten by the number
+     *               of electrons read out of each pixel.
+     * @param background Flat buffer of the expected number of background
+     *                   photons in each pixel, or null.
+     */
+    public void addNoise(float[] pixels, float[] background) {
+        int size = camera.getNX() * camera.getNY();
+        if (pixels.length != size ||
+            (background != null && background.length != size)) {
+            throw new IllegalArgumentException(
+                    "Frame size does not match the camera.");
+        }
+        if (tiles.length == 1) {
+            tiles[0].addNoise(pixels, background);
+        } else {
+            pool.invoke(new NoiseTask(pixels, background, 0, tiles.length));
+        }
+    }
+
+    /**
+     * A block of rows with its own random number stream.
+     */
+    private class Tile {
+        private final int rowStart;
+        private final int rowEnd;
+        private final NoiseSampler sampler;
+
+        Tile(int rowStart, int rowEnd, long seed) {
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.sampler = new NoiseSampler(seed);
+        }
+
+        /**
+         * Simulates the noise on the rows of this tile.
+         * @param pixels The flat frame buffer.
+         * @param background The flat background buffer, or null.
+         */
+        void addNoise(float[] pixels, float[] background) {
+            final int nX = camera.getNX();
+            final int emGain = camera.getEmGain();
+            final double readoutNoise = camera.getReadoutNoise();
+            final double thermalNoise = camera.getThermalNoise();
+            final int start = rowStart * nX;
+            final int end = rowEnd * nX;
+
+            for (int i = start; i < end; i++) {
+                float mean = pixels[i];
+                if (background != null) {
+                    mean += background[i];
+                }
+                
+                // Poisson noise
+                float value = sampler.nextPoisson(mean);
+
+                // Multiplication noise from the EM gain register
+                if (emGain != 0) {
+                    value = (float) sampler.nextGamma(value + 0.01f, emGain);
+                }
+
+                // Dark noises (readout and thermal)
+                value += readoutNoise * sampler.nextGaussian() +
+                         thermalNoise * sampler.nextGaussian();
+                pixels[i] = value;
+            }
+        }
+    }
+
+    /**
+     * Splits a range of tiles until each task holds a single tile.
+     */
+    private class NoiseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final float[] pixels;
+        private final float[] background;
+        private final int from;
+        private final int to;
+
+        NoiseTask(float[] pixels, float[] background, int from, int to) {
+            this.pixels = pixels;
+            this.background = background;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                tiles[from].addNoise(pixels, background);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new NoiseTask(pixels, background, from, mid),
+                      new NoiseTask(pixels, background, mid, to));
+        }
+    }
+}
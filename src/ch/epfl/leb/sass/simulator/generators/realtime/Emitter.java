@@ -92,10 +92,10 @@ public abstract class Emitter extends Point2D.Double  {
     public double z;
 
     /**
-     * List of pixels which are affected by this emitter's light (these pixels
+     * The pixels which are affected by this emitter's light (these pixels
      * need to be updated when the emitter is on).
      */
-    protected ArrayList<Pixel> pixel_list;    
+    protected Footprint footprint;
 
     /**
      * Poisson RNG for flickering simulation.
@@ -129,7 +129,8 @@ public abstract class Emitter extends Point2D.Double  {
         // radius cutoff
         final double r = 3 * sigma;
         // generate pixels which will be added to image when emitter is on
-        this.pixel_list = get_pixels_within_radius(r, camera.fwhm_digital);
+        this.footprint = Footprint.fromPixels(
+                get_pixels_within_radius(r, camera.fwhm_digital));
         
         // Increment the number of emitters and assign the id.
         this.numberOfEmitters += 1;
@@ -156,12 +157,10 @@ public abstract class Emitter extends Point2D.Double  {
         this.poisson = RNG.getPoissonGenerator();
         this.camera = null;
         
-        // generate pixels which will be added to the image when emitter is on
+        // generate the pixels which will be added to the image when emitter
+        // is on, with the signature of each of them
         // This must be called **after** super(x,y).
-        this.pixel_list = this.getPixelsWithinRadius(this, this.psf.getRadius());
-        
-        // Compute the signature on each pixel created by this emitter
-        this.psf.generateSignature(this.pixel_list);
+        this.footprint = Footprint.fromPSF(this.psf, x, y);
         
         // Increment the number of emitters and assign the id.
         this.numberOfEmitters += 1;
@@ -286,10 +285,21 @@ public abstract class Emitter extends Point2D.Double  {
     
     /**
      * Returns list of pixels which need to be drawn on the image to accurately render the emitter.
+     * 
+     * The list is created from the emitter's footprint on every call.
+     * 
      * @return list of Pixels
      */
     public ArrayList<Pixel> getPixelList() {
-        return this.pixel_list;
+        return this.footprint.toPixelList();
+    }
+    
+    /**
+     * Returns the image of the emitter on the camera.
+     * @return The footprint of the emitter.
+     */
+    public Footprint getFootprint() {
+        return this.footprint;
     }
     
     /**
@@ -299,14 +309,39 @@ public abstract class Emitter extends Point2D.Double  {
      */
     public void applyTo(float[][] pixels) {
         double brightness = this.simulateBrightness();
-        for (Pixel p: this.getPixelList()) {
-            try {
-                pixels[p.x][p.y] += brightness * p.getSignature();
-            } catch (ArrayIndexOutOfBoundsException ex) {
-                // pixel signature outside of frame, do nothing
-                //Logger.getLogger(Device.class.getName()).log(Level.SEVERE, null, ex);
-            }
-        }
+        // pixels outside of frame are skipped by the footprint
+        this.footprint.addTo(pixels, brightness);
+    }
+    
+    /**
+     * Simulates the brightness pattern of this emitter for the next frame
+     * duration, and renders the emitter onto a flat image buffer.
+     * 
+     * The pixel at (x, y) is stored at index x + y * nX. Pixels of the
+     * emitter's image that fall outside the buffer are ignored.
+     * 
+     * @param pixels image to be drawn on
+     * @param nX number of pixels in x
+     * @param nY number of pixels in y
+     */
+    public void applyTo(float[] pixels, int nX, int nY) {
+        draw(pixels, nX, nY, this.simulateBrightness());
+    }
+    
+    /**
+     * Renders the emitter onto a flat image buffer with a given brightness,
+     * without advancing its state.
+     * 
+     * The pixel at (x, y) is stored at index x + y * nX. Pixels of the
+     * emitter's image that fall outside the buffer are ignored.
+     * 
+     * @param pixels image to be drawn on
+     * @param nX number of pixels in x
+     * @param nY number of pixels in y
+     * @param brightness brightness of emitter in this frame [photons emitted]
+     */
+    public void draw(float[] pixels, int nX, int nY, double brightness) {
+        this.footprint.addTo(pixels, nX, nY, brightness);
     }
     
     /**
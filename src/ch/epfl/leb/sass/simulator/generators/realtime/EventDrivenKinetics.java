@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import java.util.List;
+
+/**
+ * Evolves the states of a set of fluorophores with the next reaction method
+ * of Gibson and Bruck.
+ *
+ * The absolute time of the next transition of every fluorophore is kept in
+ * an indexed priority queue. A frame only pops the transitions that fall
+ * inside it and reschedules the fluorophores that made them; fluorophores
+ * that stay in the same state are not touched, except for those in the on
+ * state, whose photons have to be accounted for. The cost of a frame
+ * therefore grows with the number of transitions and shining fluorophores
+ * rather than with the total number of fluorophores.
+ *
+ * The transitions are Markovian, so when the laser power changes the
+ * pending transitions of all fluorophores are simply drawn anew from the
+ * current time with the new rates.
+ *
+ * The engine is statistically equivalent to {@link FluorophoreKinetics}, but
+ * it consumes the random numbers of the fluorophores in a different order
+ * and thus does not reproduce its results exactly.
+ */
+public class EventDrivenKinetics implements KineticsEngine {
+
+    /**
+     * The fluorophores to advance.
+     */
+    private final Fluorophore[] fluorophores;
+
+    /**
+     * The absolute times of the next transitions of the fluorophores.
+     */
+    private final IndexedMinHeap queue;
+
+    /**
+     * The time at which each fluorophore entered its current state.
+     */
+    private final double[] stateEntryTime;
+
+    /**
+     * The time that each fluorophore spent in the on state during the frame
+     * in which it was last recorded in {@link #emitting}.
+     */
+    private final double[] onTime;
+
+    /**
+     * The number of the frame in which each fluorophore was last recorded in
+     * {@link #emitting}.
+     */
+    private final int[] lastFrame;
+
+    /**
+     * The expected number of photons of each fluorophore in the last frame.
+     */
+    private final double[] photons;
+
+    /**
+     * Indices of the fluorophores that emitted light in the last frame.
+     */
+    private final int[] emitting;
+
+    /**
+     * The number of entries of {@link #emitting} that are valid.
+     */
+    private int numEmitting = 0;
+
+    /**
+     * Indices of the fluorophores in the on state, in no particular order.
+     */
+    private final int[] on;
+
+    /**
+     * Position of each fluorophore in {@link #on}, or -1 if it is not on.
+     */
+    private final int[] onPosition;
+
+    /**
+     * The number of entries of {@link #on} that are valid.
+     */
+    private int onCount = 0;
+
+    /**
+     * The number of frames simulated so far.
+     */
+    private int frame = 0;
+
+    /**
+     * The current time [frames].
+     */
+    private double time = 0.0;
+
+    /**
+     * The laser power for which the transitions were scheduled.
+     */
+    private double laserPower = Double.NaN;
+
+    /**
+     * Creates the engine for a list of fluorophores.
+     *
+     * The fluorophores are assumed to start at time zero.
+     *
+     * @param fluorophores The fluorophores to advance.
+     */
+    public EventDrivenKinetics(List<Fluorophore> fluorophores) {
+        int n = fluorophores.size();
+        this.fluorophores = fluorophores.toArray(new Fluorophore[n]);
+        this.stateEntryTime = new double[n];
+        this.onTime = new double[n];
+        this.lastFrame = new int[n];
+        this.photons = new double[n];
+        this.emitting = new int[n];
+        this.on = new int[n];
+        this.onPosition = new int[n];
+
+        double[] times = new double[n];
+        for (int i = 0; i < n; i++) {
+            Fluorophore f = this.fluorophores[i];
+            onPosition[i] = -1;
+            if (f.isOn()) {
+                addOn(i);
+            }
+            times[i] = f.scheduleTransition(time);
+        }
+        this.queue = new IndexedMinHeap(times);
+    }
+
+    @Override
+    public double[] advance() {
+        double frameStart = time;
+        double frameEnd = time + 1.0;
+        frame++;
+
+        // Clear the photons of the last frame
+        for (int i = 0; i < numEmitting; i++) {
+            photons[emitting[i]] = 0.0;
+        }
+        numEmitting = 0;
+
+        // Execute all transitions that happen during this frame
+        while (queue.peekKey() < frameEnd) {
+            int i = queue.peek();
+            Fluorophore f = fluorophores[i];
+            double transitionTime = queue.getKey(i);
+
+            boolean wasOn = f.isOn();
+            if (wasOn) {
+                recordOnTime(i, transitionTime -
+                                Math.max(stateEntryTime[i], frameStart));
+            }
+            f.executeTransition();
+            stateEntryTime[i] = transitionTime;
+            if (wasOn != f.isOn()) {
+                if (wasOn) {
+                    removeOn(i);
+                } else {
+                    addOn(i);
+                }
+            }
+            queue.update(i, f.scheduleTransition(transitionTime));
+        }
+
+        // Fluorophores that are on at the end of the frame
+        for (int j = 0; j < onCount; j++) {
+            int i = on[j];
+            recordOnTime(i, frameEnd - Math.max(stateEntryTime[i], frameStart));
+        }
+        time = frameEnd;
+
+        for (int j = 0; j < numEmitting; j++) {
+            int i = emitting[j];
+            Fluorophore f = fluorophores[i];
+            photons[i] = onTime[i] * f.getSignal();
+            f.logFrame(frame, onTime[i]);
+        }
+        return photons;
+    }
+
+    @Override
+    public int[] getEmitting() {
+        return emitting;
+    }
+
+    @Override
+    public int getNumEmitting() {
+        return numEmitting;
+    }
+
+    @Override
+    public int getOnCount() {
+        return onCount;
+    }
+
+    /**
+     * @param index Index of the fluorophore in the list of fluorophores.
+     * @return The fluorophore.
+     */
+    public Fluorophore getFluorophore(int index) {
+        return fluorophores[index];
+    }
+
+    @Override
+    public int getNumFluorophores() {
+        return fluorophores.length;
+    }
+
+    @Override
+    public void draw(int index, float[] pixels, int nX, int nY,
+                     double brightness) {
+        fluorophores[index].draw(pixels, nX, nY, brightness);
+    }
+
+    @Override
+    public void setLaserPower(double laserPower) {
+        if (laserPower == this.laserPower) {
+            return;
+        }
+        this.laserPower = laserPower;
+
+        double[] times = new double[fluorophores.length];
+        for (int i = 0; i < fluorophores.length; i++) {
+            fluorophores[i].recalculate_lifetimes(laserPower);
+            times[i] = fluorophores[i].scheduleTransition(time);
+        }
+        queue.updateAll(times);
+    }
+
+    /**
+     * Adds on time to a fluorophore for the current frame.
+     * @param i Index of the fluorophore.
+     * @param duration Time spent in the on state [frames].
+     */
+    private void recordOnTime(int i, double duration) {
+        if (duration <= 0.0) {
+            return;
+        }
+        if (lastFrame[i] != frame) {
+            lastFrame[i] = frame;
+            onTime[i] = 0.0;
+            emitting[numEmitting] = i;
+            numEmitting++;
+        }
+        onTime[i] += duration;
+    }
+
+    private void addOn(int i) {
+        onPosition[i] = onCount;
+        on[onCount] = i;
+        onCount++;
+    }
+
+    private void removeOn(int i) {
+        int pos = onPosition[i];
+        int last = on[onCount - 1];
+        on[pos] = last;
+        onPosition[last] = pos;
+        onPosition[i] = -1;
+        onCount--;
+    }
+}
@@ -35,7 +35,8 @@ public class Fluorophore extends Emitter {
     private double time_elapsed = 0.0;
     
     /**
-     * RNG
+     * RNG. Every fluorophore has its own stream so that fluorophores can be
+     * simulated in parallel.
      */
     private final Random random;
     
@@ -54,6 +55,16 @@ public class Fluorophore extends Emitter {
      */
     private final double signal;
     
+    /**
+     * State that this fluorophore enters at its next scheduled transition
+     */
+    private int next_state;
+    
+    /**
+     * Time of the next scheduled transition
+     */
+    private double next_transition_time = java.lang.Double.POSITIVE_INFINITY;
+    
     /**
      * Initialize fluorophore and calculate its pattern on camera
      * @param camera Camera used for calculating diffraction pattern
@@ -74,7 +85,7 @@ public class Fluorophore extends Emitter {
         if (start_state >= state_system.getNStates()) {
             throw new IllegalArgumentException("Starting state no. is out of bounds.");
         }
-        this.random = RNG.getUniformGenerator();
+        this.random = new Random(RNG.deriveSeed(RNG.FLUOROPHORE_STREAM, this.getId()));
         
         // Log the fluorophore's position
         this.positionLogger.logPosition(this.getId(), x, y, 0.0);
@@ -105,7 +116,7 @@ public class Fluorophore extends Emitter {
         if (start_state >= state_system.getNStates()) {
             throw new IllegalArgumentException("Starting state no. is out of bounds.");
         }
-        this.random = RNG.getUniformGenerator();
+        this.random = new Random(RNG.deriveSeed(RNG.FLUOROPHORE_STREAM, this.getId()));
         
         // Log the fluorophore's position
         this.positionLogger.logPosition(this.getId(), x, y, z);
@@ -148,8 +159,31 @@ public class Fluorophore extends Emitter {
         this.state_system.recalculate_lifetimes(laser_power);
     }
 
+    /**
+     * Returns the number of photons emitted per frame while the fluorophore
+     * is on.
+     * @return No of photons per frame.
+     */
+    public double getSignal() {
+        return this.signal;
+    }
+
     @Override
     protected double simulateBrightness() {
+        return flicker(simulateOnTime()*signal);
+    }
+    
+    /**
+     * Simulates the state evolution of the fluorophore for the next frame.
+     * 
+     * Only this fluorophore and its own random number stream are modified, so
+     * different fluorophores may be advanced concurrently as long as the
+     * state and frame loggers are inactive.
+     * 
+     * @return time that the fluorophore spent in the on state during the
+     *         frame [frames]
+     */
+    public double simulateOnTime() {
         if (isBleached()) {
             return 0.0;
         }
@@ -157,18 +191,7 @@ public class Fluorophore extends Emitter {
         double remaining_time = 1.0;
         double on_time = 0.0;
         while (remaining_time > 0.0) {
-            // initialize time of next transition and next state id variables
-            double transition_time = java.lang.Double.POSITIVE_INFINITY; 
-            int next_state = current_state;
-            // for each state transition, draw lifetime of this transition,
-            // and keep track which one is the minimal one
-            for (int state=0; state<state_system.getNStates(); state++) {
-                double state_time = nextExponential(state_system.getMeanTransitionLifetime(current_state, state));
-                if (state_time < transition_time) {
-                    next_state = state;
-                    transition_time = state_time;
-                }
-            }
+            double transition_time = drawTransition();
             // transition happens sooner than end of frame
             if (transition_time <= remaining_time) {
                 if (this.isOn()) {
@@ -199,9 +222,77 @@ public class Fluorophore extends Emitter {
             // Round time_elapsed to the lower integer, to get the current frame
             // If on_time = 1.0, then frame = int(time_elapsed), hence 0.9999 rather than 1
             int frame = (int) (time_elapsed + 0.999999);
-            frameLogger.logFrame(frame, this.getId(), this.x, this.y, this.z, on_time);
+            logFrame(frame, on_time);
+        }
+        return on_time;
+    }
+    
+    /**
+     * Draws the time until the next transition and the state that follows it.
+     * 
+     * The state is stored in next_state; it is left unchanged if no
+     * transition is possible from the current state.
+     * 
+     * @return time until the next transition [frames]
+     */
+    private double drawTransition() {
+        // the time spent in the current state is exponentially distributed
+        // with the total rate of leaving it, and the next state is picked in
+        // proportion to the individual transition rates
+        double exit_rate = state_system.getExitRate(current_state);
+        if (exit_rate == 0.0) {
+            next_state = current_state;
+            return java.lang.Double.POSITIVE_INFINITY;
+        }
+        double transition_time = -Math.log(1 - random.nextDouble()) / exit_rate;
+        next_state = state_system.nextState(current_state, random.nextDouble());
+        return transition_time;
+    }
+    
+    /**
+     * Draws the next transition of this fluorophore without executing it.
+     * 
+     * This is used by event-driven kinetics, which keep the fluorophore in
+     * its current state until the time of the transition has come and then
+     * call {@link #executeTransition()}.
+     * 
+     * @param now current time [frames]
+     * @return absolute time of the next transition, or positive infinity if
+     *         the fluorophore cannot leave its current state
+     */
+    public double scheduleTransition(double now) {
+        if (isBleached()) {
+            next_state = current_state;
+            next_transition_time = java.lang.Double.POSITIVE_INFINITY;
+        } else {
+            next_transition_time = now + drawTransition();
         }
-        return flicker(on_time*signal);
+        return next_transition_time;
+    }
+    
+    /**
+     * Moves the fluorophore into the state that was drawn by the last call to
+     * {@link #scheduleTransition(double)}.
+     */
+    public void executeTransition() {
+        time_elapsed = next_transition_time;
+        stateLogger.logStateTransition(
+            this.getId(),
+            time_elapsed,
+            current_state,
+            next_state
+        );
+        current_state = next_state;
+    }
+    
+    /**
+     * Writes the time that this fluorophore was on during a frame to the
+     * frame logger.
+     * @param frame frame number
+     * @param on_time time spent in the on state during the frame [frames]
+     */
+    protected void logFrame(int frame, double on_time) {
+        frameLogger.logFrame(frame, this.getId(), this.x, this.y, this.z, on_time);
     }
 }
 
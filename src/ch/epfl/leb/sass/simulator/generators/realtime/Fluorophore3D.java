@@ -47,7 +47,7 @@ public class Fluorophore3D extends Fluorophore{
         
         // this recalculates the PSF shape according to the overriden
         // generate_signature_for_pixel() method below
-        this.pixel_list = get_pixels_within_radius(r, camera.fwhm_digital);
+        this.footprint = Footprint.fromPixels(get_pixels_within_radius(r, camera.fwhm_digital));
     }
     
     /**
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Advances the states of a list of fluorophores by one frame.
+ *
+ * This is the first of the two phases of a frame: the state of every
+ * fluorophore is evolved and the expected number of photons that it emits
+ * during the frame is recorded. Rendering these photons onto the image is
+ * left to the caller.
+ *
+ * Each fluorophore draws from its own random number stream, so the
+ * fluorophores can be advanced in parallel blocks as described in
+ * {@link BlockKinetics}.
+ */
+public class FluorophoreKinetics extends BlockKinetics {
+
+    /**
+     * The fluorophores to advance.
+     */
+    private final Fluorophore[] fluorophores;
+
+    /**
+     * Creates the kinetics stage for a list of fluorophores.
+     *
+     * The blocks run on the common ForkJoin pool.
+     *
+     * @param fluorophores The fluorophores to advance.
+     */
+    public FluorophoreKinetics(List<Fluorophore> fluorophores) {
+        this(fluorophores, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates the kinetics stage for a list of fluorophores.
+     *
+     * @param fluorophores The fluorophores to advance.
+     * @param pool The pool that runs the blocks.
+     */
+    public FluorophoreKinetics(List<Fluorophore> fluorophores,
+                               ForkJoinPool pool) {
+        super(pool);
+        this.fluorophores = fluorophores.toArray(
+                new Fluorophore[fluorophores.size()]);
+    }
+
+    @Override
+    protected double simulatePhotons(int index) {
+        Fluorophore f = fluorophores[index];
+        return f.simulateOnTime() * f.getSignal();
+    }
+
+    @Override
+    public boolean isOn(int index) {
+        return fluorophores[index].isOn();
+    }
+
+    /**
+     * @param index Index of the fluorophore in the list of fluorophores.
+     * @return The fluorophore.
+     */
+    public Fluorophore getFluorophore(int index) {
+        return fluorophores[index];
+    }
+
+    @Override
+    public int getNumFluorophores() {
+        return fluorophores.length;
+    }
+
+    @Override
+    public void draw(int index, float[] pixels, int nX, int nY,
+                     double brightness) {
+        fluorophores[index].draw(pixels, nX, nY, brightness);
+    }
+
+    @Override
+    public void setLaserPower(double laserPower) {
+        for (Fluorophore f: fluorophores) {
+            f.recalculate_lifetimes(laserPower);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.psfs.PSF;
+import ch.epfl.leb.sass.simulator.generators.realtime.psfs.PSFBuilder;
+import ch.epfl.leb.sass.simulator.loggers.FrameLogger;
+import ch.epfl.leb.sass.simulator.loggers.PositionLogger;
+import ch.epfl.leb.sass.simulator.loggers.StateLogger;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A set of fluorophores stored in primitive arrays.
+ *
+ * A {@link Fluorophore} is a full object with its own PSF, footprint and
+ * random number generator, which limits a simulation to a few hundred
+ * thousand fluorophores. A population instead stores the position, state,
+ * elapsed time, signal and random number stream of each fluorophore in one
+ * array per property, which takes about 45 bytes per fluorophore.
+ *
+ * The image of a fluorophore on the camera, its footprint, is only
+ * calculated once the fluorophore emits light for the first time. Footprints
+ * are packed into one shared array and referenced by their offsets; the
+ * footprints of bleached fluorophores are discarded when the array is full.
+ *
+ * All fluorophores share one state system. They are advanced in parallel
+ * blocks as described in {@link BlockKinetics}; each one draws from its own
+ * random number stream, which is derived from its ID.
+ */
+public class FluorophorePopulation extends BlockKinetics {
+
+    /**
+     * The initial number of fluorophores that the arrays can hold.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Marks a fluorophore whose footprint has not been calculated.
+     */
+    private static final int NO_FOOTPRINT = -1;
+
+    /**
+     * Builds the PSFs from which the footprints are calculated.
+     */
+    private final PSFBuilder psfBuilder;
+
+    /**
+     * The state system shared by all fluorophores.
+     */
+    private final StateSystem stateSystem;
+
+    /**
+     * The number of camera pixels in x.
+     */
+    private final int nX;
+
+    /**
+     * The number of camera pixels in y.
+     */
+    private final int nY;
+
+    /**
+     * The number of fluorophores.
+     */
+    private int size = 0;
+
+    // Properties of the fluorophores, indexed by fluorophore
+    private int[] id;
+    private float[] x;
+    private float[] y;
+    private float[] z;
+    private float[] signal;
+    private byte[] state;
+    private double[] timeElapsed;
+    private long[] random;
+    private int[] footprint;
+
+    /**
+     * The footprints of the fluorophores, clipped to the camera and packed
+     * one after the other as described in {@link Footprint#pack}.
+     */
+    private float[] footprints = new float[INITIAL_CAPACITY];
+
+    /**
+     * The number of entries of the packed footprints that are used.
+     */
+    private int footprintEnd = 0;
+
+    private final StateLogger stateLogger = StateLogger.getInstance();
+    private final FrameLogger frameLogger = FrameLogger.getInstance();
+    private final PositionLogger positionLogger = PositionLogger.getInstance();
+
+    /**
+     * Creates an empty population.
+     *
+     * The fluorophores are advanced on the common ForkJoin pool.
+     *
+     * @param psfBuilder Builder for calculating the PSFs of the fluorophores.
+     * @param stateSystem The state system shared by all fluorophores.
+     * @param nX The number of camera pixels in x.
+     * @param nY The number of camera pixels in y.
+     */
+    public FluorophorePopulation(PSFBuilder psfBuilder,
+                                 StateSystem stateSystem, int nX, int nY) {
+        this(psfBuilder, stateSystem, nX, nY, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an empty population.
+     *
+     * @param psfBuilder Builder for calculating the PSFs of the fluorophores.
+     * @param stateSystem The state system shared by all fluorophores.
+     * @param nX The number of camera pixels in x.
+     * @param nY The number of camera pixels in y.
+     * @param pool The pool that advances the fluorophores.
+     */
+    public FluorophorePopulation(PSFBuilder psfBuilder,
+                                 StateSystem stateSystem, int nX, int nY,
+                                 ForkJoinPool pool) {
+        super(pool);
+        if (stateSystem.getNStates() > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "The state system has too many states.");
+        }
+        this.psfBuilder = psfBuilder;
+        this.stateSystem = stateSystem;
+        this.nX = nX;
+        this.nY = nY;
+
+        id = new int[INITIAL_CAPACITY];
+        x = new float[INITIAL_CAPACITY];
+        y = new float[INITIAL_CAPACITY];
+        z = new float[INITIAL_CAPACITY];
+        signal = new float[INITIAL_CAPACITY];
+        state = new byte[INITIAL_CAPACITY];
+        timeElapsed = new double[INITIAL_CAPACITY];
+        random = new long[INITIAL_CAPACITY];
+        footprint = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds a fluorophore to the population.
+     *
+     * @param x x-position in pixels
+     * @param y y-position in pixels
+     * @param z z-position in pixels
+     * @param signal Number of photons per frame.
+     * @param startState Initial state number
+     * @return The index of the new fluorophore.
+     */
+    public int add(double x, double y, double z, double signal,
+                   int startState) {
+        if (startState < 0 || startState >= stateSystem.getNStates()) {
+            throw new IllegalArgumentException(
+                    "Starting state no. is out of bounds.");
+        }
+        if (size == id.length) {
+            grow();
+        }
+
+        // Fluorophores of populations share the IDs with all other emitters.
+        Emitter.numberOfEmitters += 1;
+        int i = size;
+        this.id[i] = Emitter.numberOfEmitters;
+        this.x[i] = (float) x;
+        this.y[i] = (float) y;
+        this.z[i] = (float) z;
+        this.signal[i] = (float) signal;
+        this.state[i] = (byte) startState;
+        this.timeElapsed[i] = 0.0;
+        this.random[i] = RNG.deriveSeed(RNG.FLUOROPHORE_STREAM, this.id[i]);
+        this.footprint[i] = NO_FOOTPRINT;
+        size++;
+
+        positionLogger.logPosition(this.id[i], x, y, z);
+        return i;
+    }
+
+    /**
+     * Shrinks the arrays to the number of fluorophores.
+     */
+    public void trimToSize() {
+        resizeArrays(size);
+    }
+
+    private void grow() {
+        resizeArrays(Math.max(INITIAL_CAPACITY, 2 * id.length));
+    }
+
+    private void resizeArrays(int capacity) {
+        id = Arrays.copyOf(id, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        signal = Arrays.copyOf(signal, capacity);
+        state = Arrays.copyOf(state, capacity);
+        timeElapsed = Arrays.copyOf(timeElapsed, capacity);
+        random = Arrays.copyOf(random, capacity);
+        footprint = Arrays.copyOf(footprint, capacity);
+    }
+
+    @Override
+    public int getNumFluorophores() {
+        return size;
+    }
+
+    /**
+     * @param index Index of the fluorophore.
+     * @return The unique ID of the fluorophore.
+     */
+    public int getId(int index) {
+        return id[index];
+    }
+
+    /**
+     * @param index Index of the fluorophore.
+     * @return x-position in pixels
+     */
+    public double getX(int index) {
+        return x[index];
+    }
+
+    /**
+     * @param index Index of the fluorophore.
+     * @return y-position in pixels
+     */
+    public double getY(int index) {
+        return y[index];
+    }
+
+    /**
+     * @param index Index of the fluorophore.
+     * @return z-position in pixels
+     */
+    public double getZ(int index) {
+        return z[index];
+    }
+
+    /**
+     * @param index Index of the fluorophore.
+     * @return Number of photons per frame.
+     */
+    public double getSignal(int index) {
+        return signal[index];
+    }
+
+    /**
+     * @param index Index of the fluorophore.
+     * @return The current state of the fluorophore.
+     */
+    public int getState(int index) {
+        return state[index];
+    }
+
+    /**
+     * @param index Index of the fluorophore.
+     * @return The time that the fluorophore has been simulated [frames].
+     */
+    public double getTimeElapsed(int index) {
+        return timeElapsed[index];
+    }
+
+    @Override
+    public boolean isOn(int index) {
+        return stateSystem.isOnState(state[index]);
+    }
+
+    /**
+     * @param index Index of the fluorophore.
+     * @return True if the fluorophore is bleached.
+     */
+    public boolean isBleached(int index) {
+        return stateSystem.isBleachedState(state[index]);
+    }
+
+    @Override
+    public void setLaserPower(double laserPower) {
+        stateSystem.recalculate_lifetimes(laserPower);
+    }
+
+    /**
+     * Simulates the state evolution of one fluorophore for the next frame.
+     *
+     * This follows {@link Fluorophore#simulateOnTime()}.
+     *
+     * @param i Index of the fluorophore.
+     * @return The expected number of photons emitted during the frame.
+     */
+    @Override
+    protected double simulatePhotons(int i) {
+        int current = state[i];
+        if (stateSystem.isBleachedState(current)) {
+            return 0.0;
+        }
+
+        double time = timeElapsed[i];
+        double remaining_time = 1.0;
+        double on_time = 0.0;
+        while (remaining_time > 0.0) {
+            double exit_rate = stateSystem.getExitRate(current);
+            double transition_time = Double.POSITIVE_INFINITY;
+            if (exit_rate > 0.0) {
+                transition_time = -Math.log(1 - nextDouble(i)) / exit_rate;
+            }
+            // transition happens sooner than end of frame
+            if (transition_time <= remaining_time) {
+                if (stateSystem.isOnState(current)) {
+                    on_time += transition_time;
+                }
+                remaining_time -= transition_time;
+                time += transition_time;
+
+                int next = stateSystem.nextState(current, nextDouble(i));
+                stateLogger.logStateTransition(id[i], time, current, next);
+                current = next;
+            // no transition happens till end of frame
+            } else {
+                if (stateSystem.isOnState(current)) {
+                    on_time += remaining_time;
+                }
+                time += remaining_time;
+                remaining_time = 0.0;
+            }
+        }
+        state[i] = (byte) current;
+        timeElapsed[i] = time;
+
+        if (on_time > 0.0) {
+            int frame = (int) (time + 0.999999);
+            frameLogger.logFrame(frame, id[i], x[i], y[i], z[i], on_time);
+        }
+        return on_time * signal[i];
+    }
+
+    /**
+     * Draws the next number of the random number stream of a fluorophore.
+     *
+     * The streams are SplitMix64 generators.
+     *
+     * @param i Index of the fluorophore.
+     * @return A random number uniformly distributed in [0, 1).
+     */
+    private double nextDouble(int i) {
+        long s = random[i] + 0x9E3779B97F4A7C15L;
+        random[i] = s;
+        return (RNG.mix64(s) >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Renders a fluorophore onto a flat image buffer.
+     *
+     * The footprint of the fluorophore is calculated if necessary, so this
+     * method must not be called concurrently.
+     *
+     * @param index Index of the fluorophore.
+     * @param pixels Image to be drawn on.
+     * @param nX Number of pixels in x. Must match the camera.
+     * @param nY Number of pixels in y. Must match the camera.
+     * @param brightness Brightness of the fluorophore in this frame
+     *                   [photons emitted].
+     */
+    @Override
+    public void draw(int index, float[] pixels, int nX, int nY,
+                     double brightness) {
+        if (nX != this.nX || nY != this.nY) {
+            throw new IllegalArgumentException(
+                    "Frame size does not match the camera of the population.");
+        }
+        if (footprint[index] == NO_FOOTPRINT) {
+            footprint[index] = addFootprint(index);
+        }
+        Footprint.addPacked(footprints, footprint[index], pixels, nX, nY,
+                            brightness);
+    }
+
+    /**
+     * Calculates the footprint of a fluorophore and packs it.
+     * @param i Index of the fluorophore.
+     * @return The offset of the footprint.
+     */
+    private int addFootprint(int i) {
+        psfBuilder.eX(x[i]).eY(y[i]).eZ(z[i]);
+        PSF psf = psfBuilder.build();
+
+        // Only pixels on the camera are kept
+        Footprint fp = Footprint.fromPSF(psf, x[i], y[i]).clip(nX, nY);
+        reserveFootprint(fp.getPackedLength());
+
+        int offset = footprintEnd;
+        fp.pack(footprints, offset);
+        footprintEnd += fp.getPackedLength();
+        return offset;
+    }
+
+    /**
+     * Makes room for a footprint of a given length.
+     *
+     * When the packed footprints are full, the footprints of bleached
+     * fluorophores are discarded. The array is enlarged if it is still more
+     * than half full afterwards.
+     *
+     * @param length The number of entries of the footprint.
+     */
+    private void reserveFootprint(int length) {
+        if (footprintEnd + length <= footprints.length) {
+            return;
+        }
+
+        int used = 0;
+        for (int i = 0; i < size; i++) {
+            if (footprint[i] != NO_FOOTPRINT) {
+                if (isBleached(i)) {
+                    footprint[i] = NO_FOOTPRINT;
+                } else {
+                    used += Footprint.getPackedLength(footprints, footprint[i]);
+                }
+            }
+        }
+        int capacity = footprints.length;
+        while (2 * (used + length) > capacity) {
+            capacity *= 2;
+        }
+
+        float[] packed = new float[capacity];
+        int end = 0;
+        for (int i = 0; i < size; i++) {
+            int offset = footprint[i];
+            if (offset != NO_FOOTPRINT) {
+                int len = Footprint.getPackedLength(footprints, offset);
+                System.arraycopy(footprints, offset, packed, end, len);
+                footprint[i] = end;
+                end += len;
+            }
+        }
+        footprints = packed;
+        footprintEnd = end;
+    }
+}
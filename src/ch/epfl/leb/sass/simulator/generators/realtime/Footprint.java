@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.psfs.FootprintPSF;
+import ch.epfl.leb.sass.simulator.generators.realtime.psfs.PSF;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The image of an emitter on the camera.
+ *
+ * A footprint is a rectangle of pixels with its top-left corner at (x0, y0)
+ * and a weight for each pixel, which is the fraction of the emitter's photons
+ * that hits the pixel. The weights are stored row by row in a float array.
+ *
+ * Drawing a footprint onto an image only intersects the rectangle with the
+ * image once, so the pixels are added in a plain loop over contiguous rows
+ * without checking every pixel against the image bounds.
+ */
+public final class Footprint {
+
+    /**
+     * The number of entries that precede the weights of a packed footprint.
+     */
+    public static final int PACKED_HEADER_LENGTH = 4;
+
+    private final int x0;
+    private final int y0;
+    private final int width;
+    private final int height;
+    private final float[] weights;
+
+    /**
+     * Creates a footprint.
+     *
+     * @param x0 x-position of the top-left pixel
+     * @param y0 y-position of the top-left pixel
+     * @param width The number of pixels in x.
+     * @param height The number of pixels in y.
+     * @param weights The weight of each pixel, row by row.
+     */
+    public Footprint(int x0, int y0, int width, int height, float[] weights) {
+        if (width < 0 || height < 0 || weights.length != width * height) {
+            throw new IllegalArgumentException(
+                    "The number of weights does not match the footprint size.");
+        }
+        this.x0 = x0;
+        this.y0 = y0;
+        this.width = width;
+        this.height = height;
+        this.weights = weights;
+    }
+
+    /**
+     * Creates the footprint that holds a list of pixels.
+     *
+     * The rectangle of the footprint is the bounding box of the pixels.
+     * Pixels of the rectangle that are not in the list have zero weight.
+     *
+     * @param pixels The pixels with their signatures.
+     * @return The footprint of the pixels.
+     */
+    public static Footprint fromPixels(List<Pixel> pixels) {
+        if (pixels.isEmpty()) {
+            return new Footprint(0, 0, 0, 0, new float[0]);
+        }
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (Pixel p: pixels) {
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+        }
+        int w = maxX - minX + 1;
+        int h = maxY - minY + 1;
+        float[] weights = new float[w * h];
+        for (Pixel p: pixels) {
+            weights[(p.x - minX) + (p.y - minY) * w] += p.getSignature();
+        }
+        return new Footprint(minX, minY, w, h, weights);
+    }
+
+    /**
+     * Calculates the footprint of an emitter from its PSF.
+     *
+     * The footprint holds the pixels whose centers lie within the radius of
+     * the PSF, as given by
+     * {@link Emitter#getPixelsWithinRadius(java.awt.geom.Point2D, double)}.
+     * PSFs that compute their footprint directly are asked for it instead.
+     *
+     * @param psf The PSF of the emitter.
+     * @param x x-position of the emitter [pixels]
+     * @param y y-position of the emitter [pixels]
+     * @return The footprint of the emitter.
+     */
+    public static Footprint fromPSF(PSF psf, double x, double y) {
+        if (psf instanceof FootprintPSF) {
+            return ((FootprintPSF) psf).getFootprint();
+        }
+        ArrayList<Pixel> pixels = Emitter.getPixelsWithinRadius(
+                new Point2D.Double(x, y), psf.getRadius());
+        psf.generateSignature(pixels);
+        return fromPixels(pixels);
+    }
+
+    /**
+     * Moves the footprint.
+     *
+     * @param dx The displacement in x [pixels].
+     * @param dy The displacement in y [pixels].
+     * @return A footprint that shares the weights of this one.
+     */
+    public Footprint translate(int dx, int dy) {
+        return new Footprint(x0 + dx, y0 + dy, width, height, weights);
+    }
+
+    /**
+     * Crops the footprint to an image.
+     *
+     * @param nX The number of pixels of the image in x.
+     * @param nY The number of pixels of the image in y.
+     * @return The part of the footprint that lies within the image. This is
+     *         the footprint itself if it lies entirely within the image.
+     */
+    public Footprint clip(int nX, int nY) {
+        int fromX = Math.max(x0, 0);
+        int fromY = Math.max(y0, 0);
+        int toX = Math.min(x0 + width, nX);
+        int toY = Math.min(y0 + height, nY);
+        if (fromX == x0 && fromY == y0 &&
+            toX == x0 + width && toY == y0 + height) {
+            return this;
+        }
+        if (toX <= fromX || toY <= fromY) {
+            return new Footprint(0, 0, 0, 0, new float[0]);
+        }
+        int w = toX - fromX;
+        int h = toY - fromY;
+        float[] clipped = new float[w * h];
+        for (int j = 0; j < h; j++) {
+            System.arraycopy(weights, (fromX - x0) + (fromY - y0 + j) * width,
+                             clipped, j * w, w);
+        }
+        return new Footprint(fromX, fromY, w, h, clipped);
+    }
+
+    /**
+     * Adds the footprint to a flat image buffer.
+     *
+     * The pixel at (x, y) is stored at index x + y * nX. Pixels of the
+     * footprint that fall outside the buffer are ignored.
+     *
+     * @param pixels Image to be drawn on.
+     * @param nX The number of pixels in x.
+     * @param nY The number of pixels in y.
+     * @param brightness The number of photons of the emitter.
+     */
+    public void addTo(float[] pixels, int nX, int nY, double brightness) {
+        addTo(x0, y0, width, height, weights, 0, pixels, nX, nY,
+              (float) brightness);
+    }
+
+    /**
+     * Adds the footprint to an image that is indexed as pixels[x][y].
+     *
+     * Pixels of the footprint that fall outside the image are ignored.
+     *
+     * @param pixels Image to be drawn on.
+     * @param brightness The number of photons of the emitter.
+     */
+    public void addTo(float[][] pixels, double brightness) {
+        if (pixels.length == 0) {
+            return;
+        }
+        int fromX = Math.max(x0, 0);
+        int fromY = Math.max(y0, 0);
+        int toX = Math.min(x0 + width, pixels.length);
+        int toY = Math.min(y0 + height, pixels[0].length);
+        float b = (float) brightness;
+        for (int i = fromX; i < toX; i++) {
+            float[] column = pixels[i];
+            int src = (i - x0) + (fromY - y0) * width;
+            for (int j = fromY; j < toY; j++) {
+                column[j] += b * weights[src];
+                src += width;
+            }
+        }
+    }
+
+    /**
+     * Adds the part of a footprint that overlaps an image row by row.
+     */
+    private static void addTo(int x0, int y0, int width, int height,
+                              float[] weights, int offset, float[] pixels,
+                              int nX, int nY, float brightness) {
+        int fromX = Math.max(x0, 0);
+        int fromY = Math.max(y0, 0);
+        int toX = Math.min(x0 + width, nX);
+        int toY = Math.min(y0 + height, nY);
+        int length = toX - fromX;
+        if (length <= 0) {
+            return;
+        }
+        for (int j = fromY; j < toY; j++) {
+            int src = offset + (fromX - x0) + (j - y0) * width;
+            int dst = fromX + j * nX;
+            for (int k = 0; k < length; k++) {
+                pixels[dst + k] += brightness * weights[src + k];
+            }
+        }
+    }
+
+    /**
+     * Returns the pixels of the footprint with a non-zero weight.
+     *
+     * @return A new list of pixels.
+     */
+    public ArrayList<Pixel> toPixelList() {
+        ArrayList<Pixel> result = new ArrayList<Pixel>();
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                float w = weights[i + j * width];
+                if (w != 0.0f) {
+                    result.add(new Pixel(x0 + i, y0 + j, w));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The sum of the weights.
+     */
+    public double getSum() {
+        double sum = 0;
+        for (float w: weights) {
+            sum += w;
+        }
+        return sum;
+    }
+
+    /**
+     * @return x-position of the top-left pixel
+     */
+    public int getX0() {
+        return x0;
+    }
+
+    /**
+     * @return y-position of the top-left pixel
+     */
+    public int getY0() {
+        return y0;
+    }
+
+    /**
+     * @return The number of pixels in x.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The number of pixels in y.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the weight of a pixel.
+     *
+     * @param x x-position of the pixel in the image
+     * @param y y-position of the pixel in the image
+     * @return The weight of the pixel, or zero if it is not in the footprint.
+     */
+    public double getWeight(int x, int y) {
+        if (x < x0 || x >= x0 + width || y < y0 || y >= y0 + height) {
+            return 0.0;
+        }
+        return weights[(x - x0) + (y - y0) * width];
+    }
+
+    /**
+     * @return The number of entries that {@link #pack(float[], int)} writes.
+     */
+    public int getPackedLength() {
+        return PACKED_HEADER_LENGTH + weights.length;
+    }
+
+    /**
+     * Writes the footprint into an array that holds many footprints.
+     *
+     * The rectangle is stored in a header of
+     * {@link #PACKED_HEADER_LENGTH} entries, followed by the weights.
+     *
+     * @param dest The array of packed footprints.
+     * @param offset The index at which the footprint starts.
+     */
+    public void pack(float[] dest, int offset) {
+        dest[offset] = Float.intBitsToFloat(x0);
+        dest[offset + 1] = Float.intBitsToFloat(y0);
+        dest[offset + 2] = Float.intBitsToFloat(width);
+        dest[offset + 3] = Float.intBitsToFloat(height);
+        System.arraycopy(weights, 0, dest, offset + PACKED_HEADER_LENGTH,
+                         weights.length);
+    }
+
+    /**
+     * Returns the length of a packed footprint.
+     *
+     * @param packed The array of packed footprints.
+     * @param offset The index at which the footprint starts.
+     * @return The number of entries of the footprint.
+     */
+    public static int getPackedLength(float[] packed, int offset) {
+        return PACKED_HEADER_LENGTH +
+               Float.floatToRawIntBits(packed[offset + 2]) *
+               Float.floatToRawIntBits(packed[offset + 3]);
+    }
+
+    /**
+     * Adds a packed footprint to a flat image buffer.
+     *
+     * @param packed The array of packed footprints.
+     * @param offset The index at which the footprint starts.
+     * @param pixels Image to be drawn on.
+     * @param nX The number of pixels in x.
+     * @param nY The number of pixels in y.
+     * @param brightness The number of photons of the emitter.
+     * @see #addTo(float[], int, int, double)
+     */
+    public static void addPacked(float[] packed, int offset, float[] pixels,
+                                 int nX, int nY, double brightness) {
+        addTo(Float.floatToRawIntBits(packed[offset]),
+              Float.floatToRawIntBits(packed[offset + 1]),
+              Float.floatToRawIntBits(packed[offset + 2]),
+              Float.floatToRawIntBits(packed[offset + 3]),
+              packed, offset + PACKED_HEADER_LENGTH, pixels, nX, nY,
+              (float) brightness);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A pool of reusable frame buffers.
+ *
+ * Frames are stored as flat arrays in row-major order, i.e. the pixel at
+ * (x, y) is found at index x + y * nX. This is the same layout that ImageJ
+ * uses for its image processors, so a buffer can be wrapped by a processor
+ * without being copied or transposed.
+ *
+ * Float buffers hold the signal while a frame is being accumulated; short
+ * buffers hold the final camera output. Buffers that are released back into
+ * the pool are handed out again by the next call to acquire, so a simulation
+ * that releases its frames once they are consumed does not allocate any new
+ * pixel arrays in steady state.
+ */
+public class FrameBufferPool {
+
+    /**
+     * The default number of idle buffers of each type that are retained.
+     */
+    public static final int DEFAULT_CAPACITY = 4;
+
+    /**
+     * The number of pixels in x.
+     */
+    private final int nX;
+
+    /**
+     * The number of pixels in y.
+     */
+    private final int nY;
+
+    /**
+     * The maximum number of idle buffers of each type that are retained.
+     */
+    private final int capacity;
+
+    /**
+     * Idle accumulation buffers.
+     */
+    private final ArrayDeque<float[]> floatBuffers = new ArrayDeque<>();
+
+    /**
+     * Idle output buffers.
+     */
+    private final ArrayDeque<short[]> shortBuffers = new ArrayDeque<>();
+
+    /**
+     * Creates a pool for frames of the given size.
+     * @param nX The number of pixels in x.
+     * @param nY The number of pixels in y.
+     */
+    public FrameBufferPool(int nX, int nY) {
+        this(nX, nY, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a pool for frames of the given size.
+     * @param nX The number of pixels in x.
+     * @param nY The number of pixels in y.
+     * @param capacity The maximum number of idle buffers of each type that
+     *                 are kept for reuse.
+     */
+    public FrameBufferPool(int nX, int nY, int capacity) {
+        if (nX < 1 || nY < 1) {
+            throw new IllegalArgumentException(
+                    "Frame dimensions must be positive.");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                    "Pool capacity must be at least one.");
+        }
+        this.nX = nX;
+        this.nY = nY;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns an accumulation buffer whose pixels are all zero.
+     * @return A flat float array of length nX * nY.
+     */
+    public float[] acquireFloatBuffer() {
+        float[] buffer;
+        synchronized (this) {
+            buffer = floatBuffers.pollFirst();
+        }
+        if (buffer == null) {
+            return new float[nX * nY];
+        }
+        Arrays.fill(buffer, 0.0f);
+        return buffer;
+    }
+
+    /**
+     * Returns an accumulation buffer to the pool.
+     *
+     * The buffer must not be used by the caller after it has been released.
+     *
+     * @param buffer A buffer previously obtained from this pool.
+     */
+    public void releaseFloatBuffer(float[] buffer) {
+        checkLength(buffer.length);
+        synchronized (this) {
+            if (floatBuffers.size() < capacity) {
+                floatBuffers.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns an output buffer.
+     *
+     * The contents of the buffer are undefined; it is expected to be
+     * overwritten completely by the caller.
+     *
+     * @return A flat short array of length nX * nY.
+     */
+    public short[] acquireShortBuffer() {
+        short[] buffer;
+        synchronized (this) {
+            buffer = shortBuffers.pollFirst();
+        }
+        if (buffer == null) {
+            return new short[nX * nY];
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns an output buffer to the pool.
+     *
+     * The buffer must not be used by the caller after it has been released.
+     *
+     * @param buffer A buffer previously obtained from this pool.
+     */
+    public void releaseShortBuffer(short[] buffer) {
+        checkLength(buffer.length);
+        synchronized (this) {
+            if (shortBuffers.size() < capacity) {
+                shortBuffers.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return The number of pixels in x.
+     */
+    public int getNX() {
+        return this.nX;
+    }
+
+    /**
+     * @return The number of pixels in y.
+     */
+    public int getNY() {
+        return this.nY;
+    }
+
+    /**
+     * Verifies that a released buffer belongs to frames of this size.
+     * @param length The length of the released buffer.
+     */
+    private void checkLength(int length) {
+        if (length != nX * nY) {
+            throw new IllegalArgumentException(
+                    "Buffer size does not match the frame size of the pool.");
+        }
+    }
+}
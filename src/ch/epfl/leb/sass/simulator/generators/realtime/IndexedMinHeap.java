@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+/**
+ * A binary min-heap over the integers 0 ... n-1 with a key for each integer.
+ *
+ * Every integer is always contained in the heap. The heap keeps track of
+ * where each integer is stored, so that the key of any integer can be
+ * changed in O(log n) time.
+ */
+public final class IndexedMinHeap {
+
+    /**
+     * The integers in heap order.
+     */
+    private final int[] heap;
+
+    /**
+     * The position of each integer in the heap.
+     */
+    private final int[] position;
+
+    /**
+     * The key of each integer.
+     */
+    private final double[] keys;
+
+    /**
+     * Creates a heap over the integers 0 ... keys.length-1.
+     * @param keys The initial keys. The array is copied.
+     */
+    public IndexedMinHeap(double[] keys) {
+        int n = keys.length;
+        this.heap = new int[n];
+        this.position = new int[n];
+        this.keys = keys.clone();
+        for (int i = 0; i < n; i++) {
+            heap[i] = i;
+            position[i] = i;
+        }
+        heapify();
+    }
+
+    /**
+     * @return The number of integers in the heap.
+     */
+    public int size() {
+        return heap.length;
+    }
+
+    /**
+     * @return The integer with the smallest key.
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * @return The smallest key, or positive infinity if the heap is empty.
+     */
+    public double peekKey() {
+        if (heap.length == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return keys[heap[0]];
+    }
+
+    /**
+     * @param index An integer of the heap.
+     * @return The key of the integer.
+     */
+    public double getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Changes the key of an integer.
+     * @param index An integer of the heap.
+     * @param key The new key.
+     */
+    public void update(int index, double key) {
+        double old = keys[index];
+        keys[index] = key;
+        if (key < old) {
+            siftUp(position[index]);
+        } else {
+            siftDown(position[index]);
+        }
+    }
+
+    /**
+     * Changes the keys of all integers at once in O(n) time.
+     * @param newKeys The new keys, indexed by integer.
+     */
+    public void updateAll(double[] newKeys) {
+        if (newKeys.length != keys.length) {
+            throw new IllegalArgumentException(
+                    "The number of keys does not match the size of the heap.");
+        }
+        System.arraycopy(newKeys, 0, keys, 0, keys.length);
+        heapify();
+    }
+
+    private void heapify() {
+        for (int i = heap.length / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private void siftUp(int pos) {
+        int index = heap[pos];
+        double key = keys[index];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int parentIndex = heap[parent];
+            if (keys[parentIndex] <= key) {
+                break;
+            }
+            heap[pos] = parentIndex;
+            position[parentIndex] = pos;
+            pos = parent;
+        }
+        heap[pos] = index;
+        position[index] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int n = heap.length;
+        int index = heap[pos];
+        double key = keys[index];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && keys[heap[child + 1]] < keys[heap[child]]) {
+                child++;
+            }
+            int childIndex = heap[child];
+            if (keys[childIndex] >= key) {
+                break;
+            }
+            heap[pos] = childIndex;
+            position[childIndex] = pos;
+            pos = child;
+        }
+        heap[pos] = index;
+        position[index] = pos;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+/**
+ * Evolves the states of a set of fluorophores frame by frame.
+ *
+ * An engine advances the fluorophores by one frame and reports the photons
+ * that each of them emitted. Drawing the photons onto the image is left to
+ * the caller.
+ */
+public interface KineticsEngine {
+
+    /**
+     * Simulates the state evolution of all fluorophores for the next frame.
+     *
+     * The returned array is reused by the next call to this method.
+     *
+     * @return The expected number of photons emitted by each fluorophore
+     *         during the frame, in the order of the list of fluorophores.
+     */
+    public double[] advance();
+
+    /**
+     * Returns the fluorophores that emitted light in the last frame.
+     *
+     * Only the first {@link #getNumEmitting()} entries of the returned array
+     * are valid. The array is reused by the next call to {@link #advance()}.
+     *
+     * @return Indices of the fluorophores that emitted light.
+     */
+    public int[] getEmitting();
+
+    /**
+     * @return The number of fluorophores that emitted light in the last frame.
+     */
+    public int getNumEmitting();
+
+    /**
+     * @return The number of fluorophores that are currently in the on state.
+     */
+    public int getOnCount();
+
+    /**
+     * Renders a fluorophore onto a flat image buffer with a given brightness,
+     * without advancing its state.
+     *
+     * The pixel at (x, y) is stored at index x + y * nX. Pixels of the
+     * fluorophore's image that fall outside the buffer are ignored.
+     *
+     * @param index Index of the fluorophore.
+     * @param pixels Image to be drawn on.
+     * @param nX Number of pixels in x.
+     * @param nY Number of pixels in y.
+     * @param brightness Brightness of the fluorophore in this frame
+     *                   [photons emitted].
+     */
+    public void draw(int index, float[] pixels, int nX, int nY,
+                     double brightness);
+
+    /**
+     * @return The number of fluorophores.
+     */
+    public int getNumFluorophores();
+
+    /**
+     * Recalculates the transition rates of the fluorophores for a new laser
+     * power.
+     * @param laserPower The new laser power.
+     */
+    public void setLaserPower(double laserPower);
+}
@@ -17,12 +17,11 @@
  */
 package ch.epfl.leb.sass.simulator.generators.realtime;
 
-import cern.jet.random.Gamma;
-import cern.jet.random.Normal;
 import ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.dynamics.FluorophoreDynamicsBuilder;
 import ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.dynamics.FluorophoreDynamics;
 import ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.commands.FluorophoreCommandBuilder;
 import ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.commands.FluorophoreCommand;
+import ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.commands.FluorophorePopulationCommand;
 import ch.epfl.leb.sass.simulator.generators.realtime.components.Camera;
 import ch.epfl.leb.sass.simulator.generators.realtime.components.Laser;
 import ch.epfl.leb.sass.simulator.generators.realtime.components.Objective;
@@ -32,11 +31,10 @@ import ch.epfl.leb.sass.simulator.generators.realtime.obstructors.commands.Obstr
 import ch.epfl.leb.sass.simulator.generators.realtime.obstructors.commands.ObstructorCommand;
 import ch.epfl.leb.sass.simulator.generators.realtime.backgrounds.commands.BackgroundCommandBuilder;
 import ch.epfl.leb.sass.simulator.generators.realtime.backgrounds.commands.BackgroundCommand;
-import ij.process.FloatProcessor;
+import cern.jet.random.Poisson;
 import ij.process.ShortProcessor;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
-import cern.jet.random.Poisson;
 import ij.IJ;
 
 /**
@@ -44,6 +42,30 @@ import ij.IJ;
  */
 public class Microscope {
     
+    /**
+     * The ways in which the states of the fluorophores can be evolved.
+     */
+    public static enum KineticsMode {
+        /**
+         * Every {@link Fluorophore} is advanced in every frame by a
+         * {@link FluorophoreKinetics} engine.
+         */
+        FLUOROPHORES,
+        
+        /**
+         * The fluorophores are evolved by an {@link EventDrivenKinetics}
+         * engine, which only visits the fluorophores that change state or
+         * shine in a frame.
+         */
+        EVENT_DRIVEN,
+        
+        /**
+         * The fluorophores are stored in the primitive arrays of a
+         * {@link FluorophorePopulation}, which holds millions of them.
+         */
+        POPULATION
+    }
+    
     // Assigned in the constructor
     private final Camera camera;
     private final Laser laser;
@@ -54,10 +76,20 @@ public class Microscope {
     private List<Obstructor> obstructors;
     private final BackgroundCommand background;
     
-    // Random number generators
+    // Static backgrounds are generated once, indexed as x + y * nX, or null
+    private final float[] backgroundLayer;
+    
+    // Reusable frame buffers
+    private final FrameBufferPool framePool;
+    
+    // Fluorophore state evolution
+    private final KineticsEngine fluorKinetics;
+    
+    // Photon shot noise of the fluorophores
     private final Poisson poisson = RNG.getPoissonGenerator();
-    private final Gamma gamma = RNG.getGammaGenerator();
-    private final Normal gaussian = RNG.getGaussianGenerator();
+    
+    // Camera noise, simulated in parallel image tiles
+    private final CameraNoise cameraNoise;
     
     /** 
      * Initializes the microscope for simulations.
@@ -82,6 +114,39 @@ public class Microscope {
             FluorophoreDynamicsBuilder fluorDynamicsBuilder,
             ObstructorCommandBuilder obstructorBuilder,
             BackgroundCommandBuilder backgroundBuilder) {
+        this(cameraBuilder, laserBuilder, objectiveBuilder, psfBuilder,
+             stageBuilder, positionBuilder, fluorDynamicsBuilder,
+             obstructorBuilder, backgroundBuilder,
+             KineticsMode.FLUOROPHORES);
+    }
+    
+    /** 
+     * Initializes the microscope for simulations.
+     * 
+     * @param cameraBuilder
+     * @param laserBuilder
+     * @param objectiveBuilder
+     * @param psfBuilder
+     * @param stageBuilder
+     * @param positionBuilder Positions fluorophore's within the field of view.
+     * @param fluorDynamicsBuilder
+     * @param obstructorBuilder Creates the obstructors, e.g. fiducials.
+     * @param backgroundBuilder Creates the background signal on the image.
+     * @param kineticsMode How the states of the fluorophores are evolved.
+     *                    POPULATION requires the position builder to build a
+     *                    {@link FluorophorePopulationCommand}.
+     */
+    public Microscope(
+            Camera.Builder cameraBuilder,
+            Laser.Builder laserBuilder,
+            Objective.Builder objectiveBuilder,
+            PSFBuilder psfBuilder,
+            Stage.Builder stageBuilder,
+            FluorophoreCommandBuilder positionBuilder,
+            FluorophoreDynamicsBuilder fluorDynamicsBuilder,
+            ObstructorCommandBuilder obstructorBuilder,
+            BackgroundCommandBuilder backgroundBuilder,
+            KineticsMode kineticsMode) {
         
         // Build objects that do not require further setup
         this.camera = cameraBuilder.build();
@@ -107,7 +172,19 @@ public class Microscope {
                        .psfBuilder(psfBuilder)
                        .fluorDynamics(fluorDynamics);
         FluorophoreCommand fluorCommand = positionBuilder.build();
-        this.fluorophores = fluorCommand.generateFluorophores();
+        FluorophorePopulation population = null;
+        if (kineticsMode == KineticsMode.POPULATION) {
+            if (!(fluorCommand instanceof FluorophorePopulationCommand)) {
+                throw new IllegalArgumentException(
+                        "The fluorophore command cannot generate a "
+                        + "population.");
+            }
+            population = ((FluorophorePopulationCommand) fluorCommand)
+                    .generatePopulation();
+            this.fluorophores = new ArrayList<>();
+        } else {
+            this.fluorophores = fluorCommand.generateFluorophores();
+        }
         
         // Build the obstructors
         obstructorBuilder.camera(camera).stage(stage).psfBuilder(psfBuilder);
@@ -117,11 +194,34 @@ public class Microscope {
         // Set the size of the background image and build it
         backgroundBuilder.nX(camera.getNX()).nY(camera.getNY());
         this.background = backgroundBuilder.build();
+        if (this.background.isStatic()) {
+            this.backgroundLayer = new float[camera.getNX() * camera.getNY()];
+            addBackground(this.backgroundLayer);
+        } else {
+            this.backgroundLayer = null;
+        }
+        
+        // Frame buffers are recycled between frames
+        this.framePool = new FrameBufferPool(camera.getNX(), camera.getNY());
+        this.cameraNoise = new CameraNoise(camera);
         
         // Determine the lifetimes for each fluorophore's current state
         for (Fluorophore f: fluorophores) {
             f.recalculate_lifetimes(laser.getPower());
         }
+        
+        switch (kineticsMode) {
+            case EVENT_DRIVEN:
+                this.fluorKinetics = new EventDrivenKinetics(fluorophores);
+                break;
+            case POPULATION:
+                population.setLaserPower(laser.getPower());
+                this.fluorKinetics = population;
+                break;
+            default:
+                this.fluorKinetics = new FluorophoreKinetics(fluorophores);
+                break;
+        }
     }
     
     /**
@@ -157,9 +257,7 @@ public class Microscope {
      */
     public void setLaserPower(double laserPower) {
         laser.setPower(laserPower);
-        for (Fluorophore e: fluorophores) {
-            e.recalculate_lifetimes(laser.getPower());
-        }
+        fluorKinetics.setLaserPower(laser.getPower());
     }
     
     /**
@@ -175,13 +273,7 @@ public class Microscope {
      * @return number of shining emitters
      */
     public double getOnEmitterCount() {
-        int count = 0;
-        for (Fluorophore e: fluorophores) {
-            if (e.isOn()) {
-                count++;
-            }
-        }
-        return count;
+        return fluorKinetics.getOnCount();
     }
     
     /**
@@ -190,91 +282,74 @@ public class Microscope {
      * First the obstructors are drawn on the frame, then the fluorophores,
      * and finally noise.
      * 
+     * The pixel array of the returned processor is taken from an internal
+     * pool. Callers that do not keep the frame should hand it back with
+     * {@link #releaseFrame(ij.process.ShortProcessor) releaseFrame} so that
+     * no new pixel arrays need to be allocated for the following frames.
+     * 
      * @return simulated frame
      */
     public ShortProcessor simulateFrame() {
-        float[][] pixels = new float[this.camera.getNX()][this.camera.getNY()];
-        for (int row = 0; row < pixels.length; row++)
-            Arrays.fill(pixels[row], 0.0f);
+        int nX = this.camera.getNX();
+        int nY = this.camera.getNY();
+        float[] pixels = framePool.acquireFloatBuffer();
         
         // Add obstructions
         if (obstructors != null) {
             for (Obstructor o: obstructors) {
-                o.applyTo(pixels);
+                o.applyTo(pixels, nX, nY);
             }
         }
         // Add fluorophores
-        // The applyTo method also handles fluorophore state changes by calling
-        // the simulateBrightness() method of an emitter.
-        for (Fluorophore f: fluorophores) {
-            f.applyTo(pixels);
+        // The states of all fluorophores are advanced first, possibly in
+        // parallel; the photons of those that emitted light are then drawn
+        // one after the other.
+        double[] photons = fluorKinetics.advance();
+        int[] emitting = fluorKinetics.getEmitting();
+        for (int i = 0; i < fluorKinetics.getNumEmitting(); i++) {
+            int index = emitting[i];
+            fluorKinetics.draw(index, pixels, nX, nY,
+                               poisson.nextInt(photons[index]));
         }
         
-        addBackground(pixels);
-        addNoise(pixels);
+        // Static backgrounds are added by the noise stage.
+        if (backgroundLayer == null) {
+            addBackground(pixels);
+        }
+        this.cameraNoise.addNoise(pixels, backgroundLayer);
         
         // Convert signal to ADU and add baseline.
-        for (int x = 0; x < pixels.length; x++) {
-            for (int y = 0; y < pixels[0].length; y++) {
-                pixels[x][y] *= this.camera.getAduPerElectron();
-                pixels[x][y] += this.camera.getBaseline();
-            }
-        }
+        short[] output = framePool.acquireShortBuffer();
+        this.camera.convertToADU(pixels, output);
+        framePool.releaseFloatBuffer(pixels);
         
-        // Convert to short array
-        FloatProcessor fp = new FloatProcessor(pixels);
-        return fp.convertToShortProcessor(false);
+        return new ShortProcessor(nX, nY, output, null);
     }
     
     /**
-     * Adds the background signal to the image.
-     * @param image The image to which a background will be added.
+     * Returns the pixel array of a frame to the pool of frame buffers.
+     * 
+     * The frame must have been created by {@link #simulateFrame()} and must
+     * not be used after it has been released.
+     * 
+     * @param frame A frame that is no longer needed.
      */
-    private void addBackground(float[][] image) {
-        float[][] backgroundSignal = this.background.generateBackground();
-        
-        for (int row=0; row < image.length; row++) {
-            for (int col=0; col < image[row].length; col++) {
-                image[row][col] += backgroundSignal[row][col];
-            }
-        }
+    public void releaseFrame(ShortProcessor frame) {
+        framePool.releaseShortBuffer((short[]) frame.getPixels());
     }
     
     /**
-     * Simulates noise sources.
-     * @param image image to be noised up.
+     * Adds the background signal to the image.
+     * @param image The image to which a background will be added.
      */
-    private void addNoise(float[][] image) {
-        
-        // Poisson noise
-        addPoissonNoise(image);
+    private void addBackground(float[] image) {
+        float[][] backgroundSignal = this.background.generateBackground();
+        int nX = this.camera.getNX();
+        int nY = this.camera.getNY();
         
-        for (int row=0; row < image.length; row++) {
-            // Multiplication noise from the EM gain register
-            for (int col=0; col < image[row].length; col++) {
-                if (this.camera.getEmGain() != 0) {
-                    // lambda parameter of nextDouble() is inverse of EM_gain.
-                    image[row][col] = (float) gamma.nextDouble(
-                            image[row][col]+0.01f,
-                            1.0 / ((double) this.camera.getEmGain()));
-                }
-                
-                // Dark noises (readout and thermal)
-                image[row][col] += 
-                        this.camera.getReadoutNoise()*gaussian.nextDouble() +
-                        this.camera.getThermalNoise()*gaussian.nextDouble();
-            }
-        }
-    }
-    
-    /**
-     * Adds Poisson noise to the image.
-     * @param image input image
-     */
-    private void addPoissonNoise(float[][] image) {
-        for (int x = 0; x < image.length; x++) {
-            for (int y = 0; y < image[0].length; y++) {
-                image[x][y] = (float) poisson.nextInt(image[x][y]);
+        for (int y = 0; y < nY; y++) {
+            for (int x = 0; x < nX; x++) {
+                image[x + y * nX] += backgroundSignal[x][y];
             }
         }
     }
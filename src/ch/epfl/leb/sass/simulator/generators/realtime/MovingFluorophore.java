@@ -58,7 +58,7 @@ public class MovingFluorophore extends Fluorophore {
     private void recalculateFluorophoreSignature(Point2D old_position, Point2D new_position) {
         // TODO: motion blurring
         this.setLocation(new_position);
-        this.pixel_list = get_pixels_within_radius(3 * camera.fwhm_digital / 2.3548, camera.fwhm_digital);
+        this.footprint = Footprint.fromPixels(get_pixels_within_radius(3 * camera.fwhm_digital / 2.3548, camera.fwhm_digital));
     }
     
 }
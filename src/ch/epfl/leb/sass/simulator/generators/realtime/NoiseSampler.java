@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+/**
+ * Draws the Poisson, Gamma and normal deviates of the camera noise.
+ *
+ * The noise of every pixel has a different mean, so the samplers keep no
+ * state that depends on their parameters, and nothing is allocated per
+ * deviate. Uniform deviates come from a xoroshiro128+ generator.
+ *
+ * <ul>
+ * <li>Poisson deviates with a mean below {@link #INVERSION_MEAN} are drawn
+ * by inversion, searching the CDF upwards from zero. Larger means use the
+ * transformed rejection method PTRS of W. Hörmann, "The transformed
+ * rejection method for generating Poisson random variables", Insurance:
+ * Mathematics and Economics 12 (1993).</li>
+ * <li>Gamma deviates use the method of G. Marsaglia and W. W. Tsang, "A
+ * simple method for generating gamma variables", ACM TOMS 26 (2000).
+ * Shapes below one are boosted by a uniform power.</li>
+ * <li>Normal deviates use the polar method of Marsaglia, which yields two
+ * deviates per accepted pair.</li>
+ * </ul>
+ *
+ * Instances are not thread-safe; every tile of the camera noise owns one.
+ */
+final class NoiseSampler {
+
+    /**
+     * The largest mean of the Poisson deviates that are drawn by inversion.
+     */
+    static final double INVERSION_MEAN = 10.0;
+
+    /**
+     * The number of tabulated values of log(k!).
+     */
+    private static final int LOG_FACTORIALS = 256;
+
+    private static final double[] LOG_FACTORIAL = new double[LOG_FACTORIALS];
+
+    private static final double HALF_LOG_TWO_PI = 0.5 * Math.log(2 * Math.PI);
+
+    static {
+        for (int k = 1; k < LOG_FACTORIALS; k++) {
+            LOG_FACTORIAL[k] = LOG_FACTORIAL[k - 1] + Math.log(k);
+        }
+    }
+
+    // The state of the xoroshiro128+ generator
+    private long s0;
+    private long s1;
+
+    // The second deviate of the polar method
+    private boolean hasSpareGaussian = false;
+    private double spareGaussian;
+
+    /**
+     * Creates a sampler.
+     *
+     * @param seed The seed of the uniform generator.
+     */
+    NoiseSampler(long seed) {
+        // The state must not be all zeros; mix64 is a bijection, so it
+        // maps at most one of the two inputs to zero.
+        this.s0 = RNG.mix64(seed + 0x9E3779B97F4A7C15L);
+        this.s1 = RNG.mix64(seed + 2 * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * @return A uniform deviate in [0, 1).
+     */
+    double nextDouble() {
+        long a = s0;
+        long b = s1;
+        long result = a + b;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return (result >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * @return A deviate of the standard normal distribution.
+     */
+    double nextGaussian() {
+        if (hasSpareGaussian) {
+            hasSpareGaussian = false;
+            return spareGaussian;
+        }
+        double u;
+        double v;
+        double s;
+        do {
+            u = 2 * nextDouble() - 1;
+            v = 2 * nextDouble() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        double factor = Math.sqrt(-2 * Math.log(s) / s);
+        spareGaussian = v * factor;
+        hasSpareGaussian = true;
+        return u * factor;
+    }
+
+    /**
+     * Draws a Poisson deviate.
+     *
+     * @param mean The mean of the distribution. Means that are not positive
+     *             give zero.
+     * @return The deviate.
+     */
+    int nextPoisson(double mean) {
+        if (!(mean > 0)) {
+            return 0;
+        }
+        if (mean < INVERSION_MEAN) {
+            // The search stops at the tail whose probability is below the
+            // resolution of the CDF.
+            double p = Math.exp(-mean);
+            double cdf = p;
+            double u = nextDouble();
+            int k = 0;
+            while (u > cdf && p > 0) {
+                k++;
+                p *= mean / k;
+                cdf += p;
+            }
+            return k;
+        }
+
+        double sqrtMean = Math.sqrt(mean);
+        double logMean = Math.log(mean);
+        double b = 0.931 + 2.53 * sqrtMean;
+        double a = -0.059 + 0.02483 * b;
+        double invAlpha = 1.1239 + 1.1328 / (b - 3.4);
+        double vr = 0.9277 - 3.6224 / (b - 2);
+        while (true) {
+            double u = nextDouble() - 0.5;
+            double v = nextDouble();
+            double us = 0.5 - Math.abs(u);
+            long k = (long) Math.floor((2 * a / us + b) * u + mean + 0.43);
+            if (us >= 0.07 && v <= vr) {
+                return (int) k;
+            }
+            if (k < 0 || (us < 0.013 && v > us)) {
+                continue;
+            }
+            if (Math.log(v * invAlpha / (a / (us * us) + b))
+                    <= -mean + k * logMean - logFactorial(k)) {
+                return (int) k;
+            }
+        }
+    }
+
+    /**
+     * Draws a Gamma deviate.
+     *
+     * @param shape The shape of the distribution.
+     * @param scale The scale of the distribution; the mean is shape * scale.
+     * @return The deviate.
+     */
+    double nextGamma(double shape, double scale) {
+        if (shape < 1) {
+            // Gamma(shape) = Gamma(shape + 1) U^(1 / shape)
+            double u = nextDouble();
+            return nextGamma(shape + 1, scale) * Math.pow(u, 1 / shape);
+        }
+        double d = shape - 1.0 / 3.0;
+        double c = 1 / Math.sqrt(9 * d);
+        while (true) {
+            double x;
+            double v;
+            do {
+                x = nextGaussian();
+                v = 1 + c * x;
+            } while (v <= 0);
+            v = v * v * v;
+            double u = nextDouble();
+            double xx = x * x;
+            if (u < 1 - 0.0331 * xx * xx ||
+                Math.log(u) < 0.5 * xx + d * (1 - v + Math.log(v))) {
+                return d * v * scale;
+            }
+        }
+    }
+
+    /**
+     * Computes log(k!) from a table, or Stirling's series above it.
+     */
+    private static double logFactorial(long k) {
+        if (k < LOG_FACTORIALS) {
+            return LOG_FACTORIAL[(int) k];
+        }
+        double x = k + 1;
+        double inv = 1 / x;
+        double inv2 = inv * inv;
+        return (x - 0.5) * Math.log(x) - x + HALF_LOG_TWO_PI
+               + inv * (1.0 / 12 - inv2 * (1.0 / 360 - inv2 / 1260));
+    }
+}
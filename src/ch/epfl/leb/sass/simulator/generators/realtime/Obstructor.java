@@ -32,4 +32,25 @@ public interface Obstructor {
      * @param pixels image to be drawn on
      */
     public void applyTo(float[][] pixels);
+    
+    /**
+     * Draws the obstruction onto a flat image buffer.
+     * 
+     * The pixel at (x, y) is stored at index x + y * nX. By default the
+     * obstruction is drawn onto a temporary two-dimensional image, which is
+     * then added to the buffer.
+     * 
+     * @param pixels image to be drawn on
+     * @param nX number of pixels in x
+     * @param nY number of pixels in y
+     */
+    public default void applyTo(float[] pixels, int nX, int nY) {
+        float[][] image = new float[nX][nY];
+        applyTo(image);
+        for (int y = 0; y < nY; y++) {
+            for (int x = 0; x < nX; x++) {
+                pixels[x + y * nX] += image[x][y];
+            }
+        }
+    }
 }
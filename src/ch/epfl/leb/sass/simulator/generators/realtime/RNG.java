@@ -30,7 +30,19 @@ import java.util.Random;
  * @author stefko
  */
 public final class RNG {
-    private static Random uniform = new Random(1);
+    
+    /**
+     * Stream kind of the camera noise, see {@link #deriveSeed(long, long)}.
+     */
+    public static final long CAMERA_NOISE_STREAM = 1;
+    
+    /**
+     * Stream kind of the fluorophore kinetics, see {@link #deriveSeed(long, long)}.
+     */
+    public static final long FLUOROPHORE_STREAM = 2;
+    
+    private static int seed = 1;
+    private static Random uniform = new Random(seed);
     private static Poisson poisson = new Poisson(1.0, new MersenneTwister(uniform.nextInt()));
     private static Gamma gamma = new Gamma(1.0, 5.0, new MersenneTwister(uniform.nextInt()));
     private static Normal gaussian = new Normal(0.0, 1.0, new MersenneTwister(uniform.nextInt()));
@@ -42,12 +54,50 @@ public final class RNG {
      * @param seed
      */
     public static void setSeed(int seed) {
+        RNG.seed = seed;
         uniform = new Random(seed);
         poisson = new Poisson(1.0, new MersenneTwister(uniform.nextInt()));
         gamma = new Gamma(1.0, 5.0, new MersenneTwister(uniform.nextInt()));
         gaussian = new Normal(0.0, 1.0, new MersenneTwister(uniform.nextInt()));
     }
     
+    /**
+     *
+     * @return the seed that the generators were last reset with
+     */
+    public static int getSeed() {
+        return seed;
+    }
+    
+    /**
+     * Derives the seed of an independent random number stream.
+     * 
+     * Parts of the simulation that run in parallel cannot share the
+     * generators above without making the results depend on the order in
+     * which the threads run. Instead, each of them draws from its own stream
+     * whose seed is derived here from the current simulation seed, the kind
+     * of stream and the index of the stream within that kind.
+     * 
+     * @param stream identifies the kind of stream, e.g. camera noise
+     * @param index index of the stream, e.g. the number of an image tile
+     * @return seed for the stream
+     */
+    public static long deriveSeed(long stream, long index) {
+        long z = mix64(seed + stream * 0x9E3779B97F4A7C15L);
+        return mix64(z + index * 0xBF58476D1CE4E5B9L);
+    }
+    
+    /**
+     * Scrambles the bits of a 64-bit value (the SplitMix64 finalizer).
+     * @param z value to scramble
+     * @return scrambled value
+     */
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
     /**
      *
      * @return uniform RNG
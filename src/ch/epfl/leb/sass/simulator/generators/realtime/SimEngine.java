@@ -87,7 +87,8 @@ public class SimEngine extends AbstractGenerator {
         // outright avoiding any image creation that happens inside
         // simulateFrame() because the Fluorophore state transitions are handled
         // inside a long chain of method calls. -kmd
-        microscope.simulateFrame();
+        // The frame is handed straight back so its buffer gets reused.
+        microscope.releaseFrame(microscope.simulateFrame());
     }
 
     @Override
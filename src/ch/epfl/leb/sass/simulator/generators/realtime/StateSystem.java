@@ -19,14 +19,29 @@
  */
 package ch.epfl.leb.sass.simulator.generators.realtime;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Class which describes a Markovian fluorophore state model. This class
  * provides transition rates and mean lifetimes for Markovian models based
  * on current laser illumination intensity.
+ * 
+ * For each laser power the model is compiled into tables that hold the
+ * total rate at which each state is left and the cumulative probabilities
+ * of its destination states, so that a jump can be drawn with one
+ * exponential and one uniform random number. The tables of the most
+ * recently used laser powers are kept, so switching back and forth between
+ * a few powers does not recalculate them.
  * @author stefko
  */
 public class StateSystem {
     
+    /**
+     * The number of laser powers whose tables are kept.
+     */
+    public static final int MAX_CACHED_POWERS = 16;
+    
     private final int N_states;
     
     private final double[][][] M_scaling;
@@ -40,13 +55,68 @@ public class StateSystem {
      * Transition matrix. Mk[i][j] holds the transition rate from the i-th
  state to the j-th state. Diagonal elements must be 0.
      */
-    private final double[][] Mk;
+    private double[][] Mk;
     
     /**
      * Transition matrix. Mt[i][j] holds the mean ransition time from the j-th
  state to the j-th state.
      */
-    private final double[][] Mt;
+    private double[][] Mt;
+    
+    /**
+     * Tables of the current laser power.
+     */
+    private Tables tables;
+    
+    /**
+     * Tables of recently used laser powers, least recently used first.
+     */
+    private final LinkedHashMap<Double, Tables> cache =
+            new LinkedHashMap<Double, Tables>(MAX_CACHED_POWERS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Double, Tables> eldest) {
+            return size() > MAX_CACHED_POWERS;
+        }
+    };
+    
+    /**
+     * The transition tables of the model for one laser power.
+     */
+    private static class Tables {
+        /**
+         * Transition rates.
+         */
+        final double[][] Mk;
+        
+        /**
+         * Mean transition lifetimes.
+         */
+        final double[][] Mt;
+        
+        /**
+         * Total rate at which each state is left.
+         */
+        final double[] exitRate;
+        
+        /**
+         * The states that can be reached from each state.
+         */
+        final int[][] destinations;
+        
+        /**
+         * Cumulative probabilities of the destinations of each state. The
+         * last entry of each row is exactly one.
+         */
+        final double[][] cumulative;
+        
+        Tables(int N_states) {
+            Mk = new double[N_states][N_states];
+            Mt = new double[N_states][N_states];
+            exitRate = new double[N_states];
+            destinations = new int[N_states][];
+            cumulative = new double[N_states][];
+        }
+    }
     
     /**
      * Initialize the state system.
@@ -86,9 +156,6 @@ public class StateSystem {
         this.N_states = N_states;
         this.M_scaling = M_scaling;
         
-        this.Mk = new double[N_states][N_states];
-        this.Mt = new double[N_states][N_states];
-        
         this.recalculate_lifetimes(1.0);
     }
     
@@ -109,7 +176,27 @@ public class StateSystem {
         if (laser_power == current_laser_power) {
             return;
         }
+        
+        Tables result = cache.get(laser_power);
+        if (result == null) {
+            result = compile(laser_power);
+            cache.put(laser_power, result);
+        }
         current_laser_power = laser_power;
+        tables = result;
+        Mk = result.Mk;
+        Mt = result.Mt;
+    }
+    
+    /**
+     * Calculates the tables of the model for a laser power.
+     * @param laser_power illumination intensity I to calculate for
+     * @return the tables
+     */
+    private Tables compile(double laser_power) {
+        Tables result = new Tables(N_states);
+        double[][] Mk = result.Mk;
+        double[][] Mt = result.Mt;
         
         // iterate over every state transition
         for (int row=0; row<N_states; row++) {
@@ -125,7 +212,7 @@ public class StateSystem {
                 
                 // iterate over linear, quadratic, ... terms and add them till they exist
                 for (int i=1; i<M_scaling[row][col].length; i++) {
-                    Mk[row][col] += M_scaling[row][col][i] * Math.pow(current_laser_power,i);
+                    Mk[row][col] += M_scaling[row][col][i] * Math.pow(laser_power,i);
                 }
                 
                 // if result is less than zero, throw exception
@@ -144,6 +231,69 @@ public class StateSystem {
                 }
             }
         }
+        // total exit rates and cumulative destination probabilities
+        for (int row=0; row<N_states; row++) {
+            int count = 0;
+            double total = 0.0;
+            for (int col=0; col<N_states; col++) {
+                if (Mk[row][col] > 0.0) {
+                    count++;
+                    total += Mk[row][col];
+                }
+            }
+            result.exitRate[row] = total;
+            result.destinations[row] = new int[count];
+            result.cumulative[row] = new double[count];
+            
+            double sum = 0.0;
+            int k = 0;
+            for (int col=0; col<N_states; col++) {
+                if (Mk[row][col] > 0.0) {
+                    sum += Mk[row][col];
+                    result.destinations[row][k] = col;
+                    result.cumulative[row][k] = sum / total;
+                    k++;
+                }
+            }
+            if (count > 0) {
+                result.cumulative[row][count - 1] = 1.0;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the total rate at which a state is left.
+     * 
+     * The time spent in the state is exponentially distributed with this
+     * rate.
+     * 
+     * @param from index of the state
+     * @return sum of the transition rates out of the state
+     */
+    public final double getExitRate(int from) {
+        return tables.exitRate[from];
+    }
+    
+    /**
+     * Picks the state that follows a jump out of a given state.
+     * 
+     * Each destination is chosen with a probability proportional to its
+     * transition rate.
+     * 
+     * @param from index of the state that is left
+     * @param uniform random number uniformly distributed in [0, 1)
+     * @return index of the next state, or from if the state cannot be left
+     */
+    public final int nextState(int from, double uniform) {
+        double[] cumulative = tables.cumulative[from];
+        int[] destinations = tables.destinations[from];
+        for (int k = 0; k < cumulative.length; k++) {
+            if (uniform < cumulative[k]) {
+                return destinations[k];
+            }
+        }
+        return from;
     }
     
     /**
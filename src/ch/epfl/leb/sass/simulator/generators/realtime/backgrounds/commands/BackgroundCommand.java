@@ -24,5 +24,19 @@ package ch.epfl.leb.sass.simulator.generators.realtime.backgrounds.commands;
 public interface BackgroundCommand {
     
     public float[][] generateBackground();
+    
+    /**
+     * Indicates whether the background is the same in every frame.
+     * 
+     * Static backgrounds are generated once at the start of the simulation
+     * and reused for all frames. By default, backgrounds are generated anew
+     * for every frame.
+     * 
+     * @return True if every call to generateBackground() returns the same
+     *         values.
+     */
+    public default boolean isStatic() {
+        return false;
+    }
 
 }
@@ -113,6 +113,15 @@ public final class GenerateBackgroundFromFile implements BackgroundCommand  {
     public float[][] generateBackground() {
         return pixels;
     }
+
+    /**
+     * The background does not change between frames.
+     * @return true
+     */
+    @Override
+    public boolean isStatic() {
+        return true;
+    }
     
     /**
      * Load the selected tif stack
@@ -0,0 +1,591 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.backgrounds.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays a recorded background movie from an uncompressed stack.
+ * 
+ * The stack is either a multi-page TIFF file, such as those written by
+ * ImageJ, or a raw file of frames stored one after the other. The file is
+ * memory-mapped when the command is built and the file is closed again; the
+ * mappings remain valid until the command is garbage-collected. The file
+ * is never read onto the heap as a whole; each call to
+ * {@link #generateBackground()} converts the next frame from its mapped
+ * view, and {@link #getFrame(int)} returns the view itself. The frames may
+ * be larger than the camera, in which case their top-left corner is used.
+ * 
+ * After the last frame, the movie restarts from the first frame if looping
+ * is enabled, and the last frame is repeated otherwise.
+ * 
+ * Pixels may be 8-, 16- or 32-bit signed or unsigned integers, or 32-bit
+ * floats. TIFF files must be uncompressed with one sample per pixel,
+ * and the strips of each page must be contiguous.
+ */
+public final class GenerateBackgroundFromStack implements BackgroundCommand {
+    
+    /**
+     * The size of the mapped segments of the file in bytes.
+     * 
+     * Each segment also maps one frame beyond its end, so that every frame
+     * lies entirely within the segment in which it starts, and files larger
+     * than a single mapping can be read.
+     */
+    private static final long SEGMENT_BYTES = 1L << 28;
+    
+    private static final Pattern IMAGEJ_IMAGES =
+            Pattern.compile("(?m)^images=(\\d+)");
+    
+    private final File file;
+    private final int nX;
+    private final int nY;
+    private final boolean loop;
+    
+    // The layout of the frames in the file
+    private final int width;
+    private final int height;
+    private final int bitsPerSample;
+    private final boolean signed;
+    private final boolean floatingPoint;
+    private final ByteOrder byteOrder;
+    private final long[] offsets;
+    private final long fileSize;
+    
+    private final MappedByteBuffer[] segments;
+    
+    /**
+     * The frame returned by generateBackground(), indexed as [x][y].
+     */
+    private final float[][] background;
+    
+    /**
+     * The index of the next frame.
+     */
+    private int next = 0;
+    
+    public static class Builder implements BackgroundCommandBuilder {
+        private File file;
+        private int nX;
+        private int nY;
+        private boolean loop = false;
+        
+        // The layout of raw files; TIFF files are read if rawWidth is 0
+        private int rawWidth = 0;
+        private int rawHeight;
+        private int rawBitsPerSample;
+        private long rawHeaderBytes = 0;
+        private ByteOrder rawByteOrder = ByteOrder.BIG_ENDIAN;
+        
+        public Builder file(File file) { this.file = file; return this; }
+        public Builder nX(int nX) { this.nX = nX; return this; }
+        public Builder nY(int nY) { this.nY = nY; return this; }
+        
+        /**
+         * Restarts the movie after its last frame.
+         * 
+         * @param loop If true, the frames are repeated from the first one.
+         *             If false, the last frame is repeated.
+         * @return This builder.
+         */
+        public Builder loop(boolean loop) { this.loop = loop; return this; }
+        
+        /**
+         * Reads the file as raw frames instead of a TIFF file.
+         * 
+         * The frames are stored one after the other, each row by row.
+         * 
+         * @param width The number of pixels of a frame in x.
+         * @param height The number of pixels of a frame in y.
+         * @param bitsPerSample 8 or 16 for unsigned integers, or 32 for
+         *                      floats.
+         * @return This builder.
+         */
+        public Builder raw(int width, int height, int bitsPerSample) {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException(
+                        "The size of the frames must be positive.");
+            }
+            if (bitsPerSample != 8 && bitsPerSample != 16 &&
+                bitsPerSample != 32) {
+                throw new IllegalArgumentException(
+                        "Raw pixels must have 8, 16 or 32 bits.");
+            }
+            this.rawWidth = width;
+            this.rawHeight = height;
+            this.rawBitsPerSample = bitsPerSample;
+            return this;
+        }
+        
+        /**
+         * @param bytes The number of bytes before the first raw frame.
+         * @return This builder.
+         */
+        public Builder rawHeader(long bytes) {
+            this.rawHeaderBytes = bytes;
+            return this;
+        }
+        
+        /**
+         * @param byteOrder The byte order of raw pixels. Defaults to
+         *                  big-endian.
+         * @return This builder.
+         */
+        public Builder rawByteOrder(ByteOrder byteOrder) {
+            this.rawByteOrder = byteOrder;
+            return this;
+        }
+        
+        @Override
+        public GenerateBackgroundFromStack build() {
+            return new GenerateBackgroundFromStack(this);
+        }
+    }
+    
+    /**
+     * Maps the stack and reads the layout of its frames.
+     * 
+     * @param builder The builder of the command.
+     */
+    private GenerateBackgroundFromStack(Builder builder) {
+        this.file = builder.file;
+        this.nX = builder.nX;
+        this.nY = builder.nY;
+        this.loop = builder.loop;
+        
+        // The channel is also closed when the stack is rejected.
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            this.fileSize = channel.size();
+            if (builder.rawWidth > 0) {
+                Layout layout = readRawLayout(builder);
+                this.width = layout.width;
+                this.height = layout.height;
+                this.bitsPerSample = layout.bitsPerSample;
+                this.signed = false;
+                this.floatingPoint = layout.bitsPerSample == 32;
+                this.byteOrder = builder.rawByteOrder;
+                this.offsets = layout.offsets;
+            } else {
+                Layout layout = readTiffLayout(channel);
+                this.width = layout.width;
+                this.height = layout.height;
+                this.bitsPerSample = layout.bitsPerSample;
+                this.signed = layout.signed;
+                this.floatingPoint = layout.floatingPoint;
+                this.byteOrder = layout.byteOrder;
+                this.offsets = layout.offsets;
+            }
+            
+            if (this.nX > this.width || this.nY > this.height) {
+                throw new ArrayIndexOutOfBoundsException(
+                        "Background image is too small!");
+            }
+            for (long offset: offsets) {
+                if (offset < 0 || offset + getFrameBytes() > fileSize) {
+                    throw new IllegalArgumentException(
+                            "The background stack " + file
+                            + " is truncated.");
+                }
+            }
+            this.segments = map(channel);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(
+                    "Cannot read the background stack " + file + ".", ex);
+        }
+        this.background = new float[this.nX][this.nY];
+    }
+    
+    /**
+     * @return The number of frames in the stack.
+     */
+    public int getNumFrames() {
+        return offsets.length;
+    }
+    
+    /**
+     * Returns a frame as a view of the mapped file.
+     * 
+     * The pixels are stored row by row in the byte order of the file, with
+     * {@link #getFrameWidth()} pixels per row.
+     * 
+     * @param index The index of the frame.
+     * @return A read-only view of the frame's bytes.
+     */
+    public ByteBuffer getFrame(int index) {
+        long offset = offsets[index];
+        int segment = (int) (offset / SEGMENT_BYTES);
+        ByteBuffer view = segments[segment].duplicate();
+        int position = (int) (offset - segment * SEGMENT_BYTES);
+        view.position(position).limit(position + (int) getFrameBytes());
+        return view.slice().asReadOnlyBuffer().order(byteOrder);
+    }
+    
+    /**
+     * @return The number of pixels of the frames in x.
+     */
+    public int getFrameWidth() {
+        return width;
+    }
+    
+    /**
+     * @return The number of pixels of the frames in y.
+     */
+    public int getFrameHeight() {
+        return height;
+    }
+    
+    /**
+     * Returns the next frame of the movie.
+     * 
+     * The same array is returned by every call and overwritten with the
+     * next frame.
+     * 
+     * @return The background photons of each pixel, indexed as [x][y].
+     */
+    @Override
+    public float[][] generateBackground() {
+        ByteBuffer frame = getFrame(next);
+        if (next + 1 < offsets.length) {
+            next++;
+        } else if (loop) {
+            next = 0;
+        }
+        
+        int bytes = bitsPerSample / 8;
+        for (int y = 0; y < nY; y++) {
+            int row = y * width * bytes;
+            for (int x = 0; x < nX; x++) {
+                int i = row + x * bytes;
+                float value;
+                if (bytes == 1) {
+                    byte b = frame.get(i);
+                    value = signed ? b : b & 0xff;
+                } else if (bytes == 2) {
+                    short s = frame.getShort(i);
+                    value = signed ? s : s & 0xffff;
+                } else if (floatingPoint) {
+                    value = frame.getFloat(i);
+                } else {
+                    int n = frame.getInt(i);
+                    value = signed ? n : n & 0xffffffffL;
+                }
+                background[x][y] = value;
+            }
+        }
+        return background;
+    }
+    
+    /**
+     * A stack with a single frame does not change.
+     * 
+     * @return True if the stack holds a single frame.
+     */
+    @Override
+    public boolean isStatic() {
+        return offsets.length == 1;
+    }
+    
+    private long getFrameBytes() {
+        return (long) width * height * (bitsPerSample / 8);
+    }
+    
+    /**
+     * Maps the segments of the file.
+     * 
+     * @param channel The open file.
+     * @return The mapped segments.
+     */
+    private MappedByteBuffer[] map(FileChannel channel) throws IOException {
+        MappedByteBuffer[] result = new MappedByteBuffer[
+                (int) ((fileSize + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+        for (int index = 0; index < result.length; index++) {
+            long start = index * SEGMENT_BYTES;
+            long size = Math.min(SEGMENT_BYTES + getFrameBytes(),
+                                 fileSize - start);
+            result[index] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                        start, size);
+        }
+        return result;
+    }
+    
+    /**
+     * The frames of a stack.
+     */
+    private static final class Layout {
+        int width;
+        int height;
+        int bitsPerSample;
+        boolean signed = false;
+        boolean floatingPoint = false;
+        ByteOrder byteOrder;
+        long[] offsets;
+    }
+    
+    /**
+     * Computes the offsets of the frames of a raw file.
+     */
+    private Layout readRawLayout(Builder builder) {
+        Layout layout = new Layout();
+        layout.width = builder.rawWidth;
+        layout.height = builder.rawHeight;
+        layout.bitsPerSample = builder.rawBitsPerSample;
+        long frameBytes = (long) layout.width * layout.height
+                          * (layout.bitsPerSample / 8);
+        long count = (fileSize - builder.rawHeaderBytes) / frameBytes;
+        if (count < 1) {
+            throw new IllegalArgumentException(
+                    "The background stack " + file + " holds no frame.");
+        }
+        layout.offsets = new long[(int) count];
+        for (int k = 0; k < count; k++) {
+            layout.offsets[k] = builder.rawHeaderBytes + k * frameBytes;
+        }
+        return layout;
+    }
+    
+    /**
+     * Reads the image file directories of a TIFF file.
+     * 
+     * ImageJ writes a single directory for stacks larger than 4 GB; the
+     * number of images is then read from its description, and the frames
+     * are assumed to follow each other.
+     */
+    private Layout readTiffLayout(FileChannel channel) throws IOException {
+        ByteBuffer header = read(channel, 0, 8);
+        ByteOrder order;
+        if (header.get(0) == 'I' && header.get(1) == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IllegalArgumentException(file + " is not a TIFF file.");
+        }
+        header.order(order);
+        if (header.getShort(2) != 42) {
+            throw new IllegalArgumentException(
+                    file + " is not a classic TIFF file.");
+        }
+        
+        Layout layout = null;
+        long[] offsets = new long[16];
+        int count = 0;
+        String description = null;
+        long ifd = header.getInt(4) & 0xffffffffL;
+        while (ifd != 0) {
+            int entries = read(channel, ifd, 2).order(order).getShort(0) & 0xffff;
+            ByteBuffer directory = read(channel, ifd + 2, 12 * entries + 4)
+                                   .order(order);
+            Page page = new Page();
+            for (int e = 0; e < entries; e++) {
+                page.read(directory, 12 * e);
+            }
+            if (page.compression != 1 || page.samplesPerPixel != 1) {
+                throw new IllegalArgumentException(
+                        "The background stack " + file
+                        + " must be uncompressed with one sample per pixel.");
+            }
+            if (layout == null) {
+                layout = new Layout();
+                layout.width = page.width;
+                layout.height = page.height;
+                layout.bitsPerSample = page.bitsPerSample;
+                layout.signed = page.sampleFormat == 2;
+                layout.floatingPoint = page.sampleFormat == 3;
+                layout.byteOrder = order;
+                if (page.descriptionOffset >= 0) {
+                    description = new String(
+                            bytes(read(channel, page.descriptionOffset,
+                                       page.descriptionLength)),
+                            StandardCharsets.ISO_8859_1);
+                }
+                checkSampleType(layout);
+            } else if (page.width != layout.width ||
+                       page.height != layout.height ||
+                       page.bitsPerSample != layout.bitsPerSample) {
+                throw new IllegalArgumentException(
+                        "The pages of the background stack " + file
+                        + " differ in size or type.");
+            }
+            
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * count);
+            }
+            offsets[count++] = page.getDataOffset(this, channel, order);
+            ifd = directory.getInt(12 * entries) & 0xffffffffL;
+        }
+        if (layout == null) {
+            throw new IllegalArgumentException(
+                    "The background stack " + file + " holds no frame.");
+        }
+        
+        // Stacks written by ImageJ with a single directory
+        if (count == 1 && description != null) {
+            Matcher matcher = IMAGEJ_IMAGES.matcher(description);
+            if (matcher.find()) {
+                int images = Integer.parseInt(matcher.group(1));
+                long frameBytes = (long) layout.width * layout.height
+                                  * (layout.bitsPerSample / 8);
+                offsets = Arrays.copyOf(offsets, images);
+                for (int k = 1; k < images; k++) {
+                    offsets[k] = offsets[0] + k * frameBytes;
+                }
+                count = images;
+            }
+        }
+        layout.offsets = Arrays.copyOf(offsets, count);
+        return layout;
+    }
+    
+    private void checkSampleType(Layout layout) {
+        boolean supported =
+                (layout.bitsPerSample == 8 && !layout.floatingPoint) ||
+                (layout.bitsPerSample == 16 && !layout.floatingPoint) ||
+                layout.bitsPerSample == 32;
+        if (!supported) {
+            throw new IllegalArgumentException(
+                    "The pixels of the background stack " + file
+                    + " must have 8, 16 or 32 bits.");
+        }
+    }
+    
+    /**
+     * The entries of a TIFF directory that describe a page.
+     */
+    private static final class Page {
+        int width;
+        int height;
+        int bitsPerSample = 1;
+        int compression = 1;
+        int samplesPerPixel = 1;
+        int sampleFormat = 1;
+        long descriptionOffset = -1;
+        int descriptionLength;
+        
+        // The strips of the page, which may be stored outside the entry
+        int stripCount;
+        int stripOffsetsType;
+        long stripOffsets;
+        int stripByteCountsType;
+        long stripByteCounts;
+        
+        void read(ByteBuffer directory, int at) {
+            int tag = directory.getShort(at) & 0xffff;
+            int type = directory.getShort(at + 2) & 0xffff;
+            int count = directory.getInt(at + 4);
+            long value = type == 3 ? directory.getShort(at + 8) & 0xffff
+                                   : directory.getInt(at + 8) & 0xffffffffL;
+            switch (tag) {
+                case 256: width = (int) value; break;
+                case 257: height = (int) value; break;
+                case 258: bitsPerSample = (int) value; break;
+                case 259: compression = (int) value; break;
+                case 270:
+                    // Strings of up to four bytes are stored in the entry.
+                    descriptionOffset = count <= 4 ? -1 : value;
+                    descriptionLength = count;
+                    break;
+                case 273:
+                    stripCount = count;
+                    stripOffsetsType = type;
+                    stripOffsets = value;
+                    break;
+                case 277: samplesPerPixel = (int) value; break;
+                case 279:
+                    stripByteCountsType = type;
+                    stripByteCounts = value;
+                    break;
+                case 339: sampleFormat = (int) value; break;
+                default: break;
+            }
+        }
+        
+        /**
+         * Returns the offset of the page's pixels, which must be stored in
+         * contiguous strips.
+         */
+        long getDataOffset(GenerateBackgroundFromStack stack,
+                           FileChannel channel, ByteOrder order)
+                throws IOException {
+            if (stripCount <= 1) {
+                return stripOffsets;
+            }
+            ByteBuffer offsets = stack.read(
+                    channel, stripOffsets, stripCount * size(stripOffsetsType))
+                    .order(order);
+            ByteBuffer counts = stack.read(
+                    channel, stripByteCounts, stripCount * size(stripByteCountsType))
+                    .order(order);
+            long first = get(offsets, 0, stripOffsetsType);
+            long expected = first;
+            for (int s = 0; s < stripCount; s++) {
+                if (get(offsets, s, stripOffsetsType) != expected) {
+                    throw new IllegalArgumentException(
+                            "The strips of the background stack "
+                            + stack.file + " are not contiguous.");
+                }
+                expected += get(counts, s, stripByteCountsType);
+            }
+            return first;
+        }
+        
+        private static int size(int type) {
+            return type == 3 ? 2 : 4;
+        }
+        
+        private static long get(ByteBuffer buffer, int index, int type) {
+            return type == 3 ? buffer.getShort(2 * index) & 0xffff
+                             : buffer.getInt(4 * index) & 0xffffffffL;
+        }
+    }
+    
+    /**
+     * Reads bytes of the file.
+     */
+    private ByteBuffer read(FileChannel channel, long position, int length)
+            throws IOException {
+        if (position < 0 || position + length > fileSize) {
+            throw new IllegalArgumentException(
+                    "The background stack " + file + " is truncated.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + file + ".");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+}
@@ -18,15 +18,36 @@
 package ch.epfl.leb.sass.simulator.generators.realtime.backgrounds.commands;
 
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Generates random background patterns from a simplex noise generator.
  * 
+ * By default the pattern is the same in every frame. If a time step is set,
+ * the third coordinate of the noise advances by this step after each frame,
+ * so that the pattern drifts slowly like autofluorescence. The noise of a
+ * drifting background is only evaluated on a coarse grid of points that are
+ * a fraction of the feature size apart and is interpolated bilinearly onto
+ * the pixels. The grid of the next frame is evaluated on a pool while the
+ * current frame is simulated.
+ * 
+ * Static backgrounds are evaluated at every pixel in tiles of
+ * {@link #ROWS_PER_TILE} rows, which run in parallel on the pool. Each tile
+ * finds the range of its own values, and the ranges of the tiles are merged
+ * before the tiles are scaled to [min, max].
  * 
  * @author Kyle M. Douglass
  */
 public class GenerateRandomBackground implements BackgroundCommand {
     
+    /**
+     * The number of rows in one tile of a static background.
+     */
+    public static final int ROWS_PER_TILE = 16;
+    
     /**
      * The characteristic size of a random feature in pixels.
      */
@@ -58,6 +79,42 @@ public class GenerateRandomBackground implements BackgroundCommand {
      */
     private final int nY;
     
+    /**
+     * The increment of the noise's time coordinate per frame, or 0 if the
+     * background is static.
+     */
+    private final double timeStep;
+    
+    /**
+     * The distance between the points of the coarse grid in pixels.
+     */
+    private final double gridSpacing;
+    
+    /**
+     * The pool that evaluates the coarse grids.
+     */
+    private final ForkJoinPool pool;
+    
+    private final OpenSimplexNoise noise = new OpenSimplexNoise();
+    
+    // The coarse grid: number of points and the grid cell of each pixel
+    private int gridX;
+    private int gridY;
+    private int[] cellX;
+    private int[] cellY;
+    private float[] fractionX;
+    private float[] fractionY;
+    
+    /**
+     * The index of the next frame of a drifting background.
+     */
+    private int frame = 0;
+    
+    /**
+     * The evaluation of the coarse grid of the next frame, or null.
+     */
+    private ForkJoinTask<float[]> nextGrid = null;
+    
     public static class Builder implements BackgroundCommandBuilder {
         private double featureSize;
         private int seed;
@@ -65,6 +122,9 @@ public class GenerateRandomBackground implements BackgroundCommand {
         private float max;
         private int nX;
         private int nY;
+        private double timeStep = 0;
+        private double gridSpacing = Double.NaN;
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
         
         public Builder featureSize(double featureSize) {
             this.featureSize = featureSize;
@@ -76,6 +136,52 @@ public class GenerateRandomBackground implements BackgroundCommand {
         public Builder nX(int nX) { this.nX = nX; return this; }
         public Builder nY(int nY) { this.nY = nY; return this; }
         
+        /**
+         * Makes the background drift over time.
+         * 
+         * @param timeStep The increment of the noise's time coordinate per
+         *                 frame, e.g. 0.01, or 0 for a static background.
+         *                 A step of one changes the pattern completely.
+         * @return This builder.
+         */
+        public Builder timeStep(double timeStep) {
+            if (!(timeStep >= 0)) {
+                throw new IllegalArgumentException(
+                        "The time step must not be negative.");
+            }
+            this.timeStep = timeStep;
+            return this;
+        }
+        
+        /**
+         * Sets the spacing of the coarse grid of a drifting background.
+         * 
+         * @param gridSpacing The distance between the points at which the
+         *                    noise is evaluated, at least one pixel. Defaults
+         *                    to a quarter of the feature size.
+         * @return This builder.
+         */
+        public Builder gridSpacing(double gridSpacing) {
+            if (!(gridSpacing >= 1)) {
+                throw new IllegalArgumentException(
+                        "The grid spacing must be at least one pixel.");
+            }
+            this.gridSpacing = gridSpacing;
+            return this;
+        }
+        
+        /**
+         * Sets the pool that evaluates the tiles of a static background or
+         * the coarse grids of a drifting background.
+         * 
+         * @param pool The pool. Defaults to the common pool.
+         * @return This builder.
+         */
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+        
         public GenerateRandomBackground build() {
             return new GenerateRandomBackground(this);
         }        
@@ -88,52 +194,253 @@ public class GenerateRandomBackground implements BackgroundCommand {
         this.max = builder.max;
         this.nX = builder.nX;
         this.nY = builder.nY;
+        this.timeStep = builder.timeStep;
+        this.gridSpacing = Double.isNaN(builder.gridSpacing) ?
+                Math.max(1, builder.featureSize / 4) : builder.gridSpacing;
+        this.pool = builder.pool;
     }
     
     /**
      * Create the random background signal.
      * 
+     * A drifting background advances to the next frame with every call.
+     * 
      * @return A 2D array of background photons for each pixel.
      */
     @Override
     public float[][] generateBackground() {
+        if (this.timeStep > 0) {
+            return generateDriftingBackground();
+        }
+        
         float[][] background = new float[this.nY][this.nX];
+        int numTiles = (this.nY + ROWS_PER_TILE - 1) / ROWS_PER_TILE;
+        if (numTiles == 0) {
+            return background;
+        }
+        
+        // The x-coordinates of the noise are shared by all rows.
+        double[] xs = new double[this.nX];
+        for (int x = 0; x < this.nX; x++) {
+            xs[x] = x / featureSize;
+        }
         
-        OpenSimplexNoise noise = new OpenSimplexNoise();
+        // Evaluate the tiles and merge their ranges
+        float[] tileMin = new float[numTiles];
+        float[] tileMax = new float[numTiles];
+        pool.invoke(new TileTask(background, xs, tileMin, tileMax,
+                                 0, numTiles));
         float maxValue = Float.NEGATIVE_INFINITY;
         float minValue = Float.POSITIVE_INFINITY;
+        for (int t = 0; t < numTiles; t++) {
+            maxValue = Math.max(maxValue, tileMax[t]);
+            minValue = Math.min(minValue, tileMin[t]);
+        }
         
-        for (int y = 0; y < this.nY; y++) {
-            for (int x = 0; x < this.nX; x++) {
-                // If we want to make this vary in time in the future, simply
-                // increment the last argument to noise.eval() after each frame.
-                background[y][x] = (float) noise.eval(
-                        x / featureSize,
-                        y / featureSize,
-                        (double) this.seed
-                );
-                
-                if (background[y][x] > maxValue)
-                    maxValue = background[y][x];
-                
-                if (background[y][x] < minValue)
-                    minValue = background[y][x];
+        // Renormalize the noise to the range [minValue, maxValue]
+        float slope = (this.max - this.min) / (maxValue - minValue);
+        pool.invoke(new ScaleTask(background, slope, maxValue, 0, numTiles));
+        
+        return background;
+    }
+    
+    /**
+     * Evaluates the noise on a range of tiles of a static background,
+     * splitting it until each task holds a single tile.
+     */
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final float[][] background;
+        private final double[] xs;
+        private final float[] tileMin;
+        private final float[] tileMax;
+        private final int from;
+        private final int to;
+        
+        TileTask(float[][] background, double[] xs, float[] tileMin,
+                 float[] tileMax, int from, int to) {
+            this.background = background;
+            this.xs = xs;
+            this.tileMin = tileMin;
+            this.tileMax = tileMax;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileTask(background, xs, tileMin, tileMax,
+                                       from, mid),
+                          new TileTask(background, xs, tileMin, tileMax,
+                                       mid, to));
+                return;
             }
+            float maxValue = Float.NEGATIVE_INFINITY;
+            float minValue = Float.POSITIVE_INFINITY;
+            int rowEnd = Math.min(nY, (from + 1) * ROWS_PER_TILE);
+            for (int y = from * ROWS_PER_TILE; y < rowEnd; y++) {
+                float[] row = background[y];
+                double yNoise = y / featureSize;
+                for (int x = 0; x < nX; x++) {
+                    float value = (float) noise.eval(xs[x], yNoise,
+                                                     (double) seed);
+                    row[x] = value;
+                    maxValue = Math.max(maxValue, value);
+                    minValue = Math.min(minValue, value);
+                }
+            }
+            tileMin[from] = minValue;
+            tileMax[from] = maxValue;
         }
+    }
+    
+    /**
+     * Scales a range of tiles of a static background to [min, max].
+     */
+    private class ScaleTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
         
-        float slope = (this.max - this.min) / (maxValue - minValue);
+        private final float[][] background;
+        private final float slope;
+        private final float maxValue;
+        private final int from;
+        private final int to;
         
-        // Renormalize the noise to the range [minValue, maxValue]
+        ScaleTask(float[][] background, float slope, float maxValue,
+                  int from, int to) {
+            this.background = background;
+            this.slope = slope;
+            this.maxValue = maxValue;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ScaleTask(background, slope, maxValue, from, mid),
+                          new ScaleTask(background, slope, maxValue, mid, to));
+                return;
+            }
+            int rowEnd = Math.min(nY, (from + 1) * ROWS_PER_TILE);
+            for (int y = from * ROWS_PER_TILE; y < rowEnd; y++) {
+                float[] row = background[y];
+                for (int x = 0; x < row.length; x++) {
+                    row[x] = slope * row[x] + max - slope * maxValue;
+                }
+            }
+        }
+    }
+
+    /**
+     * Interpolates the coarse grid of the current frame onto the pixels.
+     * 
+     * @return A 2D array of background photons for each pixel.
+     */
+    private float[][] generateDriftingBackground() {
+        if (nextGrid == null) {
+            initializeGrid();
+            nextGrid = submitGrid(frame);
+        }
+        float[] grid = nextGrid.join();
+        frame++;
+        nextGrid = submitGrid(frame);
+        
+        float[][] background = new float[this.nY][this.nX];
         for (int y = 0; y < this.nY; y++) {
+            int row = cellY[y] * gridX;
+            float fy = fractionY[y];
             for (int x = 0; x < this.nX; x++) {
-                // If we want to make this vary in time in the future, simply
-                // increment the last argument to noise.eval after each frame.
-                background[y][x] = slope * background[y][x] +
-                                   this.max - slope * maxValue;
+                int i = row + cellX[x];
+                float fx = fractionX[x];
+                float top = grid[i] + fx * (grid[i + 1] - grid[i]);
+                float bottom = grid[i + gridX] +
+                               fx * (grid[i + gridX + 1] - grid[i + gridX]);
+                background[y][x] = top + fy * (bottom - top);
             }
         }
-        
         return background;
     }
     
+    /**
+     * Computes the size of the coarse grid and the grid cell of each pixel.
+     */
+    private void initializeGrid() {
+        gridX = (int) Math.floor((this.nX - 1) / gridSpacing) + 2;
+        gridY = (int) Math.floor((this.nY - 1) / gridSpacing) + 2;
+        cellX = new int[this.nX];
+        fractionX = new float[this.nX];
+        for (int x = 0; x < this.nX; x++) {
+            double u = x / gridSpacing;
+            cellX[x] = (int) u;
+            fractionX[x] = (float) (u - cellX[x]);
+        }
+        cellY = new int[this.nY];
+        fractionY = new float[this.nY];
+        for (int y = 0; y < this.nY; y++) {
+            double v = y / gridSpacing;
+            cellY[y] = (int) v;
+            fractionY[y] = (float) (v - cellY[y]);
+        }
+    }
+    
+    /**
+     * Starts the evaluation of the coarse grid of a frame on the pool.
+     * 
+     * @param index The index of the frame.
+     * @return The task that evaluates the grid.
+     */
+    private ForkJoinTask<float[]> submitGrid(final int index) {
+        return pool.submit(new Callable<float[]>() {
+            @Override
+            public float[] call() {
+                return evaluateGrid(seed + index * timeStep);
+            }
+        });
+    }
+    
+    /**
+     * Evaluates the noise on the coarse grid and scales it to [min, max].
+     * 
+     * The scaling is linear, so the interpolated pixels lie within the same
+     * range.
+     * 
+     * @param time The time coordinate of the noise.
+     * @return The grid, indexed as x + y * gridX.
+     */
+    private float[] evaluateGrid(double time) {
+        float[] grid = new float[gridX * gridY];
+        float maxValue = Float.NEGATIVE_INFINITY;
+        float minValue = Float.POSITIVE_INFINITY;
+        for (int j = 0; j < gridY; j++) {
+            for (int i = 0; i < gridX; i++) {
+                float value = (float) noise.eval(i * gridSpacing / featureSize,
+                                                 j * gridSpacing / featureSize,
+                                                 time);
+                grid[i + j * gridX] = value;
+                maxValue = Math.max(maxValue, value);
+                minValue = Math.min(minValue, value);
+            }
+        }
+        
+        float slope = (this.max - this.min) / (maxValue - minValue);
+        for (int k = 0; k < grid.length; k++) {
+            grid[k] = slope * grid[k] + this.max - slope * maxValue;
+        }
+        return grid;
+    }
+    
+    /**
+     * A background with a time step changes between frames.
+     * @return true if the time step is zero.
+     */
+    @Override
+    public boolean isStatic() {
+        return this.timeStep == 0;
+    }
+    
 }
@@ -85,4 +85,13 @@ public final class GenerateUniformBackground implements BackgroundCommand {
         
         return background;
     }
+
+    /**
+     * The background does not change between frames.
+     * @return true
+     */
+    @Override
+    public boolean isStatic() {
+        return true;
+    }
 }
@@ -149,6 +149,36 @@ public final class Camera {
     public double getReadoutNoise() { return this.readoutNoise; }
     public double getThermalNoise() { return this.thermal_noise; }
     
+    /**
+     * Converts a frame of photoelectrons into the camera's digital output.
+     * 
+     * Each pixel is converted to ADU, offset by the baseline, rounded to the
+     * nearest integer, and clipped to the range of an unsigned 16-bit value.
+     * This is done in a single pass, so the resulting array can be wrapped
+     * directly by an ImageJ ShortProcessor.
+     * 
+     * @param electrons The number of electrons in each pixel.
+     * @param adu Output array for the pixel values. This must be at least as
+     *            long as the electrons array.
+     */
+    public void convertToADU(float[] electrons, short[] adu) {
+        if (adu.length < electrons.length) {
+            throw new IllegalArgumentException(
+                    "The output array is smaller than the input array.");
+        }
+        final double gain = this.aduPerElectron;
+        final int offset = this.baseline;
+        for (int i = 0; i < electrons.length; i++) {
+            float value = (float) (electrons[i] * gain) + offset;
+            if (value < 0f) {
+                value = 0f;
+            } else if (value > 65535f) {
+                value = 65535f;
+            }
+            adu[i] = (short) (value + 0.5f);
+        }
+    }
+    
     /**
      * @return The number of pixels in x.
      */
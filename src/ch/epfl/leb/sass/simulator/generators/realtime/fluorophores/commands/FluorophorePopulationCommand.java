@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.commands;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.FluorophorePopulation;
+
+/**
+ * A command that can also generate its fluorophores as a population.
+ * 
+ * Commands that implement this interface can be used with
+ * {@link ch.epfl.leb.sass.simulator.generators.realtime.Microscope.KineticsMode#POPULATION}.
+ */
+public interface FluorophorePopulationCommand extends FluorophoreCommand {
+    
+    /**
+     * Generates the same arrangement of fluorophores as
+     * {@link #generateFluorophores()}, stored in primitive arrays.
+     * 
+     * @return The population of fluorophores.
+     */
+    public FluorophorePopulation generatePopulation();
+    
+}
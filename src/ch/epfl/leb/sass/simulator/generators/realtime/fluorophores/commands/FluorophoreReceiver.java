@@ -19,6 +19,7 @@ package ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.commands;
 
 import ch.epfl.leb.sass.simulator.generators.realtime.RNG;
 import ch.epfl.leb.sass.simulator.generators.realtime.Fluorophore;
+import ch.epfl.leb.sass.simulator.generators.realtime.FluorophorePopulation;
 import ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.dynamics.FluorophoreDynamics;
 import ch.epfl.leb.sass.simulator.generators.realtime.components.Camera;
 import ch.epfl.leb.sass.simulator.generators.realtime.psfs.PSFBuilder;
@@ -60,24 +61,10 @@ public class FluorophoreReceiver {
             Camera camera,
             PSFBuilder psfBuilder,
             FluorophoreDynamics fluorDynamics) {
-        Random rnd = RNG.getUniformGenerator();
-        ArrayList<Fluorophore> result = new ArrayList();
-        double x;
-        double y;
-        double z = 0;
-        Fluorophore fluorophore;
-        for (int i=0; i < numFluors; i++) {
-            x = camera.getNX() * rnd.nextDouble();
-            y = camera.getNY() * rnd.nextDouble();
-            fluorophore = new Fluorophore(
-                psfBuilder,
-                fluorDynamics.getSignal(),
-                fluorDynamics.getStateSystem(),
-                fluorDynamics.getStartingState(),
-                x, y, z);
-            result.add(fluorophore);
-        }
-        return result;
+        FluorophoreList result = new FluorophoreList(
+                psfBuilder, fluorDynamics, numFluors);
+        randomPositions(numFluors, false, 0, 0, camera, result);
+        return result.fluorophores;
     }
     
     /**
@@ -98,25 +85,10 @@ public class FluorophoreReceiver {
             Camera camera,
             PSFBuilder psfBuilder,
             FluorophoreDynamics fluorDynamics) {
-        Random rnd = RNG.getUniformGenerator();
-        ArrayList<Fluorophore> result = new ArrayList();
-        double x;
-        double y;
-        double z;
-        Fluorophore fluorophore;
-        for (int i=0; i < numFluors; i++) {
-            x = camera.getNX() * rnd.nextDouble();
-            y = camera.getNY() * rnd.nextDouble();
-            z = (zHigh - zLow) * rnd.nextDouble() + zLow;
-            fluorophore = new Fluorophore(
-                psfBuilder,
-                fluorDynamics.getSignal(),
-                fluorDynamics.getStateSystem(),
-                fluorDynamics.getStartingState(),
-                x, y, z);
-            result.add(fluorophore);
-        }
-        return result;
+        FluorophoreList result = new FluorophoreList(
+                psfBuilder, fluorDynamics, numFluors);
+        randomPositions(numFluors, true, zLow, zHigh, camera, result);
+        return result.fluorophores;
     }
     
     /**
@@ -133,23 +105,10 @@ public class FluorophoreReceiver {
             Camera camera,
             PSFBuilder psfBuilder,
             FluorophoreDynamics fluorDynamics) {
-        int limitX = camera.getNX();
-        int limitY = camera.getNY();
-        double z = 0.0;
-        ArrayList<Fluorophore> result = new ArrayList();
-        Fluorophore fluorophore;       
-        for (int i=spacing; i < limitX; i+=spacing) {
-            for (int j=spacing; j < limitY; j+= spacing) {
-                fluorophore = new Fluorophore(
-                    psfBuilder,
-                    fluorDynamics.getSignal(),
-                    fluorDynamics.getStateSystem(),
-                    fluorDynamics.getStartingState(),
-                    i, j, z);
-                result.add(fluorophore);
-            }
-        }       
-        return result;
+        FluorophoreList result = new FluorophoreList(
+                psfBuilder, fluorDynamics);
+        gridPositions(spacing, false, 0.0, 0.0, camera, result);
+        return result.fluorophores;
     }
     
     /**
@@ -170,27 +129,10 @@ public class FluorophoreReceiver {
             Camera camera,
             PSFBuilder psfBuilder,
             FluorophoreDynamics fluorDynamics) {
-        int limitX = camera.getNX();
-        int limitY = camera.getNY();
-        double numFluors = ((double) limitX - spacing) * ((double) limitY - spacing) / spacing / spacing;
-        double zSpacing  = (zHigh - zLow) / (numFluors - 1);
-        double z = zLow;
-        
-        ArrayList<Fluorophore> result = new ArrayList();
-        Fluorophore fluorophore;
-        for (int i = spacing; i < limitX; i += spacing) {
-            for (int j = spacing; j < limitY; j += spacing) {
-                fluorophore = new Fluorophore(
-                    psfBuilder,
-                    fluorDynamics.getSignal(),
-                    fluorDynamics.getStateSystem(),
-                    fluorDynamics.getStartingState(),
-                    i, j, z);
-                result.add(fluorophore);
-                z += zSpacing;
-            }
-        }       
-        return result;
+        FluorophoreList result = new FluorophoreList(
+                psfBuilder, fluorDynamics);
+        gridPositions(spacing, true, zLow, zHigh, camera, result);
+        return result.fluorophores;
     }
     
     /**
@@ -215,93 +157,388 @@ public class FluorophoreReceiver {
         if (file==null) {
             file = getFileFromDialog();
         }
+        FluorophoreList result = new FluorophoreList(
+                psfBuilder, fluorDynamics);
         
         System.out.println("Building fluorophore PSF's...");
+        csvPositions(file, camera, rescale, result);
+        System.out.println("Done building PSF's.");
+        return result.fluorophores;
+    }
+    
+    /**
+     * Randomly populate the field of view with a population of fluorophores.
+     * 
+     * The positions are drawn as in
+     * {@link #generateFluorophoresRandom2D(int, Camera, PSFBuilder, FluorophoreDynamics)}.
+     * 
+     * @param numFluors The number of fluorophores to add to the field of view.
+     * @param camera The camera for determining the size of the field of view.
+     * @param psfBuilder Builder for calculating microscope PSFs.
+     * @param fluorDynamics The fluorophore dynamics properties.
+     * @return The population of fluorophores.
+     */
+    public static FluorophorePopulation generatePopulationRandom2D(
+            int numFluors,
+            Camera camera,
+            PSFBuilder psfBuilder,
+            FluorophoreDynamics fluorDynamics) {
+        PopulationBuilder result = new PopulationBuilder(
+                camera, psfBuilder, fluorDynamics);
+        randomPositions(numFluors, false, 0, 0, camera, result);
+        return result.build();
+    }
+    
+    /**
+     * Randomly populate the field of view with a population of fluorophores
+     * in three dimensions.
+     * 
+     * @param numFluors The number of fluorophores to add to the field of view.
+     * @param zLow The lower bound on the range in z in units of pixels
+     * @param zHigh The upper bound on the range in z in units of pixels
+     * @param camera The camera for determining the size of the field of view.
+     * @param psfBuilder Builder for calculating microscope PSFs.
+     * @param fluorDynamics The fluorophore dynamics properties.
+     * @return The population of fluorophores.
+     */
+    public static FluorophorePopulation generatePopulationRandom3D(
+            int numFluors,
+            double zLow,
+            double zHigh,
+            Camera camera,
+            PSFBuilder psfBuilder,
+            FluorophoreDynamics fluorDynamics) {
+        PopulationBuilder result = new PopulationBuilder(
+                camera, psfBuilder, fluorDynamics);
+        randomPositions(numFluors, true, zLow, zHigh, camera, result);
+        return result.build();
+    }
+    
+    /**
+     * Generate a rectangular grid of fluorophores as a population.
+     * 
+     * @param spacing The distance along the grid between nearest neighbors.
+     * @param camera The camera for determining the size of the field of view.
+     * @param psfBuilder Builder for calculating microscope PSFs.
+     * @param fluorDynamics The fluorophore dynamics properties.
+     * @return The population of fluorophores.
+     */
+    public static FluorophorePopulation generatePopulationGrid2D(
+            int spacing,
+            Camera camera,
+            PSFBuilder psfBuilder,
+            FluorophoreDynamics fluorDynamics) {
+        PopulationBuilder result = new PopulationBuilder(
+                camera, psfBuilder, fluorDynamics);
+        gridPositions(spacing, false, 0.0, 0.0, camera, result);
+        return result.build();
+    }
+    
+    /**
+     * Create a population of fluorophores on a 2D grid and step-wise in the
+     * axial direction.
+     * 
+     * @param spacing The distance along the grid between nearest neighbors.
+     * @param zLow The lower bound on the range in z in units of pixels.
+     * @param zHigh The upper bound on the range in z in units of pixels.
+     * @param camera The camera for determining the size of the field of view.
+     * @param psfBuilder Builder for calculating microscope PSFs.
+     * @param fluorDynamics The fluorophore dynamics properties.
+     * @return The population of fluorophores.
+     */
+    public static FluorophorePopulation generatePopulationGrid3D(
+            int spacing,
+            double zLow,
+            double zHigh,
+            Camera camera,
+            PSFBuilder psfBuilder,
+            FluorophoreDynamics fluorDynamics) {
+        PopulationBuilder result = new PopulationBuilder(
+                camera, psfBuilder, fluorDynamics);
+        gridPositions(spacing, true, zLow, zHigh, camera, result);
+        return result.build();
+    }
+    
+    /**
+     * Parse a CSV file and generate a population of fluorophores from it.
+     * 
+     * The file is read as in
+     * {@link #generateFluorophoresFromCSV(File, Camera, PSFBuilder, FluorophoreDynamics, boolean)},
+     * but no PSFs are built while reading.
+     * 
+     * @param file The CSV file. If this is null, then a dialog is opened.
+     * @param camera The camera for determining the size of the field of view.
+     * @param psfBuilder Builder for calculating microscope PSFs.
+     * @param fluorDynamics The fluorophore dynamics properties.
+     * @param rescale if true, positions are rescaled to fit into frame,
+     *  otherwise positions outside of frame are cropped
+     * @return The population of fluorophores.
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public static FluorophorePopulation generatePopulationFromCSV(
+            File file,
+            Camera camera,
+            PSFBuilder psfBuilder,
+            FluorophoreDynamics fluorDynamics,
+            boolean rescale) throws FileNotFoundException, IOException {
+        if (file==null) {
+            file = getFileFromDialog();
+        }
+        PopulationBuilder result = new PopulationBuilder(
+                camera, psfBuilder, fluorDynamics);
+        csvPositions(file, camera, rescale, result);
+        return result.build();
+    }
+    
+    /**
+     * Creates an empty population of fluorophores for a camera.
+     * 
+     * @param camera The camera on which the fluorophores are imaged.
+     * @param psfBuilder Builder for calculating microscope PSFs.
+     * @param fluorDynamics The fluorophore dynamics properties.
+     * @return An empty population.
+     */
+    public static FluorophorePopulation newPopulation(
+            Camera camera,
+            PSFBuilder psfBuilder,
+            FluorophoreDynamics fluorDynamics) {
+        return new FluorophorePopulation(
+                psfBuilder,
+                fluorDynamics.getStateSystem(),
+                camera.getNX(),
+                camera.getNY());
+    }
+    
+    /**
+     * Receives the positions produced by the position generators.
+     */
+    private interface PositionConsumer {
+        
+        /**
+         * Accepts a single position.
+         * 
+         * @param x x-position in pixels
+         * @param y y-position in pixels
+         * @param z z-position in pixels
+         */
+        public void accept(double x, double y, double z);
+    }
+    
+    /**
+     * Builds a fluorophore at each position it receives.
+     */
+    private static class FluorophoreList implements PositionConsumer {
+        private final PSFBuilder psfBuilder;
+        private final FluorophoreDynamics fluorDynamics;
+        private final ArrayList<Fluorophore> fluorophores;
+        
+        FluorophoreList(PSFBuilder psfBuilder,
+                        FluorophoreDynamics fluorDynamics) {
+            this(psfBuilder, fluorDynamics, 10);
+        }
+        
+        FluorophoreList(PSFBuilder psfBuilder,
+                        FluorophoreDynamics fluorDynamics,
+                        int initialCapacity) {
+            this.psfBuilder = psfBuilder;
+            this.fluorDynamics = fluorDynamics;
+            this.fluorophores = new ArrayList<Fluorophore>(initialCapacity);
+        }
+        
+        @Override
+        public void accept(double x, double y, double z) {
+            fluorophores.add(new Fluorophore(
+                psfBuilder,
+                fluorDynamics.getSignal(),
+                fluorDynamics.getStateSystem(),
+                fluorDynamics.getStartingState(),
+                x, y, z));
+        }
+    }
+    
+    /**
+     * Adds a fluorophore at each position it receives to a new population.
+     */
+    private static class PopulationBuilder implements PositionConsumer {
+        private final FluorophoreDynamics fluorDynamics;
+        private final FluorophorePopulation population;
         
-        // load all fluorophores
-        ArrayList<Fluorophore> result = new ArrayList();
+        PopulationBuilder(Camera camera,
+                          PSFBuilder psfBuilder,
+                          FluorophoreDynamics fluorDynamics) {
+            this.fluorDynamics = fluorDynamics;
+            this.population = newPopulation(camera, psfBuilder, fluorDynamics);
+        }
+        
+        @Override
+        public void accept(double x, double y, double z) {
+            population.add(x, y, z, fluorDynamics.getSignal(),
+                           fluorDynamics.getStartingState());
+        }
+        
+        /**
+         * @return The population, trimmed to its size.
+         */
+        FluorophorePopulation build() {
+            population.trimToSize();
+            return population;
+        }
+    }
+    
+    /**
+     * Draws uniformly distributed positions in the field of view.
+     * 
+     * @param numFluors The number of positions.
+     * @param threeD If false, all positions lie at z = zLow.
+     * @param zLow The lower bound on the range in z in units of pixels.
+     * @param zHigh The upper bound on the range in z in units of pixels.
+     * @param camera The camera for determining the size of the field of view.
+     * @param consumer Receives the positions.
+     */
+    private static void randomPositions(
+            int numFluors, boolean threeD, double zLow, double zHigh,
+            Camera camera, PositionConsumer consumer) {
+        Random rnd = RNG.getUniformGenerator();
         double x;
         double y;
-        double z;
-        int counter = 0;
-        Fluorophore fluorophore;
-        BufferedReader br;
-        String line;
-        String splitBy = ",";
-        br = new BufferedReader(new FileReader(file));
-        // read all lines
-        while ((line = br.readLine()) != null) {
-            // skip comments
-            if (line.startsWith("#")) {
-                continue;
-            }
-            
-            // read 2 doubles from beginning of line
-            String[] entries = line.split(splitBy);
-            x = Double.parseDouble(entries[0]);
-            y = Double.parseDouble(entries[1]);
-            
-            try {
-                z = Double.parseDouble(entries[2]);
-            } catch (ArrayIndexOutOfBoundsException ex){
-                // There is no z-column, so set the z-position to 0.0.
-                z = 0.0;
-            }
-            // Ignore entries with negative x- and y-positions.
-            if (x>=0.0 && y>=0.0) {
-                
-                // we subtract 0.5 to make the positions agree with how ThunderSTORM computes positions
-                // i.e. origin is in the very top left of image, not in the center of top left pixel as it is in our simulation
-                fluorophore = new Fluorophore(
-                    psfBuilder,
-                    fluorDynamics.getSignal(),
-                    fluorDynamics.getStateSystem(),
-                    fluorDynamics.getStartingState(),
-                    x - 0.5, y - 0.5, z);
-                result.add(fluorophore);
-                
-                counter++;
-                if (counter % 5000 == 0) {
-                    System.out.println("Processed fluorophore number: " + counter);
-                }
+        double z = zLow;
+        for (int i=0; i < numFluors; i++) {
+            x = camera.getNX() * rnd.nextDouble();
+            y = camera.getNY() * rnd.nextDouble();
+            if (threeD) {
+                z = (zHigh - zLow) * rnd.nextDouble() + zLow;
             }
+            consumer.accept(x, y, z);
         }
+    }
+    
+    /**
+     * Places positions on a rectangular grid, stepping in z from one
+     * position to the next.
+     * 
+     * @param spacing The distance along the grid between nearest neighbors.
+     * @param threeD If false, all positions lie at z = zLow.
+     * @param zLow The z-position of the first position in units of pixels.
+     * @param zHigh The upper bound on the range in z in units of pixels.
+     * @param camera The camera for determining the size of the field of view.
+     * @param consumer Receives the positions.
+     */
+    private static void gridPositions(
+            int spacing, boolean threeD, double zLow, double zHigh,
+            Camera camera, PositionConsumer consumer) {
+        int limitX = camera.getNX();
+        int limitY = camera.getNY();
+        double zSpacing = 0.0;
+        if (threeD) {
+            double numFluors = ((double) limitX - spacing) * ((double) limitY - spacing) / spacing / spacing;
+            zSpacing = (zHigh - zLow) / (numFluors - 1);
+        }
+        double z = zLow;
         
-        System.out.println("Done building PSF's.");
-        
-        // rescale positions to fit into frame        
-        if (rescale) {
-            System.out.println("Building rescaled PSF's....");
-            ArrayList<Fluorophore> result_rescaled = new ArrayList<Fluorophore>();
-            double max_x_coord = 0.0;
-            for (Fluorophore f: result) {
-                if (f.x>max_x_coord)
-                    max_x_coord = f.x;
-            }
-            double factor = camera.getNX()/max_x_coord;
-            for (Fluorophore f: result) {
-                fluorophore = new Fluorophore(
-                    psfBuilder,
-                    fluorDynamics.getSignal(),
-                    fluorDynamics.getStateSystem(),
-                    fluorDynamics.getStartingState(),
-                    f.x * factor,
-                    f.y * factor,
-                    f.z * factor);
-                result_rescaled.add(fluorophore);
+        for (int i = spacing; i < limitX; i += spacing) {
+            for (int j = spacing; j < limitY; j += spacing) {
+                consumer.accept(i, j, z);
+                z += zSpacing;
             }
-            
-            System.out.println("Done building rescaled PSF's.");
-            return result_rescaled;
+        }
+    }
+    
+    /**
+     * Reads the positions of fluorophores from a CSV file and fits them into
+     * the field of view.
+     * 
+     * When rescaling, the file is read twice: once to find the largest
+     * x-position and once to pass on the rescaled positions.
+     * 
+     * @param file The CSV file.
+     * @param camera The camera for determining the size of the field of view.
+     * @param rescale if true, positions are rescaled to fit into frame,
+     *  otherwise positions outside of frame are cropped
+     * @param consumer Receives the fitted positions.
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    private static void csvPositions(
+            File file, final Camera camera, boolean rescale,
+            final PositionConsumer consumer)
+            throws FileNotFoundException, IOException {
+        // rescale positions to fit into frame
+        if (rescale) {
+            final double[] max_x_coord = {0.0};
+            readPositionsFromCSV(file, new PositionConsumer() {
+                @Override
+                public void accept(double x, double y, double z) {
+                    if (x > max_x_coord[0])
+                        max_x_coord[0] = x;
+                }
+            });
+            final double factor = camera.getNX()/max_x_coord[0];
+            readPositionsFromCSV(file, new PositionConsumer() {
+                @Override
+                public void accept(double x, double y, double z) {
+                    consumer.accept(x * factor, y * factor, z * factor);
+                }
+            });
         // or crop fluorophores outside of frame
         } else {
-            ArrayList<Fluorophore> result_cropped = new ArrayList<Fluorophore>();
-            for (Fluorophore f: result) {
-                if (f.x < camera.getNX() && f.y < camera.getNY()) {
-                    result_cropped.add(f);
+            readPositionsFromCSV(file, new PositionConsumer() {
+                @Override
+                public void accept(double x, double y, double z) {
+                    if (x < camera.getNX() && y < camera.getNY()) {
+                        consumer.accept(x, y, z);
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * Reads the positions of fluorophores from a CSV file.
+     * 
+     * Each line holds the x- and y-positions and optionally the z-position.
+     * Lines starting with # are skipped, as are positions with a negative x
+     * or y.
+     * 
+     * @param file The CSV file.
+     * @param consumer Receives the positions.
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    private static void readPositionsFromCSV(
+            File file, PositionConsumer consumer)
+            throws FileNotFoundException, IOException {
+        double x;
+        double y;
+        double z;
+        String line;
+        String splitBy = ",";
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            // read all lines
+            while ((line = br.readLine()) != null) {
+                // skip comments
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                
+                // read 2 doubles from beginning of line
+                String[] entries = line.split(splitBy);
+                x = Double.parseDouble(entries[0]);
+                y = Double.parseDouble(entries[1]);
+                
+                try {
+                    z = Double.parseDouble(entries[2]);
+                } catch (ArrayIndexOutOfBoundsException ex){
+                    // There is no z-column, so set the z-position to 0.0.
+                    z = 0.0;
+                }
+                // Ignore entries with negative x- and y-positions.
+                if (x>=0.0 && y>=0.0) {
+                    // we subtract 0.5 to make the positions agree with how ThunderSTORM computes positions
+                    // i.e. origin is in the very top left of image, not in the center of top left pixel as it is in our simulation
+                    consumer.accept(x - 0.5, y - 0.5, z);
                 }
             }
-            return result_cropped;
         }
     }
     
@@ -18,6 +18,7 @@
 package ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.commands;
 
 import ch.epfl.leb.sass.simulator.generators.realtime.Fluorophore;
+import ch.epfl.leb.sass.simulator.generators.realtime.FluorophorePopulation;
 import ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.dynamics.FluorophoreDynamics;
 import ch.epfl.leb.sass.simulator.generators.realtime.components.Camera;
 import ch.epfl.leb.sass.simulator.generators.realtime.psfs.PSFBuilder;
@@ -34,7 +35,8 @@ import java.util.logging.Logger;
  * 
  * @author Kyle M.Douglass
  */
-public final class GenerateFluorophoresFromCSV implements FluorophoreCommand {
+public final class GenerateFluorophoresFromCSV
+        implements FluorophorePopulationCommand {
     /**
      * The file containing the fluorophore position data.
      */
@@ -142,4 +144,37 @@ public final class GenerateFluorophoresFromCSV implements FluorophoreCommand {
             return new ArrayList<Fluorophore>();
         }
     }
+    
+    /**
+     * Executes the command that generates the fluorophores as a population.
+     * 
+     * @return The population of fluorophores.
+     */
+    @Override
+    public FluorophorePopulation generatePopulation() {
+        try {
+            return FluorophoreReceiver.generatePopulationFromCSV(
+                    this.file,
+                    this.camera,
+                    this.psfBuilder,
+                    this.fluorDynamics,
+                    this.rescale);
+        } catch (FileNotFoundException ex) {
+            Logger.getLogger(
+                        GenerateFluorophoresFromCSV.class.getName())
+                        .log(Level.WARNING, null, ex);
+            
+            // No file found; return an empty population.
+            return FluorophoreReceiver.newPopulation(
+                    this.camera, this.psfBuilder, this.fluorDynamics);
+        } catch (IOException ex) {
+            Logger.getLogger(
+                        GenerateFluorophoresFromCSV.class.getName())
+                        .log(Level.WARNING, null, ex);
+            
+            // Error reading file; return an empty population.
+            return FluorophoreReceiver.newPopulation(
+                    this.camera, this.psfBuilder, this.fluorDynamics);
+        }
+    }
 }
@@ -18,6 +18,7 @@
 package ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.commands;
 
 import ch.epfl.leb.sass.simulator.generators.realtime.Fluorophore;
+import ch.epfl.leb.sass.simulator.generators.realtime.FluorophorePopulation;
 import ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.dynamics.FluorophoreDynamics;
 import ch.epfl.leb.sass.simulator.generators.realtime.components.Camera;
 import ch.epfl.leb.sass.simulator.generators.realtime.psfs.PSFBuilder;
@@ -28,7 +29,8 @@ import java.util.List;
  * 
  * @author Kyle M.Douglass
  */
-public final class GenerateFluorophoresRandom2D implements FluorophoreCommand {
+public final class GenerateFluorophoresRandom2D
+        implements FluorophorePopulationCommand {
     /**
      * The number of fluorophores to create.
      */
@@ -107,4 +109,18 @@ public final class GenerateFluorophoresRandom2D implements FluorophoreCommand {
                 this.psfBuilder,
                 this.fluorDynamics);        
     }
+    
+    /**
+     * Executes the command that generates the fluorophores as a population.
+     * 
+     * @return The population of fluorophores.
+     */
+    @Override
+    public FluorophorePopulation generatePopulation() {
+        return FluorophoreReceiver.generatePopulationRandom2D(
+                this.numFluors,
+                this.camera,
+                this.psfBuilder,
+                this.fluorDynamics);
+    }
 }
@@ -100,6 +100,15 @@ public class ConstantBackground implements Obstructor  {
         }
     }
     
+    @Override
+    public void applyTo(float[] pixels, int nX, int nY) {
+        for (int y=0; y<nY; y++) {
+            for (int x=0; x<nX; x++) {
+                pixels[x + y * nX] += this.pixels[x][y];
+            }
+        }
+    }
+    
     /**
      * Load selected tif stack
      * @param file tif stack file
@@ -61,4 +61,11 @@ public class GoldBeads implements Obstructor {
         }
     }
     
+    @Override
+    public void applyTo(float[] pixels, int nX, int nY) {
+        for (GoldBead b: beads) {
+            b.applyTo(pixels, nX, nY);
+        }
+    }
+    
 }
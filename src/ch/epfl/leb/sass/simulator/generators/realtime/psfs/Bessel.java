@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+/**
+ * Bessel functions of the first kind of orders zero and one.
+ *
+ * Below x = 5, the functions are rational approximations in x^2 whose
+ * numerators contain the first two zeros of the function. Above, they are
+ * the Hankel asymptotic forms sqrt(2 / (pi x)) (P cos(xn) - Q sin(xn)),
+ * with P and Q rational functions of 25 / x^2. The coefficients are those
+ * of the Cephes library by Stephen L. Moshier; the absolute error is a few
+ * units in the last place everywhere.
+ *
+ * Unlike {@link org.apache.commons.math3.special.BesselJ}, nothing is
+ * allocated, and the array versions evaluate many arguments in one tight
+ * loop.
+ */
+public final class Bessel {
+
+    private static final double SQ2OPI = 7.9788456080286535587989E-1;
+    private static final double PIO4 = Math.PI / 4;
+    private static final double THPIO4 = 3 * Math.PI / 4;
+
+    // J0 for x <= 5: (z - DR1) (z - DR2) RP(z) / RQ(z) with z = x^2
+    private static final double DR1 = 5.78318596294678452118E0;
+    private static final double DR2 = 3.04712623436620863991E1;
+    private static final double[] J0_RP = {
+        -4.79443220978201773821E9,
+        1.95617491946556577543E12,
+        -2.49248344360967716204E14,
+        9.70862251047306323952E15,
+    };
+    private static final double[] J0_RQ = {
+        4.99563147152651017219E2,
+        1.73785401676374683123E5,
+        4.84409658339962045305E7,
+        1.11855537045356834862E10,
+        2.11277520115489217587E12,
+        3.10518229857422583814E14,
+        3.18121955943204943306E16,
+        1.71086294081043136091E18,
+    };
+
+    // J0 for x > 5
+    private static final double[] J0_PP = {
+        7.96936729297347051624E-4,
+        8.28352392107440799803E-2,
+        1.23953371646414299388E0,
+        5.44725003058768775090E0,
+        8.74716500199817011941E0,
+        5.30324038235394892183E0,
+        9.99999999999999997821E-1,
+    };
+    private static final double[] J0_PQ = {
+        9.24408810558863637013E-4,
+        8.56288474354474431428E-2,
+        1.25352743901058953537E0,
+        5.47097740330417105182E0,
+        8.76190883237069594232E0,
+        5.30605288235394617618E0,
+        1.00000000000000000218E0,
+    };
+    private static final double[] J0_QP = {
+        -1.13663838898469149931E-2,
+        -1.28252718670509318512E0,
+        -1.95539544257735972385E1,
+        -9.32060152123768231369E1,
+        -1.77681167980488050595E2,
+        -1.47077505154951170175E2,
+        -5.14105326766599330220E1,
+        -6.05014350600728481186E0,
+    };
+    private static final double[] J0_QQ = {
+        6.43178256118178023184E1,
+        8.56430025976980587198E2,
+        3.88240183605401609683E3,
+        7.24046774195652478189E3,
+        5.93072701187316984827E3,
+        2.06209331660327847417E3,
+        2.42005740240291393179E2,
+    };
+
+    // J1 for x <= 5: x (z - Z1) (z - Z2) RP(z) / RQ(z) with z = x^2
+    private static final double Z1 = 1.46819706421238932572E1;
+    private static final double Z2 = 4.92184563216946036703E1;
+    private static final double[] J1_RP = {
+        -8.99971225705559398224E8,
+        4.52228297998194034323E11,
+        -7.27494245221818276015E13,
+        3.68295732863852883286E15,
+    };
+    private static final double[] J1_RQ = {
+        6.20836478118054335476E2,
+        2.56987256757748830383E5,
+        8.35146791431949253037E7,
+        2.21511595479792499675E10,
+        4.74914122079991414898E12,
+        7.84369607876235854894E14,
+        8.95222336184627338078E16,
+        5.32278620332680085395E18,
+    };
+
+    // J1 for x > 5
+    private static final double[] J1_PP = {
+        7.62125616208173112003E-4,
+        7.31397056940917570436E-2,
+        1.12719608129684925192E0,
+        5.11207951146807644818E0,
+        8.42404590141772420927E0,
+        5.21451598682361504063E0,
+        1.00000000000000000254E0,
+    };
+    private static final double[] J1_PQ = {
+        5.71323128072548699714E-4,
+        6.88455908754495404082E-2,
+        1.10514232634061696926E0,
+        5.07386386128601488557E0,
+        8.39985554327604159757E0,
+        5.20982848682361821619E0,
+        9.99999999999999997461E-1,
+    };
+    private static final double[] J1_QP = {
+        5.10862594750176621635E-2,
+        4.98213872951233449420E0,
+        7.58238284132545283818E1,
+        3.66779609360150777800E2,
+        7.10856304998926107277E2,
+        5.97489612400613639965E2,
+        2.11688757100572135698E2,
+        2.52070205858023719784E1,
+    };
+    private static final double[] J1_QQ = {
+        7.42373277035675149943E1,
+        1.05644886038262816351E3,
+        4.98641058337653607651E3,
+        9.56231892404756170795E3,
+        7.99704160447350683650E3,
+        2.82619278517639096600E3,
+        3.36093607810698293419E2,
+    };
+
+    private Bessel() {
+    }
+
+    /**
+     * Computes the Bessel function of the first kind of order zero.
+     *
+     * @param x The argument.
+     * @return J0(x)
+     */
+    public static double j0(double x) {
+        x = Math.abs(x);
+        if (x <= 5.0) {
+            double z = x * x;
+            if (x < 1.0e-5) {
+                return 1.0 - z / 4.0;
+            }
+            return (z - DR1) * (z - DR2) * polevl(z, J0_RP)
+                   / p1evl(z, J0_RQ);
+        }
+        double w = 5.0 / x;
+        double q = w * w;
+        double p = polevl(q, J0_PP) / polevl(q, J0_PQ);
+        q = polevl(q, J0_QP) / p1evl(q, J0_QQ);
+        double xn = x - PIO4;
+        p = p * Math.cos(xn) - w * q * Math.sin(xn);
+        return p * SQ2OPI / Math.sqrt(x);
+    }
+
+    /**
+     * Computes the Bessel function of the first kind of order one.
+     *
+     * @param x The argument.
+     * @return J1(x)
+     */
+    public static double j1(double x) {
+        if (x < 0) {
+            return -j1(-x);
+        }
+        if (x <= 5.0) {
+            double z = x * x;
+            return x * (z - Z1) * (z - Z2) * polevl(z, J1_RP)
+                   / p1evl(z, J1_RQ);
+        }
+        double w = 5.0 / x;
+        double z = w * w;
+        double p = polevl(z, J1_PP) / polevl(z, J1_PQ);
+        double q = polevl(z, J1_QP) / p1evl(z, J1_QQ);
+        double xn = x - THPIO4;
+        p = p * Math.cos(xn) - w * q * Math.sin(xn);
+        return p * SQ2OPI / Math.sqrt(x);
+    }
+
+    /**
+     * Computes J0 for an array of arguments.
+     *
+     * @param x The arguments.
+     * @param result Receives J0(x[i]) at index i. May be x itself.
+     * @param count The number of arguments.
+     */
+    public static void j0(double[] x, double[] result, int count) {
+        for (int i = 0; i < count; i++) {
+            result[i] = j0(x[i]);
+        }
+    }
+
+    /**
+     * Computes J1 for an array of arguments.
+     *
+     * @param x The arguments.
+     * @param result Receives J1(x[i]) at index i. May be x itself.
+     * @param count The number of arguments.
+     */
+    public static void j1(double[] x, double[] result, int count) {
+        for (int i = 0; i < count; i++) {
+            result[i] = j1(x[i]);
+        }
+    }
+
+    /**
+     * Evaluates a polynomial with the coefficients of the highest power
+     * first.
+     */
+    private static double polevl(double x, double[] coef) {
+        double ans = coef[0];
+        for (int i = 1; i < coef.length; i++) {
+            ans = ans * x + coef[i];
+        }
+        return ans;
+    }
+
+    /**
+     * Evaluates a polynomial whose leading coefficient is one and omitted.
+     */
+    private static double p1evl(double x, double[] coef) {
+        double ans = x + coef[0];
+        for (int i = 1; i < coef.length; i++) {
+            ans = ans * x + coef[i];
+        }
+        return ans;
+    }
+}
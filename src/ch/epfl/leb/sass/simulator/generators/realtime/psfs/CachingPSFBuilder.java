@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.Footprint;
+import ch.epfl.leb.sass.simulator.generators.realtime.Pixel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Builds PSFs that share the signatures of emitters at similar positions.
+ *
+ * The position of an emitter within its pixel, (eX mod 1, eY mod 1), is
+ * rounded to the center of one of subpixelBins x subpixelBins bins, and its
+ * axial position is rounded to a multiple of zStep. The PSF of the wrapped
+ * builder is computed once for each bin, and the resulting footprint is
+ * shared as a read-only template by all emitters in the bin. Scenes in
+ * which many emitters share a bin, such as grids, are built much faster and
+ * the footprints of their emitters share their weights.
+ *
+ * The templates are kept in a {@link PSFPlaneCache}. They are keyed by the
+ * bins, the optical parameters set on this builder and the identity of the
+ * wrapped builder, so several wrappers may share one cache, and templates
+ * of earlier parameters are evicted when the cache is full. Parameters that
+ * are set on the wrapped builder itself are not part of the key; the
+ * templates must then be discarded with {@code getTemplates().clear()}.
+ */
+public final class CachingPSFBuilder implements PSFBuilder {
+
+    /**
+     * The identities of the wrapped builders, which distinguish their
+     * templates in shared caches.
+     */
+    private static final Map<PSFBuilder, Long> IDENTITIES =
+            new WeakHashMap<>();
+
+    // Guarded by the class
+    private static long nextIdentity = 0;
+
+    private final PSFBuilder builder;
+    private final String builderName;
+    private final int subpixelBins;
+    private final double zStep;
+    private final PSFPlaneCache templates;
+
+    private double eX;
+    private double eY;
+    private double eZ;
+
+    // The optical parameters, which are part of the templates' keys
+    private double NA = Double.NaN;
+    private double FWHM = Double.NaN;
+    private double stageDisplacement = Double.NaN;
+    private double wavelength = Double.NaN;
+    private double resLateral = Double.NaN;
+    private double energyFraction = Double.NaN;
+
+    /**
+     * Wraps a PSF builder.
+     *
+     * @param builder The builder of the PSFs of the templates.
+     * @param subpixelBins The number of bins per pixel along x and y.
+     * @param zStep The axial spacing of the templates, in the units of eZ.
+     * @param templates The cache of the templates.
+     */
+    public CachingPSFBuilder(PSFBuilder builder, int subpixelBins,
+                             double zStep, PSFPlaneCache templates) {
+        if (subpixelBins < 1) {
+            throw new IllegalArgumentException(
+                    "The number of sub-pixel bins must be positive.");
+        }
+        if (!(zStep > 0)) {
+            throw new IllegalArgumentException(
+                    "The axial spacing of the templates must be positive.");
+        }
+        this.builder = builder;
+        this.builderName = builder.getClass().getName() + "#"
+                           + getIdentity(builder);
+        this.subpixelBins = subpixelBins;
+        this.zStep = zStep;
+        this.templates = templates;
+    }
+
+    /**
+     * Wraps a PSF builder with a cache of the default size.
+     *
+     * @param builder The builder of the PSFs of the templates.
+     * @param subpixelBins The number of bins per pixel along x and y.
+     * @param zStep The axial spacing of the templates, in the units of eZ.
+     */
+    public CachingPSFBuilder(PSFBuilder builder, int subpixelBins,
+                             double zStep) {
+        this(builder, subpixelBins, zStep, new PSFPlaneCache());
+    }
+
+    /**
+     * @return The cache of the templates.
+     */
+    public PSFPlaneCache getTemplates() {
+        return templates;
+    }
+
+    @Override
+    public CachedPSF build() {
+        double floorX = Math.floor(eX);
+        double floorY = Math.floor(eY);
+        long binX = Math.min((long) ((eX - floorX) * subpixelBins),
+                             subpixelBins - 1);
+        long binY = Math.min((long) ((eY - floorY) * subpixelBins),
+                             subpixelBins - 1);
+        long binZ = Math.round(eZ / zStep);
+
+        PSFPlaneCache.Key key = new PSFPlaneCache.Key(
+                new double[] {binX, binY, subpixelBins, zStep, NA, FWHM,
+                              stageDisplacement, wavelength, resLateral,
+                              energyFraction},
+                builderName, binZ);
+        Template template = (Template) templates.get(key);
+        if (template == null) {
+            // The template is the image of an emitter at the center of the
+            // bin in pixel (0, 0).
+            double x = (binX + 0.5) / subpixelBins;
+            double y = (binY + 0.5) / subpixelBins;
+            builder.eX(x).eY(y).eZ(binZ * zStep);
+            PSF psf = builder.build();
+            template = new Template(Footprint.fromPSF(psf, x, y),
+                                    psf.getRadius());
+            template = (Template) templates.putIfAbsent(
+                    key, template, template.getBytes());
+        }
+        return new CachedPSF(template, (int) floorX, (int) floorY);
+    }
+
+    @Override
+    public CachingPSFBuilder eX(double eX) {
+        this.eX = eX;
+        return this;
+    }
+
+    @Override
+    public CachingPSFBuilder eY(double eY) {
+        this.eY = eY;
+        return this;
+    }
+
+    @Override
+    public CachingPSFBuilder eZ(double eZ) {
+        this.eZ = eZ;
+        return this;
+    }
+
+    @Override
+    public CachingPSFBuilder NA(double NA) {
+        this.NA = NA;
+        builder.NA(NA);
+        return this;
+    }
+
+    @Override
+    public CachingPSFBuilder FWHM(double FWHM) {
+        this.FWHM = FWHM;
+        builder.FWHM(FWHM);
+        return this;
+    }
+
+    @Override
+    public CachingPSFBuilder stageDisplacement(double stageDisplacement) {
+        this.stageDisplacement = stageDisplacement;
+        builder.stageDisplacement(stageDisplacement);
+        return this;
+    }
+
+    @Override
+    public CachingPSFBuilder wavelength(double wavelength) {
+        this.wavelength = wavelength;
+        builder.wavelength(wavelength);
+        return this;
+    }
+
+    @Override
+    public CachingPSFBuilder resLateral(double resLateral) {
+        this.resLateral = resLateral;
+        builder.resLateral(resLateral);
+        return this;
+    }
+
+    @Override
+    public CachingPSFBuilder energyFraction(double energyFraction) {
+        builder.energyFraction(energyFraction);
+        this.energyFraction = energyFraction;
+        return this;
+    }
+
+    /**
+     * Returns a number that identifies a builder.
+     *
+     * Builders are compared by equals(), which the PSF builders do not
+     * override.
+     *
+     * @param builder The wrapped builder.
+     * @return The identity of the builder.
+     */
+    private static synchronized long getIdentity(PSFBuilder builder) {
+        Long identity = IDENTITIES.get(builder);
+        if (identity == null) {
+            identity = nextIdentity++;
+            IDENTITIES.put(builder, identity);
+        }
+        return identity;
+    }
+
+    /**
+     * The footprint of the emitter at the center of a bin.
+     */
+    private static final class Template {
+        final Footprint footprint;
+        final double radius;
+
+        Template(Footprint footprint, double radius) {
+            this.footprint = footprint;
+            this.radius = radius;
+        }
+
+        long getBytes() {
+            return 4L * footprint.getWidth() * footprint.getHeight() + 64;
+        }
+    }
+
+    /**
+     * A PSF whose signature is a shared template.
+     */
+    public static final class CachedPSF implements FootprintPSF {
+        private final Template template;
+        private final int shiftX;
+        private final int shiftY;
+
+        private CachedPSF(Template template, int shiftX, int shiftY) {
+            this.template = template;
+            this.shiftX = shiftX;
+            this.shiftY = shiftY;
+        }
+
+        /**
+         * Returns the footprint of the emitter.
+         *
+         * The footprint shares its weights with all emitters of the same
+         * bin.
+         *
+         * @return The footprint of the emitter.
+         */
+        @Override
+        public Footprint getFootprint() {
+            return template.footprint.translate(shiftX, shiftY);
+        }
+
+        @Override
+        public double generatePixelSignature(int pixelX, int pixelY) {
+            return template.footprint.getWeight(pixelX - shiftX,
+                                                pixelY - shiftY);
+        }
+
+        @Override
+        public void generateSignature(ArrayList<Pixel> pixels) {
+            for (Pixel pixel: pixels) {
+                pixel.setSignature(generatePixelSignature(pixel.x, pixel.y));
+            }
+        }
+
+        @Override
+        public double getRadius() {
+            return template.radius;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.Pixel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.math.MathException;
+
+/**
+ * Builds PSFs that vary across the field of view.
+ *
+ * The field is divided into square tiles of tileSize x tileSize pixels.
+ * The PSF is assumed to be constant within a tile and is built by a
+ * {@link PSFBuilder} that the {@link FieldModel} configures for the center
+ * of the tile. Each tile's builder is created once, when the first emitter
+ * falls near the tile, and kept for all later emitters, so any planes or
+ * templates that it caches are shared by the emitters of the tile. The
+ * number of PSF models that are computed therefore scales with the number
+ * of tiles rather than with the number of emitters; wrapping the tile
+ * builders in a {@link CachingPSFBuilder} shares their footprints as well.
+ *
+ * By default, an emitter uses the PSF of the tile it lies in. With
+ * {@link #interpolate(boolean)}, its signature is instead interpolated
+ * bilinearly between the PSFs of the four tiles whose centers surround it,
+ * which removes the steps in the PSF at the tile borders.
+ *
+ * Optical parameters that are set on this builder are forwarded to the
+ * builders of all tiles, including those created later.
+ */
+public final class FieldDependentPSFBuilder implements PSFBuilder {
+
+    /**
+     * Creates the PSF builders of the tiles.
+     */
+    public interface FieldModel {
+
+        /**
+         * Creates the builder of the PSFs near a point of the field.
+         *
+         * @param x The x-position of the tile's center [pixels].
+         * @param y The y-position of the tile's center [pixels].
+         * @return A builder for the PSF at this point.
+         */
+        public PSFBuilder createBuilder(double x, double y);
+    }
+
+    private final FieldModel model;
+    private final double tileSize;
+    private final Map<Long, PSFBuilder> tiles = new HashMap<>();
+    private boolean interpolate = false;
+
+    private double eX;
+    private double eY;
+    private double eZ;
+
+    // The optical parameters that are forwarded to new tiles, or NaN
+    private double NA = Double.NaN;
+    private double FWHM = Double.NaN;
+    private double stageDisplacement = Double.NaN;
+    private double wavelength = Double.NaN;
+    private double resLateral = Double.NaN;
+    private double energyFraction = Double.NaN;
+
+    /**
+     * Creates a field-dependent builder.
+     *
+     * @param model Creates the builder of each tile.
+     * @param tileSize The side length of the tiles [pixels].
+     */
+    public FieldDependentPSFBuilder(FieldModel model, double tileSize) {
+        if (!(tileSize > 0)) {
+            throw new IllegalArgumentException(
+                    "The size of the tiles must be positive.");
+        }
+        this.model = model;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Interpolates the PSF between the neighbouring tiles.
+     *
+     * @param interpolate If true, signatures are interpolated bilinearly
+     *                    between the PSFs of the four nearest tile centers.
+     *                    If false, the PSF of the emitter's tile is used.
+     * @return This builder.
+     */
+    public FieldDependentPSFBuilder interpolate(boolean interpolate) {
+        this.interpolate = interpolate;
+        return this;
+    }
+
+    /**
+     * @return The number of tiles whose builders have been created.
+     */
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    @Override
+    public PSF build() {
+        if (!interpolate) {
+            return buildTile((long) Math.floor(eX / tileSize),
+                             (long) Math.floor(eY / tileSize));
+        }
+
+        // The tile centers lie at (i + 0.5) * tileSize.
+        double u = eX / tileSize - 0.5;
+        double v = eY / tileSize - 0.5;
+        long i0 = (long) Math.floor(u);
+        long j0 = (long) Math.floor(v);
+        double fx = u - i0;
+        double fy = v - j0;
+
+        PSF[] psfs = new PSF[4];
+        double[] weights = new double[4];
+        int count = 0;
+        for (int di = 0; di < 2; di++) {
+            for (int dj = 0; dj < 2; dj++) {
+                double weight = (di == 0 ? 1 - fx : fx) *
+                                (dj == 0 ? 1 - fy : fy);
+                if (weight > 0) {
+                    psfs[count] = buildTile(i0 + di, j0 + dj);
+                    weights[count] = weight;
+                    count++;
+                }
+            }
+        }
+        if (count == 1) {
+            return psfs[0];
+        }
+        return new InterpolatedPSF(psfs, weights, count);
+    }
+
+    /**
+     * Builds the PSF of the emitter with the builder of a tile.
+     *
+     * @param i The index of the tile in x.
+     * @param j The index of the tile in y.
+     * @return The PSF of the emitter as seen in the tile.
+     */
+    private PSF buildTile(long i, long j) {
+        Long key = (i << 32) ^ (j & 0xffffffffL);
+        PSFBuilder builder = tiles.get(key);
+        if (builder == null) {
+            builder = model.createBuilder((i + 0.5) * tileSize,
+                                          (j + 0.5) * tileSize);
+            configure(builder);
+            tiles.put(key, builder);
+        }
+        return builder.eX(eX).eY(eY).eZ(eZ).build();
+    }
+
+    /**
+     * Sets the optical parameters of this builder on the builder of a new
+     * tile.
+     */
+    private void configure(PSFBuilder builder) {
+        if (!Double.isNaN(NA)) {
+            builder.NA(NA);
+        }
+        if (!Double.isNaN(FWHM)) {
+            builder.FWHM(FWHM);
+        }
+        if (!Double.isNaN(stageDisplacement)) {
+            builder.stageDisplacement(stageDisplacement);
+        }
+        if (!Double.isNaN(wavelength)) {
+            builder.wavelength(wavelength);
+        }
+        if (!Double.isNaN(resLateral)) {
+            builder.resLateral(resLateral);
+        }
+        if (!Double.isNaN(energyFraction)) {
+            builder.energyFraction(energyFraction);
+        }
+    }
+
+    @Override
+    public FieldDependentPSFBuilder eX(double eX) {
+        this.eX = eX;
+        return this;
+    }
+
+    @Override
+    public FieldDependentPSFBuilder eY(double eY) {
+        this.eY = eY;
+        return this;
+    }
+
+    @Override
+    public FieldDependentPSFBuilder eZ(double eZ) {
+        this.eZ = eZ;
+        return this;
+    }
+
+    @Override
+    public FieldDependentPSFBuilder NA(double NA) {
+        this.NA = NA;
+        for (PSFBuilder builder: tiles.values()) {
+            builder.NA(NA);
+        }
+        return this;
+    }
+
+    @Override
+    public FieldDependentPSFBuilder FWHM(double FWHM) {
+        this.FWHM = FWHM;
+        for (PSFBuilder builder: tiles.values()) {
+            builder.FWHM(FWHM);
+        }
+        return this;
+    }
+
+    @Override
+    public FieldDependentPSFBuilder stageDisplacement(
+            double stageDisplacement) {
+        this.stageDisplacement = stageDisplacement;
+        for (PSFBuilder builder: tiles.values()) {
+            builder.stageDisplacement(stageDisplacement);
+        }
+        return this;
+    }
+
+    @Override
+    public FieldDependentPSFBuilder wavelength(double wavelength) {
+        this.wavelength = wavelength;
+        for (PSFBuilder builder: tiles.values()) {
+            builder.wavelength(wavelength);
+        }
+        return this;
+    }
+
+    @Override
+    public FieldDependentPSFBuilder resLateral(double resLateral) {
+        this.resLateral = resLateral;
+        for (PSFBuilder builder: tiles.values()) {
+            builder.resLateral(resLateral);
+        }
+        return this;
+    }
+
+    @Override
+    public FieldDependentPSFBuilder energyFraction(double energyFraction) {
+        if (!(energyFraction >= 0 && energyFraction < 1)) {
+            throw new IllegalArgumentException(
+                    "The energy fraction must lie in [0, 1).");
+        }
+        this.energyFraction = energyFraction;
+        for (PSFBuilder builder: tiles.values()) {
+            builder.energyFraction(energyFraction);
+        }
+        return this;
+    }
+
+    /**
+     * A weighted sum of the PSFs of neighbouring tiles.
+     */
+    private static final class InterpolatedPSF implements PSF {
+        private final PSF[] psfs;
+        private final double[] weights;
+        private final int count;
+
+        InterpolatedPSF(PSF[] psfs, double[] weights, int count) {
+            this.psfs = psfs;
+            this.weights = weights;
+            this.count = count;
+        }
+
+        @Override
+        public double generatePixelSignature(int pixelX, int pixelY)
+                throws MathException {
+            double signature = 0;
+            for (int k = 0; k < count; k++) {
+                signature += weights[k] *
+                             psfs[k].generatePixelSignature(pixelX, pixelY);
+            }
+            return signature;
+        }
+
+        @Override
+        public void generateSignature(ArrayList<Pixel> pixels) {
+            double[] signatures = new double[pixels.size()];
+            for (int k = 0; k < count; k++) {
+                psfs[k].generateSignature(pixels);
+                for (int p = 0; p < signatures.length; p++) {
+                    signatures[p] += weights[k] * pixels.get(p).getSignature();
+                }
+            }
+            for (int p = 0; p < signatures.length; p++) {
+                pixels.get(p).setSignature(signatures[p]);
+            }
+        }
+
+        /**
+         * @return The largest radius of the interpolated PSFs.
+         */
+        @Override
+        public double getRadius() {
+            double radius = 0;
+            for (int k = 0; k < count; k++) {
+                radius = Math.max(radius, psfs[k].getRadius());
+            }
+            return radius;
+        }
+    }
+}
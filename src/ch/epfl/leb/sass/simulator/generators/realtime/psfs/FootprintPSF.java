@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.Footprint;
+
+/**
+ * A PSF that computes the footprint of its emitter directly.
+ *
+ * {@link Footprint#fromPSF(PSF, double, double)} uses the footprint of such
+ * PSFs instead of computing the signature of a list of pixels.
+ */
+public interface FootprintPSF extends PSF {
+    
+    /**
+     * Returns the footprint of the emitter.
+     * 
+     * The footprint holds the same pixels and weights as the one computed
+     * from the signature of the pixels within the radius of the PSF.
+     * 
+     * @return The footprint of the emitter.
+     */
+    public Footprint getFootprint();
+}
@@ -17,20 +17,17 @@
  */
 package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
 
-import static java.lang.Math.sqrt;
 import java.util.ArrayList;
 import org.apache.commons.math.MathException;
-import org.apache.commons.math.special.Erf;
+import ch.epfl.leb.sass.simulator.generators.realtime.Footprint;
 import ch.epfl.leb.sass.simulator.generators.realtime.Pixel;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * Generates a digital representation of a two-dimensional Gaussian PSF.
  * 
  * @author Kyle M. Douglass
  */
-public final class Gaussian2D implements PSF {
+public final class Gaussian2D implements FootprintPSF {
     /**
      * The FWHM of the in-focus Gaussian PSF. [pixels]
      */
@@ -51,6 +48,12 @@ public final class Gaussian2D implements PSF {
      */
     private double eZ = 0;
     
+    /**
+     * The fraction of the PSF's energy within its radius, or 0 for a fixed
+     * radius.
+     */
+    private double energyFraction = 0;
+    
     /**
      * The builder for constructing Gaussian2D instances.
      */
@@ -61,6 +64,7 @@ public final class Gaussian2D implements PSF {
         private double eX;
         private double eY;
         private double eZ;
+        private double energyFraction = 0;
         
         public Builder FWHM(double fwhm) {this.FWHM = fwhm; return this;}
         
@@ -96,6 +100,16 @@ public final class Gaussian2D implements PSF {
             return this;
         }
         
+        @Override
+        public Builder energyFraction(double energyFraction) {
+            if (!(energyFraction >= 0 && energyFraction < 1)) {
+                throw new IllegalArgumentException(
+                        "The energy fraction must lie in [0, 1).");
+            }
+            this.energyFraction = energyFraction;
+            return this;
+        }
+        
         @Override
         public Gaussian2D build() {
             return new Gaussian2D(this);
@@ -114,6 +128,7 @@ public final class Gaussian2D implements PSF {
         this.eX = builder.eX;
         this.eY = builder.eY;
         this.eZ = builder.eZ;
+        this.energyFraction = builder.energyFraction;
     }
     
     /**
@@ -129,43 +144,50 @@ public final class Gaussian2D implements PSF {
     public double generatePixelSignature(int pixelX, int pixelY)
             throws MathException {
         final double sigma = this.FWHM / 2.3548;
-        final double denom = sqrt(2.0)*sigma;
-        return 0.25 *(Erf.erf((pixelX - this.eX + 0.5)/denom) - 
-                      Erf.erf((pixelX - this.eX - 0.5)/denom)) *
-                     (Erf.erf((pixelY - this.eY + 0.5)/denom) -
-                      Erf.erf((pixelY - this.eY - 0.5)/denom));
+        return GaussianSignature.pixelSignature(
+                pixelX, pixelY, this.eX, this.eY, sigma);
     }
     
     /**
      * Generates the digital signature of the emitter on its nearby pixels.
+     * 
+     * The Gaussian is separable, so the error function is only evaluated at
+     * the edges of the columns and rows spanned by the pixels.
+     * 
      * @param pixels The list of pixels spanned by the emitter's image.
      */
     public void generateSignature(ArrayList<Pixel> pixels) {
-        double signature;
-        for(Pixel pixel: pixels) {
-            try {
-                signature = this.generatePixelSignature(
-                        pixel.x, pixel.y);
-            } catch (MathException ex) {
-                signature = 0.0;
-                Logger.getLogger(
-                        Gaussian2D.class.getName()).log(Level.SEVERE, null, ex);
-            }
-            pixel.setSignature(signature);
-        }
+        final double sigma = this.FWHM / 2.3548;
+        GaussianSignature.generateSignature(pixels, this.eX, this.eY, sigma);
+    }
+    
+    /**
+     * Computes the footprint of the emitter without a list of pixels.
+     * 
+     * @return The footprint of the emitter.
+     */
+    @Override
+    public Footprint getFootprint() {
+        final double sigma = this.FWHM / 2.3548;
+        return GaussianSignature.footprint(
+                this.eX, this.eY, sigma, getRadius());
     }
     
     /**
      * Computes the half-width of the PSF for determining which pixels contribute to the emitter signal.
      * 
      * For a 2D Gaussian, the effective width used here is three times the
-     * standard deviation.
+     * standard deviation, or the radius that holds the energy fraction of
+     * the builder if one was set.
      * 
      * @return The width of the PSF.
      */
     @Override
     public double getRadius() {
         final double sigma = this.FWHM / 2.3548;
+        if (this.energyFraction > 0) {
+            return GaussianSignature.energyRadius(sigma, this.energyFraction);
+        }
         // radius cutoff
         final double r = 3 * sigma;
         return r;
@@ -17,13 +17,11 @@
  */
 package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
 
+import ch.epfl.leb.sass.simulator.generators.realtime.Footprint;
 import ch.epfl.leb.sass.simulator.generators.realtime.Pixel;
 import static java.lang.Math.sqrt;
 import java.util.ArrayList;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import org.apache.commons.math.MathException;
-import org.apache.commons.math.special.Erf;
 
 /**
  * Generates a digital representation of a three-dimensional Gaussian PSF.
@@ -34,7 +32,7 @@ import org.apache.commons.math.special.Erf;
  * 
  * @author Kyle M. Douglass
  */
-public final class Gaussian3D implements PSF {
+public final class Gaussian3D implements FootprintPSF {
     
     /**
      * The FWHM of the in-focus Gaussian PSF. [pixels]
@@ -68,6 +66,17 @@ public final class Gaussian3D implements PSF {
      */
     private double stageDisplacement = 0;
     
+    /**
+     * The fraction of the PSF's energy within its radius, or 0 for a fixed
+     * radius.
+     */
+    private double energyFraction = 0;
+    
+    /**
+     * The standard deviation of the defocused PSF of the emitter. [pixels]
+     */
+    private double sigma;
+    
     /**
      * The builder for constructing Gaussian2D instances.
      */
@@ -80,6 +89,7 @@ public final class Gaussian3D implements PSF {
         private double eX;
         private double eY;
         private double eZ;
+        private double energyFraction = 0;
         
         public Builder FWHM(double fwhm) {this.FWHM = fwhm; return this;}
         public Builder NA(double NA) {this.numericalAperture = NA; return this;}
@@ -111,6 +121,16 @@ public final class Gaussian3D implements PSF {
             return this;
         }
         
+        @Override
+        public Builder energyFraction(double energyFraction) {
+            if (!(energyFraction >= 0 && energyFraction < 1)) {
+                throw new IllegalArgumentException(
+                        "The energy fraction must lie in [0, 1).");
+            }
+            this.energyFraction = energyFraction;
+            return this;
+        }
+        
         @Override
         public Gaussian3D build() {
             return new Gaussian3D(this);
@@ -131,6 +151,24 @@ public final class Gaussian3D implements PSF {
         this.eX = builder.eX;
         this.eY = builder.eY;
         this.eZ = builder.eZ;
+        this.energyFraction = builder.energyFraction;
+        this.sigma = computeSigma();
+    }
+    
+    /**
+     * Computes the standard deviation of the PSF at the emitter's distance
+     * from the focal plane.
+     * 
+     * @return The standard deviation of the defocused PSF. [pixels]
+     */
+    private double computeSigma() {
+        final double sigma_0 = this.FWHM / 2.3548;
+        final double zR = 2 * sigma_0 / this.numericalAperture; // Rayleigh range
+        
+        // Add the offset from the stage's position to the emitter's z-values
+        double z = this.eZ + this.stageDisplacement;
+        
+        return sigma_0 * sqrt(1 + (z / zR) * (z / zR));
     }
     
     /**
@@ -143,38 +181,32 @@ public final class Gaussian3D implements PSF {
     @Override
     public double generatePixelSignature(int pixelX, int pixelY)
             throws MathException {
-        final double sigma_0 = this.FWHM / 2.3548;
-        final double zR = 2 * sigma_0 / this.numericalAperture; // Rayleigh range
-        
-        // Add the offset from the stage's position to the emitter's z-values
-        double z;
-        z = this.eZ + this.stageDisplacement;
-        
-        double sigma = sigma_0 * sqrt(1 + (z/ zR) * (z / zR));
-        double denom = sqrt(2.0)*sigma;
-        return 0.25 *(Erf.erf((pixelX - this.eX + 0.5)/denom) - 
-                      Erf.erf((pixelX - this.eX - 0.5)/denom)) *
-                     (Erf.erf((pixelY - this.eY + 0.5)/denom) -
-                      Erf.erf((pixelY - this.eY - 0.5)/denom));
+        return GaussianSignature.pixelSignature(
+                pixelX, pixelY, this.eX, this.eY, this.sigma);
     }
     
     /**
      * Generates the digital signature of the emitter on its nearby pixels.
      * 
+     * The Gaussian is separable, so the error function is only evaluated at
+     * the edges of the columns and rows spanned by the pixels.
+     * 
      * @param pixels The list of pixels spanned by the emitter's image.
      */
     public void generateSignature(ArrayList<Pixel> pixels) {
-        double signature;
-        for(Pixel pixel: pixels) {
-            try {
-                signature = this.generatePixelSignature(
-                        pixel.x, pixel.y);
-            } catch (MathException ex) {
-                signature = 0.0;
-                Logger.getLogger(Gaussian3D.class.getName()).log(Level.SEVERE, null, ex);
-            }
-            pixel.setSignature(signature);
-        }
+        GaussianSignature.generateSignature(
+                pixels, this.eX, this.eY, this.sigma);
+    }
+    
+    /**
+     * Computes the footprint of the emitter without a list of pixels.
+     * 
+     * @return The footprint of the emitter.
+     */
+    @Override
+    public Footprint getFootprint() {
+        return GaussianSignature.footprint(
+                this.eX, this.eY, this.sigma, getRadius());
     }
     
     /**
@@ -184,13 +216,20 @@ public final class Gaussian3D implements PSF {
      * the emitter is exactly in focus. The larger factor of five accounts for
      * the larger lateral PSF size when it is out of focus.
      * 
+     * If an energy fraction was set on the builder, the radius is instead
+     * the one that holds this fraction of the energy of the defocused PSF.
+     * 
      * @return The width of the PSF.
      */
     @Override
     public double getRadius() {
-        final double sigma = this.FWHM / 2.3548;
+        if (this.energyFraction > 0) {
+            return GaussianSignature.energyRadius(
+                    this.sigma, this.energyFraction);
+        }
+        final double sigma_0 = this.FWHM / 2.3548;
         // radius cutoff
-        final double r = 5 * sigma;
+        final double r = 5 * sigma_0;
         return r;
     }
     
@@ -200,6 +239,7 @@ public final class Gaussian3D implements PSF {
     
     public void setFWHM(double fwhm) {
         this.FWHM = fwhm;
+        this.sigma = computeSigma();
     }
     
     public double getNumericalAperture() {
@@ -208,5 +248,6 @@ public final class Gaussian3D implements PSF {
     
     public void setNumericalAperture(double numericalAperture) {
         this.numericalAperture = numericalAperture;
+        this.sigma = computeSigma();
     }
 }
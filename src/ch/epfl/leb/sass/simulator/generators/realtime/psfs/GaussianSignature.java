@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.Footprint;
+import ch.epfl.leb.sass.simulator.generators.realtime.Pixel;
+import java.util.ArrayList;
+
+/**
+ * Integrates a symmetric two-dimensional Gaussian over pixels.
+ *
+ * The integral over a pixel is the product of the integrals over its extent
+ * in x and in y. For a set of pixels, the integrals along each axis are
+ * computed once for every column and row of the bounding box, and the
+ * signature of each pixel is their product.
+ *
+ * Footprints are filled the same way, directly from the emitter's position,
+ * without a list of pixels.
+ */
+final class GaussianSignature {
+
+    private GaussianSignature() {
+    }
+
+    /**
+     * Integrates the Gaussian over a single pixel.
+     *
+     * @param pixelX The pixel's x-position.
+     * @param pixelY The pixel's y-position.
+     * @param eX The emitter's x-position.
+     * @param eY The emitter's y-position.
+     * @param sigma The standard deviation of the Gaussian [pixels].
+     * @return The probability of a photon hitting this pixel.
+     */
+    static double pixelSignature(int pixelX, int pixelY, double eX,
+                                 double eY, double sigma) {
+        final double scale = 1.0 / (Math.sqrt(2.0) * sigma);
+        return 0.25 * (FastErf.erf((pixelX - eX + 0.5) * scale) -
+                       FastErf.erf((pixelX - eX - 0.5) * scale)) *
+                      (FastErf.erf((pixelY - eY + 0.5) * scale) -
+                       FastErf.erf((pixelY - eY - 0.5) * scale));
+    }
+
+    /**
+     * Computes the radius of the circle that holds a fraction of the
+     * Gaussian's energy.
+     *
+     * The energy within a distance r of the center is
+     * 1 - exp(-r^2 / (2 sigma^2)).
+     *
+     * @param sigma The standard deviation of the Gaussian [pixels].
+     * @param energyFraction The fraction of the energy, between 0 and 1.
+     * @return The radius [pixels].
+     */
+    static double energyRadius(double sigma, double energyFraction) {
+        return sigma * Math.sqrt(-2 * Math.log(1 - energyFraction));
+    }
+
+    /**
+     * Sets the signature of each pixel of a list.
+     *
+     * @param pixels The list of pixels spanned by the emitter's image.
+     * @param eX The emitter's x-position.
+     * @param eY The emitter's y-position.
+     * @param sigma The standard deviation of the Gaussian [pixels].
+     */
+    static void generateSignature(ArrayList<Pixel> pixels, double eX,
+                                  double eY, double sigma) {
+        if (pixels.isEmpty()) {
+            return;
+        }
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (Pixel p: pixels) {
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+        }
+
+        double[] columns = new double[maxX - minX + 1];
+        double[] rows = new double[maxY - minY + 1];
+        FastErf.integratePixels(minX, columns.length, eX, sigma, columns);
+        FastErf.integratePixels(minY, rows.length, eY, sigma, rows);
+        for (Pixel p: pixels) {
+            p.setSignature(columns[p.x - minX] * rows[p.y - minY]);
+        }
+    }
+
+    /**
+     * Computes the footprint of the pixels whose centers lie within a radius
+     * of the emitter.
+     *
+     * The pixels and weights are the same as those of
+     * {@link Footprint#fromPixels(java.util.List)} applied to the pixels of
+     * {@link ch.epfl.leb.sass.simulator.generators.realtime.Emitter#getPixelsWithinRadius(java.awt.geom.Point2D, double)}.
+     *
+     * @param eX The emitter's x-position.
+     * @param eY The emitter's y-position.
+     * @param sigma The standard deviation of the Gaussian [pixels].
+     * @param radius The radius of the footprint [pixels].
+     * @return The footprint of the emitter.
+     */
+    static Footprint footprint(double eX, double eY, double sigma,
+                               double radius) {
+        if (radius < 1) {
+            int x = (int) eX;
+            int y = (int) eY;
+            float weight = (float) pixelSignature(x, y, eX, eY, sigma);
+            return new Footprint(x, y, 1, 1, new float[] {weight});
+        }
+
+        // The bounding box of the pixels within the radius
+        final int botX = (int) Math.floor(eX - radius);
+        final int topX = (int) Math.ceil(eX + radius);
+        final int botY = (int) Math.floor(eY - radius);
+        final int topY = (int) Math.ceil(eY + radius);
+        final double radius2 = radius * radius;
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = botX; i <= topX; i++) {
+            for (int j = botY; j <= topY; j++) {
+                if (distanceSq(i, j, eX, eY) <= radius2) {
+                    minX = Math.min(minX, i);
+                    minY = Math.min(minY, j);
+                    maxX = Math.max(maxX, i);
+                    maxY = Math.max(maxY, j);
+                }
+            }
+        }
+        if (minX > maxX) {
+            return new Footprint(0, 0, 0, 0, new float[0]);
+        }
+
+        int w = maxX - minX + 1;
+        int h = maxY - minY + 1;
+        double[] columns = new double[w];
+        double[] rows = new double[h];
+        FastErf.integratePixels(minX, w, eX, sigma, columns);
+        FastErf.integratePixels(minY, h, eY, sigma, rows);
+        float[] weights = new float[w * h];
+        for (int j = 0; j < h; j++) {
+            for (int i = 0; i < w; i++) {
+                if (distanceSq(minX + i, minY + j, eX, eY) <= radius2) {
+                    weights[i + j * w] = (float) (columns[i] * rows[j]);
+                }
+            }
+        }
+        return new Footprint(minX, minY, w, h, weights);
+    }
+
+    /**
+     * Computes the squared distance of a pixel from the emitter, exactly as
+     * {@link java.awt.geom.Point2D#distanceSq(double, double)}.
+     */
+    private static double distanceSq(int x, int y, double eX, double eY) {
+        double dx = x - eX;
+        double dy = y - eY;
+        return dx * dx + dy * dy;
+    }
+}
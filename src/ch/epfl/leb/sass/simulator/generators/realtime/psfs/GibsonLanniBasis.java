@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+
+/**
+ * The Bessel series of the Gibson-Lanni model for one optical configuration.
+ *
+ * The pupil function of an emitter is approximated by a series of rescaled
+ * Bessel functions J0(am * rho). The matrix of these functions at the pupil
+ * samples, its decomposition, and the integrals RM of the basis functions
+ * against the radial grid of the PSF only depend on the NA, the wavelength,
+ * the sizes of the series and of the grids, and the solver; they do not
+ * depend on the position of the emitter or of the stage. They are therefore
+ * computed once and shared by all axial planes.
+ *
+ * Instances are immutable and may be used from several threads.
+ */
+final class GibsonLanniBasis {
+
+    /**
+     * The number of optical configurations whose bases are kept.
+     */
+    static final int MAX_CACHED_BASES = 4;
+
+    /**
+     * Recently used bases, in access order.
+     */
+    private static final Map<Key, GibsonLanniBasis> cache =
+            new LinkedHashMap<Key, GibsonLanniBasis>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Key, GibsonLanniBasis> eldest) {
+                    return size() > MAX_CACHED_BASES;
+                }
+            };
+
+    /**
+     * Determines the scaling factor for the basis Bessel functions [microns].
+     */
+    private static final double MINWAVELENGTH = 0.436;
+
+    private final int numBasis;
+    private final int numSamples;
+    private final int oversampling;
+
+    /**
+     * The upper limit of the normalized pupil coordinate.
+     */
+    private final double b;
+
+    /**
+     * The spacing of the pupil samples.
+     */
+    private final double deltaRho;
+
+    /**
+     * Solves for the coefficients of the series from the pupil function.
+     */
+    private final DecompositionSolver solver;
+
+    /**
+     * The integral of each basis function at each radius of the PSF grid,
+     * indexed as RM[n][m] so that the sum over the basis is contiguous.
+     */
+    private final double[][] RM;
+
+    /**
+     * The radii of the PSF grid in units of PSF pixels.
+     */
+    private final double[] r;
+
+    /**
+     * Returns the basis for an optical configuration.
+     *
+     * @param NA Numerical aperture of the microscope.
+     * @param wavelength The wavelength of light [microns].
+     * @param ns The refractive index of the sample.
+     * @param numBasis The number of rescaled Bessel functions.
+     * @param numSamples Number of samples along the pupil.
+     * @param oversampling The oversampling ratio of the radial grid.
+     * @param sizeX The size in x of the PSF array [pixels].
+     * @param sizeY The size in y of the PSF array [pixels].
+     * @param resPSF The lateral size of a pixel of the PSF array [microns].
+     * @param solverName Either "svd" or "qrd".
+     * @return The basis, computed if it is not among the recently used ones.
+     */
+    static GibsonLanniBasis get(double NA, double wavelength, double ns,
+                                int numBasis, int numSamples,
+                                int oversampling, int sizeX, int sizeY,
+                                double resPSF, String solverName) {
+        Key key = new Key(new double[] {NA, wavelength, ns, numBasis,
+                                        numSamples, oversampling, sizeX,
+                                        sizeY, resPSF},
+                          solverName);
+        // The basis is built under the lock so that concurrent callers,
+        // e.g. the workers computing the planes of a PSF, build it only once.
+        synchronized (cache) {
+            GibsonLanniBasis basis = cache.get(key);
+            if (basis == null) {
+                basis = new GibsonLanniBasis(NA, wavelength, ns, numBasis,
+                                             numSamples, oversampling, sizeX,
+                                             sizeY, resPSF, solverName);
+                cache.put(key, basis);
+            }
+            return basis;
+        }
+    }
+
+    private GibsonLanniBasis(double NA, double wavelength, double ns,
+                             int numBasis, int numSamples, int oversampling,
+                             int sizeX, int sizeY, double resPSF,
+                             String solverName) {
+        this.numBasis = numBasis;
+        this.numSamples = numSamples;
+        this.oversampling = oversampling;
+
+        double x0 = (sizeX - 1) / 2.0D;
+        double y0 = (sizeY - 1) / 2.0D;
+        int maxRadius = (int) Math.round(Math.sqrt((sizeX - x0) * (sizeX - x0)
+                        + (sizeY - y0) * (sizeY - y0))) + 1;
+        this.r = new double[maxRadius * oversampling];
+
+        double a = 0.0D;
+        this.b = Math.min(1.0D, ns / NA);
+
+        double k0 = 2 * Math.PI / wavelength;
+        double factor1 = MINWAVELENGTH / wavelength;
+        double factor = factor1 * NA / 1.4;
+        this.deltaRho = (b - a) / (numSamples - 1);
+
+        // basis construction
+        double[][] Basis = new double[numSamples][numBasis];
+        double[] values = new double[numSamples];
+        for (int m = 0; m < numBasis; m++) {
+            double am = (3 * m + 1) * factor;
+            for (int rhoi = 0; rhoi < numSamples; rhoi++) {
+                double rho = rhoi * deltaRho;
+                values[rhoi] = am * rho;
+            }
+            Bessel.j0(values, values, numSamples);
+            for (int rhoi = 0; rhoi < numSamples; rhoi++) {
+                Basis[rhoi][m] = values[rhoi];
+            }
+        }
+
+        RealMatrix coefficients = new Array2DRowRealMatrix(Basis, false);
+        if (solverName.equals("svd")) {
+            // slower but more accurate
+            solver = new SingularValueDecomposition(coefficients).getSolver();
+        } else {
+            // faster, less accurate
+            solver = new QRDecomposition(coefficients).getSolver();
+        }
+
+        // The Bessel functions at the edge of the pupil do not depend on the
+        // radius.
+        double[] amB = new double[numBasis];
+        for (int m = 0; m < numBasis; m++) {
+            double am = (3 * m + 1) * factor;
+            amB[m] = am * b;
+        }
+        double[] bj0AmB = new double[numBasis];
+        double[] bj1AmB = new double[numBasis];
+        Bessel.j0(amB, bj0AmB, numBasis);
+        Bessel.j1(amB, bj1AmB, numBasis);
+
+        // The same holds for the edge of the pupil at each radius.
+        double[] betaB = new double[r.length];
+        for (int n = 0; n < r.length; n++) {
+            r[n] = (n * 1.0 / oversampling);
+            betaB[n] = k0 * NA * r[n] * resPSF * b;
+        }
+        double[] bj0BetaBs = new double[r.length];
+        double[] bj1BetaBs = new double[r.length];
+        Bessel.j0(betaB, bj0BetaBs, r.length);
+        Bessel.j1(betaB, bj1BetaBs, r.length);
+
+        this.RM = new double[r.length][numBasis];
+        for (int n = 0; n < r.length; n++) {
+            double beta = k0 * NA * r[n] * resPSF;
+            double bj0BetaB = bj0BetaBs[n];
+            double bj1BetaB = bj1BetaBs[n];
+
+            for (int m = 0; m < numBasis; m++) {
+                double am = (3 * m + 1) * factor;
+                double rm = am * bj1AmB[m] * bj0BetaB * b;
+                rm = rm - beta * b * bj0AmB[m] * bj1BetaB;
+                RM[n][m] = rm / (am * am - beta * beta);
+            }
+        }
+    }
+
+    /**
+     * @return The number of pupil samples.
+     */
+    int getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * @param rhoi Index of a pupil sample.
+     * @return The normalized pupil coordinate of the sample.
+     */
+    double getRho(int rhoi) {
+        return rhoi * deltaRho;
+    }
+
+    /**
+     * @return The radii of the PSF grid in units of PSF pixels.
+     */
+    double[] getRadii() {
+        return r;
+    }
+
+    /**
+     * @return The oversampling ratio of the radial grid.
+     */
+    int getOversampling() {
+        return oversampling;
+    }
+
+    /**
+     * Computes the radial intensity profile of the PSF.
+     *
+     * @param Ffun The real and imaginary parts of the pupil function at each
+     *             pupil sample, indexed as Ffun[rhoi][0 or 1].
+     * @return The intensity at each radius of {@link #getRadii()}.
+     */
+    double[] radialProfile(double[][] Ffun) {
+        RealMatrix rhsFun = new Array2DRowRealMatrix(Ffun, false);
+        double[][] Coef = solver.solve(rhsFun).getData();
+
+        double[] h = new double[r.length];
+        for (int n = 0; n < r.length; n++) {
+            double[] rmn = RM[n];
+            double realh = 0.0D;
+            double imgh = 0.0D;
+            for (int m = 0; m < numBasis; m++) {
+                realh = realh + rmn[m] * Coef[m][0];
+                imgh = imgh + rmn[m] * Coef[m][1];
+            }
+            h[n] = realh * realh + imgh * imgh;
+        }
+        return h;
+    }
+
+    /**
+     * Identifies an optical configuration.
+     */
+    private static final class Key {
+        private final double[] values;
+        private final String solverName;
+
+        Key(double[] values, String solverName) {
+            this.values = values;
+            this.solverName = solverName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return Arrays.equals(values, other.values) &&
+                   solverName.equals(other.solverName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(values) + solverName.hashCode();
+        }
+    }
+}
@@ -18,21 +18,18 @@
 package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
 
 import ch.epfl.leb.sass.simulator.generators.realtime.Pixel;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.DecompositionSolver;
-import org.apache.commons.math3.linear.QRDecomposition;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.SingularValueDecomposition;
-import org.apache.commons.math3.special.BesselJ;
-import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolatingFunction;
 
 import java.lang.Math;
 import ij.ImageStack;
 import ij.process.FloatProcessor;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Computes an emitter PSF based on the Gibson-Lanni model.
@@ -173,13 +170,6 @@ public final class GibsonLanniPSF implements PSF {
      */
     private double stageDisplacement = 0;
     
-    /**
-     * Determines the scaling factor for the basis Bessel functions [microns].
-     * See Li, J., Xue, F., & Blu, T. (2017). JOSA A, 34(6), 1029-1034 for more
-     * information.
-     */
-    private final double MINWAVELENGTH = 0.436;
-      
     /**
      * The name of the linear algebra solver used to compute Bessel series coefficients.
      * 
@@ -188,19 +178,36 @@ public final class GibsonLanniPSF implements PSF {
      */
     private String solverName = "qrd";
     
+    /**
+     * The fraction of the PSF's energy within its radius, or 0 for a radius
+     * that only depends on the grid and maxRadius.
+     */
+    private double energyFraction = 0;
+    
     /**
      * Reference to the interpolator for this emitter's current position.
      */
-    private PiecewiseBicubicSplineInterpolatingFunction interpCDF ;
+    private SplinePlane interpCDF ;
+    
+    /**
+     * The number of tabulated sub-pixel offsets per pixel, or 0 if the
+     * signatures are computed from the interpolator.
+     */
+    private int stampSubdivisions = 0;
     
     /**
      * Cache for PSF  interpolators.
      * 
-     * This is cleared every time a new Builder is created to prevent problems
-     * when parameters change between simulations.
+     * This is shared by the PSFs of a Builder. Planes are keyed by the
+     * optical configuration, so the cache remains valid when parameters
+     * change between simulations.
+     */
+    private final PSFPlaneCache interpolators;
+    
+    /**
+     * Persistent store of computed planes, or null.
      */
-    private static HashMap<Long, PiecewiseBicubicSplineInterpolatingFunction>
-                        interpolators = new HashMap<>();
+    private final PSFLibrary library;
     
     public static class Builder implements PSFBuilder {
         
@@ -230,11 +237,18 @@ public final class GibsonLanniPSF implements PSF {
         private double stageDisplacement;
         private String solver;
         
+        // Planes that are computed before the first PSF is built
+        private double precomputeZMin = Double.NaN;
+        private double precomputeZMax = Double.NaN;
+        private boolean precomputed = false;
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        
+        private PSFPlaneCache cache = new PSFPlaneCache();
+        private PSFLibrary library = null;
+        private int stampSubdivisions = 0;
+        private double energyFraction = 0;
+        
         public Builder() {
-        // Clear the cache every time a new Builder is created.
-        // This prevents erroneous calculations in new simulations with
-        // with different values for the stage displacement.
-        interpolators = new HashMap<>();
         }
         
         public Builder numBasis(int numBasis) {
@@ -296,6 +310,127 @@ public final class GibsonLanniPSF implements PSF {
             return this;
         }
         
+        /**
+         * Computes the PSFs of all axial planes in a range of emitter
+         * z-positions in parallel.
+         * 
+         * The planes are computed when the first PSF is built, which is
+         * after the microscope has set the stage displacement, NA and
+         * wavelength, but before any fluorophore is created. Otherwise each
+         * plane is computed the first time an emitter lies in it.
+         * 
+         * @param zMin The lowest emitter z-position [microns].
+         * @param zMax The highest emitter z-position [microns].
+         * @return This builder.
+         */
+        public Builder precompute(double zMin, double zMax) {
+            if (zMax < zMin) {
+                throw new IllegalArgumentException(
+                        "zMax must not be smaller than zMin.");
+            }
+            this.precomputeZMin = zMin;
+            this.precomputeZMax = zMax;
+            this.precomputed = false;
+            return this;
+        }
+        
+        /**
+         * Sets the pool that computes the planes of
+         * {@link #precompute(double, double)}.
+         * 
+         * @param pool The ForkJoin pool. The common pool is used by default.
+         * @return This builder.
+         */
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+        
+        /**
+         * Sets the cache of the computed planes.
+         * 
+         * Each Builder has its own cache by default. Builders may share a
+         * cache, for example to bound the memory used by the PSFs of
+         * simulations that run in parallel.
+         * 
+         * @param cache The cache of the computed planes.
+         * @return This builder.
+         */
+        public Builder cache(PSFPlaneCache cache) {
+            this.cache = cache;
+            return this;
+        }
+        
+        /**
+         * Sets the library that stores computed planes between simulations.
+         * 
+         * Planes that are not cached are loaded from the library if they
+         * are in it, or computed and added to it otherwise.
+         * 
+         * @param library The library, or null to compute every plane.
+         * @return This builder.
+         */
+        public Builder library(PSFLibrary library) {
+            this.library = library;
+            return this;
+        }
+        
+        /**
+         * Tabulates the signatures of each plane at a grid of sub-pixel
+         * emitter positions.
+         * 
+         * Signatures are then interpolated bilinearly between the four
+         * nearest tabulated positions instead of integrating the PSF over
+         * every pixel of every emitter. The tables of a plane hold
+         * 4 * (subdivisions + 1)^2 * (2 * ceil(radius) + 2)^2 bytes, where
+         * radius is {@link GibsonLanniPSF#getRadius()}, and take a few
+         * emitters' worth of time to compute; they pay off when many
+         * emitters share a plane.
+         * 
+         * @param subdivisions The number of tabulated positions per pixel
+         *                     along each direction, e.g. 16, or 0 to
+         *                     integrate the PSF for every emitter.
+         * @return This builder.
+         */
+        public Builder stamps(int subdivisions) {
+            if (subdivisions < 0) {
+                throw new IllegalArgumentException(
+                        "The number of subdivisions must not be negative.");
+            }
+            this.stampSubdivisions = subdivisions;
+            return this;
+        }
+        
+        /**
+         * Truncates each plane at the radius that holds a fraction of its
+         * energy.
+         * 
+         * The radius is computed once per plane from its CDF and is never
+         * larger than the one set by the grid and maxRadius. Stamps are
+         * tabulated up to the radius of their plane.
+         * 
+         * @param energyFraction The fraction of the PSF's energy within the
+         *                       radius, e.g. 0.995, or 0 for the fixed
+         *                       radius.
+         * @return This builder.
+         */
+        @Override
+        public Builder energyFraction(double energyFraction) {
+            if (!(energyFraction >= 0 && energyFraction < 1)) {
+                throw new IllegalArgumentException(
+                        "The energy fraction must lie in [0, 1).");
+            }
+            this.energyFraction = energyFraction;
+            return this;
+        }
+        
+        /**
+         * @return The cache of the computed planes.
+         */
+        public PSFPlaneCache getCache() {
+            return cache;
+        }
+        
         @Override
         public Builder eX(double eX) {this.eX = eX; return this;}
         
@@ -307,15 +442,85 @@ public final class GibsonLanniPSF implements PSF {
         
         @Override
         public GibsonLanniPSF build() {
-            return new GibsonLanniPSF(this);
+            if (!precomputed && !Double.isNaN(precomputeZMin)) {
+                precomputed = true;
+                precomputePlanes();
+            }
+            return new GibsonLanniPSF(this, true);
+        }
+        
+        /**
+         * Computes the planes of the precomputed range on the pool.
+         */
+        private void precomputePlanes() {
+            GibsonLanniPSF template = new GibsonLanniPSF(this, false);
+            long first = template.getNearestZPlane(precomputeZMin);
+            long last = template.getNearestZPlane(precomputeZMax);
+            int numPlanes = (int) (last - first + 1);
+            Logger.getLogger(GibsonLanniPSF.class.getName())
+                  .log(Level.INFO, "Computing {0} PSF planes...", numPlanes);
+            
+            PlaneTask task = new PlaneTask(template, first, last + 1,
+                                           new AtomicInteger(), numPlanes);
+            pool.invoke(task);
+            Logger.getLogger(GibsonLanniPSF.class.getName())
+                  .log(Level.INFO, "Done computing PSF planes.");
+        }
+    }
+    
+    /**
+     * Computes a range of planes, splitting it until each task holds a
+     * single plane.
+     */
+    private static class PlaneTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final GibsonLanniPSF template;
+        private final long from;
+        private final long to;
+        private final AtomicInteger done;
+        private final int total;
+        
+        PlaneTask(GibsonLanniPSF template, long from, long to,
+                  AtomicInteger done, int total) {
+            this.template = template;
+            this.from = from;
+            this.to = to;
+            this.done = done;
+            this.total = total;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                template.getInterpolator(from);
+                if (template.stampSubdivisions > 0) {
+                    template.getStamps(from);
+                }
+                
+                // Report progress about every tenth of the planes
+                int count = done.incrementAndGet();
+                int step = Math.max(1, total / 10);
+                if (count % step == 0 || count == total) {
+                    Logger.getLogger(GibsonLanniPSF.class.getName())
+                          .log(Level.INFO, "Computed PSF plane {0} of {1}",
+                               new Object[] {count, total});
+                }
+                return;
+            }
+            long mid = (from + to) >>> 1;
+            invokeAll(new PlaneTask(template, from, mid, done, total),
+                      new PlaneTask(template, mid, to, done, total));
         }
     }
     
     /**
      * Private GibsonLanniPSF constructor forces creation through the Builder.
      * @param builder A Builder instance for constructing a Gibson-Lanni PSF.
+     * @param computePlane If false, the PSF of the emitter's plane is not
+     *                     computed.
      */
-    private GibsonLanniPSF(Builder builder) {
+    private GibsonLanniPSF(Builder builder, boolean computePlane) {
         this.numBasis = builder.numBasis;
         this.numSamples = builder.numSamples;
         this.oversampling = builder.oversampling;
@@ -340,13 +545,16 @@ public final class GibsonLanniPSF implements PSF {
         this.maxRadius = builder.maxRadius;
         this.stageDisplacement = builder.stageDisplacement;
         this.solverName = builder.solver;
+        this.interpolators = builder.cache;
+        this.library = builder.library;
+        this.stampSubdivisions = builder.stampSubdivisions;
+        this.energyFraction = builder.energyFraction;
         
-        // Compute the signature for this PSF.
-        this.computeDigitalPSF(this.stageDisplacement);
-        
-        // Set the interpolator for this emitter's z-plane.
-        Long zPlane = getNearestZPlane(eZ);
-        this.interpCDF = interpolators.get(zPlane);
+        // Compute the signature for this PSF and set the interpolator for
+        // this emitter's z-plane.
+        if (computePlane) {
+            this.interpCDF = getInterpolator(getNearestZPlane(eZ));
+        }
     }
     
     /**
@@ -378,14 +586,23 @@ public final class GibsonLanniPSF implements PSF {
     public void generateSignature(ArrayList<Pixel> pixels) {
         double signature;
         
-        // Compute the PSF
-        this.computeDigitalPSF(this.stageDisplacement); 
-        
         // Get the interpolator for this emitter's z-plane.
-        Long zPlane = getNearestZPlane(eZ);
-        this.interpCDF = interpolators.get(zPlane);
+        long zPlane = getNearestZPlane(eZ);
+        this.interpCDF = getInterpolator(zPlane);
+        PixelStamps stamps = null;
+        if (this.stampSubdivisions > 0) {
+            stamps = getStamps(zPlane);
+        }
         
         for(Pixel pixel: pixels) {
+            if (stamps != null) {
+                // Pixels that are not tabulated are integrated below.
+                signature = stamps.value(pixel.x, pixel.y, this.eX, this.eY);
+                if (!Double.isNaN(signature)) {
+                    pixel.setSignature(signature);
+                    continue;
+                }
+            }
             try {
                 signature = this.generatePixelSignature(pixel.x, pixel.y);
             } catch (org.apache.commons.math3.exception.OutOfRangeException ex) {
@@ -404,77 +621,254 @@ public final class GibsonLanniPSF implements PSF {
      * This number is based on the greatest horizontal or vertical extent of the
      * grid that the PSF is computed on. If maxRadius is smaller than that
      * determined by the PSF's computational grid, then maxRadius is returned.
+     * If an energy fraction was set on the builder, the radius that holds
+     * this fraction of the energy of the emitter's plane is returned when it
+     * is smaller still.
      * 
      * @return The width of the PSF.
      */
     @Override
     public double getRadius() {
+        return getRadius(getNearestZPlane(eZ));
+    }
+    
+    /**
+     * Computes the half-width of the PSF of an axial plane.
+     * 
+     * @param zDiscrete The index of the axial plane.
+     * @return The width of the PSF [pixels].
+     */
+    private double getRadius(long zDiscrete) {
         double minPixel = (double) Math.min(this.sizeX, this.sizeY) / 2;
         double minSize =  this.resPSF / this.resLateral * minPixel - 1;
-        return Math.min(minSize, this.maxRadius);
+        double radius = Math.min(minSize, this.maxRadius);
+        if (this.energyFraction > 0) {
+            radius = Math.min(radius, getEnergyRadius(zDiscrete));
+        }
+        return radius;
+    }
+    
+    /**
+     * Returns the radius that holds the energy fraction of an axial plane.
+     * 
+     * The radius is computed from the plane if it is not in the cache yet.
+     * This may be called from several threads at once.
+     * 
+     * @param zDiscrete The index of the axial plane.
+     * @return The radius [pixels].
+     */
+    private double getEnergyRadius(long zDiscrete) {
+        PSFPlaneCache.Key planeKey = getPlaneKey(zDiscrete);
+        double[] planeParameters = planeKey.getParameters();
+        double[] parameters = Arrays.copyOf(
+                planeParameters, planeParameters.length + 1);
+        parameters[planeParameters.length] = this.energyFraction;
+        PSFPlaneCache.Key key = new PSFPlaneCache.Key(
+                parameters, this.solverName + "/radius", zDiscrete);
+        
+        Double result = (Double) interpolators.get(key);
+        if (result == null) {
+            result = (Double) interpolators.putIfAbsent(
+                    key, computeEnergyRadius(getInterpolator(zDiscrete)), 16);
+        }
+        return result / this.resLateral;
+    }
+    
+    /**
+     * Computes the radius of the circle around the emitter that holds the
+     * energy fraction of a plane.
+     * 
+     * The energy of each grid cell is recovered from the CDF values at its
+     * corners and added to a histogram of the distance to the emitter, with
+     * bins as wide as the grid spacing.
+     * 
+     * @param cdf The CDF of the plane.
+     * @return The radius [microns].
+     */
+    private double computeEnergyRadius(SplinePlane cdf) {
+        double[] xval = cdf.getX();
+        double[] yval = cdf.getY();
+        DoubleBuffer values = cdf.getValues();
+        int ny = yval.length;
+        double maxDistance = Math.hypot(
+                Math.max(-xval[0], xval[xval.length - 1]),
+                Math.max(-yval[0], yval[ny - 1]));
+        double[] histogram = new double[(int) (maxDistance / this.resPSF) + 2];
+        
+        // Each value is the sum of the cells below and left of its grid point,
+        // including the cell that ends at the point.
+        double total = 0;
+        for (int i = 0; i < xval.length; i++) {
+            double x = xval[i] - 0.5 * this.resPSF;
+            for (int j = 0; j < ny; j++) {
+                double y = yval[j] - 0.5 * this.resPSF;
+                double energy = values.get(i * ny + j);
+                if (i > 0) {
+                    energy -= values.get((i - 1) * ny + j);
+                }
+                if (j > 0) {
+                    energy -= values.get(i * ny + j - 1);
+                }
+                if (i > 0 && j > 0) {
+                    energy += values.get((i - 1) * ny + j - 1);
+                }
+                int bin = (int) (Math.sqrt(x * x + y * y) / this.resPSF);
+                histogram[bin] += energy;
+                total += energy;
+            }
+        }
+        
+        double target = this.energyFraction * total;
+        double sum = 0;
+        for (int bin = 0; bin < histogram.length; bin++) {
+            sum += histogram[bin];
+            if (sum >= target) {
+                return (bin + 1) * this.resPSF;
+            }
+        }
+        return histogram.length * this.resPSF;
+    }
+    
+    /**
+     * Returns the interpolator of the PSF CDF of an axial plane.
+     * 
+     * The plane is computed if it is not in the cache yet. This may be called
+     * from several threads at once.
+     * 
+     * @param zDiscrete The index of the axial plane.
+     * @return The interpolator of the plane.
+     */
+    private SplinePlane getInterpolator(long zDiscrete) {
+        // Has a PSF has already been computed for this z-plane?
+        PSFPlaneCache.Key key = getPlaneKey(zDiscrete);
+        SplinePlane result = (SplinePlane) interpolators.get(key);
+        if (result != null) {
+            return result;
+        }
+        
+        // Otherwise, load the PSF from the library or compute it, and store
+        // the result in the cache. The interpolator holds the CDF values on
+        // the grid.
+        if (library != null) {
+            result = library.load(key);
+        }
+        if (result == null) {
+            double[] mgridX = getGrid(this.sizeX);
+            double[] mgridY = getGrid(this.sizeY);
+            double[][] rCDF = computeDigitalPSF(this.stageDisplacement,
+                                                zDiscrete);
+            result = SplinePlane.of(mgridX, mgridY, rCDF);
+            if (library != null) {
+                library.store(key, result);
+            }
+        }
+        long size = 8L * (this.sizeX + 2) * this.sizeY;
+        return (SplinePlane) interpolators.putIfAbsent(key, result, size);
+    }
+    
+    /**
+     * Returns the signature tables of an axial plane.
+     * 
+     * The tables are computed if they are not in the cache yet. This may be
+     * called from several threads at once.
+     * 
+     * @param zDiscrete The index of the axial plane.
+     * @return The signature tables of the plane.
+     */
+    private PixelStamps getStamps(long zDiscrete) {
+        // The tables also depend on the camera pixels and the radius.
+        PSFPlaneCache.Key planeKey = getPlaneKey(zDiscrete);
+        double[] planeParameters = planeKey.getParameters();
+        double[] parameters = Arrays.copyOf(
+                planeParameters, planeParameters.length + 3);
+        parameters[planeParameters.length] = this.resLateral;
+        parameters[planeParameters.length + 1] = getRadius(zDiscrete);
+        parameters[planeParameters.length + 2] = this.stampSubdivisions;
+        PSFPlaneCache.Key key = new PSFPlaneCache.Key(
+                parameters, this.solverName + "/stamps", zDiscrete);
+        
+        PixelStamps result = (PixelStamps) interpolators.get(key);
+        if (result != null) {
+            return result;
+        }
+        result = new PixelStamps(getInterpolator(zDiscrete), this.resLateral,
+                                 getRadius(zDiscrete), this.stampSubdivisions);
+        return (PixelStamps) interpolators.putIfAbsent(key, result,
+                                                       result.getBytes());
+    }
+    
+    /**
+     * Computes the coordinates of the PSF grid along one direction.
+     * 
+     * @param size The number of grid points.
+     * @return The coordinates centered on the emitter [microns].
+     */
+    private double[] getGrid(int size) {
+        double[] mgrid = new double[size];
+        for (int i = 0; i < size; i++) {
+            mgrid[i] = (i - 0.5 * (size - 1)) * this.resPSF;
+        }
+        return mgrid;
+    }
+    
+    /**
+     * Returns the cache key of an axial plane.
+     * 
+     * The key holds every parameter that the planes depend on. The emitter's
+     * lateral position, the camera pixel size and the maximum radius do not
+     * affect the planes.
+     * 
+     * @param zDiscrete The index of the axial plane.
+     * @return The key of the plane.
+     */
+    private PSFPlaneCache.Key getPlaneKey(long zDiscrete) {
+        double[] parameters = {
+            this.numBasis, this.numSamples, this.oversampling, this.sizeX,
+            this.sizeY, this.NA, this.wavelength, this.ns, this.ng0, this.ng,
+            this.ni0, this.ni, this.ti0, this.tg0, this.tg, this.resPSF,
+            this.resPSFAxial, this.stageDisplacement};
+        return new PSFPlaneCache.Key(parameters, this.solverName, zDiscrete);
     }
     
     /**
      * Computes a digital representation of the PSF.
      * 
+     * The emitter is placed at the center of the axial plane. This only reads
+     * the optical configuration, not the emitter's position, so planes may
+     * be computed concurrently.
+     * 
      * @param z The stage displacement.
-     * @return An image stack of the PSF.
+     * @param zDiscrete The index of the axial plane.
+     * @return The cumulative distribution function of the PSF on the grid
+     *         of {@link #getGrid(int)}, indexed as [y][x].
      **/
-    private void computeDigitalPSF(double z) {
+    private double[][] computeDigitalPSF(
+            double z, long zDiscrete) {
+        double zPlane = zDiscrete * this.resPSFAxial;
         
-        // Has a PSF has already been computed for this emitter's z-plane?
-        Long zDiscrete = getNearestZPlane(this.eZ);
-        if (interpolators.containsKey(zDiscrete)) {
-            // PSF already computed for this z-plane, so don't do anything.
-            return;
-        }
-        
-        // Otherwise, compute the PSF and store the result in the hash map
         double x0 = (this.sizeX - 1) / 2.0D;
         double y0 = (this.sizeY - 1) / 2.0D;
 
         double xp = x0;
         double yp = y0;
 
-        //ImageStack stack = new ImageStack(this.sizeX, this.sizeY);
-
-        int maxRadius = (int) Math.round(Math.sqrt((this.sizeX - x0)
-                        * (this.sizeX - x0) + (this.sizeY - y0) * (this.sizeY - y0))) + 1;
-        double[] r = new double[maxRadius * this.oversampling];
-        double[] h = new double[r.length];
-
-        double a = 0.0D;
-        double b = Math.min(1.0D, this.ns / this.NA);
+        // The Bessel series only depends on the optical configuration and is
+        // shared by all planes.
+        GibsonLanniBasis basis = GibsonLanniBasis.get(
+                this.NA, this.wavelength, this.ns, this.numBasis,
+                this.numSamples, this.oversampling, this.sizeX, this.sizeY,
+                this.resPSF, this.solverName);
+        double[] r = basis.getRadii();
 
         double k0 = 2 * Math.PI / this.wavelength;
-        double factor1 = this.MINWAVELENGTH / this.wavelength;
-        double factor = factor1 * this.NA / 1.4;
-        double deltaRho = (b - a) / (this.numSamples - 1);
-
-        // basis construction
-        double rho = 0.0D;
-        double am = 0.0;
-        double[][] Basis = new double[this.numSamples][this.numBasis];
-
-        BesselJ bj0 = new BesselJ(0);
-        BesselJ bj1 = new BesselJ(1);
-
-        for (int m = 0; m < this.numBasis; m++) {
-		am = (3 * m + 1) * factor;
-//                am = (3 * m + 1);
-                for (int rhoi = 0; rhoi < this.numSamples; rhoi++) {
-                        rho = rhoi * deltaRho;
-                        Basis[rhoi][m] = bj0.value(am * rho);
-                }
-        }
 
         // compute the function to be approximated
 
         double ti = 0.0D;
         double OPD = 0;
         double W = 0;
+        double rho = 0.0D;
 
-        double[][] Coef = new double[1][this.numBasis * 2];
         double[][] Ffun = new double[this.numSamples][2];
 
         // Oil thickness.
@@ -482,11 +876,11 @@ public final class GibsonLanniPSF implements PSF {
         double sqNA = this.NA * this.NA;
         double rhoNA2;
         for (int rhoi = 0; rhoi < this.numSamples; rhoi++) {
-                rho = rhoi * deltaRho;
+                rho = basis.getRho(rhoi);
                 rhoNA2 = rho * rho * sqNA;
                 
                 // OPD in the sample
-                OPD = this.eZ * Math.sqrt(this.ns * this.ns - rhoNA2);
+                OPD = zPlane * Math.sqrt(this.ns * this.ns - rhoNA2);
                 
                 // OPD in the immersion medium
                 OPD += ti * Math.sqrt(this. ni * this.ni - rhoNA2) -
@@ -502,56 +896,8 @@ public final class GibsonLanniPSF implements PSF {
                 Ffun[rhoi][1] = Math.sin(W);
         }
         
-
-        // solve the linear system
-        // begin....... (Using Common Math)
-        RealMatrix coefficients = new Array2DRowRealMatrix(Basis, false);
-        RealMatrix rhsFun = new Array2DRowRealMatrix(Ffun, false);
-        
-        DecompositionSolver solver = null;
-        if (this.solverName.equals("svd")) {
-            // slower but more accurate
-            solver = new SingularValueDecomposition(coefficients).getSolver();
-        } else {
-            // faster, less accurate
-            solver = new QRDecomposition(coefficients).getSolver();
-        }
-        
-        RealMatrix solution = solver.solve(rhsFun);
-        Coef = solution.getData();
-
-        // end.......
-
-        double[][] RM = new double[this.numBasis][r.length];
-        double beta = 0.0D;
-        
-        double rm = 0.0D;
-        for (int n = 0; n < r.length; n++) {
-                r[n] = (n * 1.0 / this.oversampling);
-                beta = k0 * this.NA * r[n] * this.resPSF;
-
-                for (int m = 0; m < this.numBasis; m++) {
-                        am = (3 * m + 1) * factor;
-                        rm = am * bj1.value(am * b) * bj0.value(beta * b) * b;
-                        rm = rm - beta * b * bj0.value(am * b) * bj1.value(beta * b);
-                        RM[m][n] = rm / (am * am - beta * beta);
-
-                }
-        }
-
-        // obtain one component
-        double maxValue = 0.0D;
-
-        for (int n = 0; n < r.length; n++) {
-                double realh = 0.0D;
-                double imgh = 0.0D;
-                for (int m = 0; m < this.numBasis; m++) {
-                        realh = realh + RM[m][n] * Coef[m][0];
-                        imgh = imgh + RM[m][n] * Coef[m][1];
-
-                }
-                h[n] = realh * realh + imgh * imgh;
-        }
+        // solve for the series coefficients and obtain one component
+        double[] h = basis.radialProfile(Ffun);
 
         // Interpolate the PSF onto a 2D grid of physical coordinates
         double[] pixel = new double[this.sizeX * this.sizeY];
@@ -610,18 +956,6 @@ public final class GibsonLanniPSF implements PSF {
             }
         }        
         
-        // Construct the x-coordinates
-        double[] mgridX = new double[this.sizeX];
-        for (int x = 0; x < this.sizeX; x++) {
-            mgridX[x] = (x - 0.5 * (this.sizeX - 1)) * this.resPSF;
-        }
-        
-        // Construct the y-coordinates
-        double[] mgridY = new double[this.sizeY];
-        for (int y = 0; y < this.sizeY; y++) {
-            mgridY[y] = (y - 0.5 * (this.sizeY - 1)) * this.resPSF;
-        }
-        
         //stack.addSlice(new FloatProcessor(this.sizeX, this.sizeY, pixel));
         //stack.addSlice(new FloatProcessor(this.sizeX, this.sizeY, CDF));
         
@@ -632,14 +966,7 @@ public final class GibsonLanniPSF implements PSF {
                 rCDF[y][x] = CDF[x + y * this.sizeX];
             }
         }
-        
-        // Compute the interpolating spline for this PSF.
-        this.interpCDF = new PiecewiseBicubicSplineInterpolatingFunction(
-                mgridX, mgridY, rCDF);
-        
-        interpolators.put(zDiscrete,
-                    new PiecewiseBicubicSplineInterpolatingFunction(
-                            mgridX, mgridY, rCDF));
+        return rCDF;
     }
     
     /**
@@ -83,4 +83,26 @@ public interface PSFBuilder {
      * Object space pixel size
      */
     public PSFBuilder resLateral(double resLateral);
+    
+    /**
+     * Truncates the PSF at the radius that holds a fraction of its energy.
+     * 
+     * The radius then depends on the emitter's axial position, so that
+     * in-focus emitters span fewer pixels than defocused ones. By default,
+     * or if the fraction is zero, each model uses its fixed radius.
+     * 
+     * Models that do not support the truncation only accept a fraction of
+     * zero.
+     * 
+     * @param energyFraction The fraction of the PSF's energy within the
+     *                       radius, e.g. 0.995, or 0 for the fixed radius.
+     * @return This builder.
+     */
+    public default PSFBuilder energyFraction(double energyFraction) {
+        if (energyFraction != 0) {
+            throw new IllegalArgumentException(
+                    "This PSF model cannot be truncated by energy fraction.");
+        }
+        return this;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A directory of computed PSF planes that persists between simulations.
+ *
+ * Each plane is stored in its own file, named after a hash of the
+ * parameters of its PSF model and the index of the plane. A file holds the
+ * grid coordinates and the values of the interpolated function:
+ *
+ * <pre>
+ * int    magic, version
+ * int    number of parameters, length of the name in bytes
+ * long   index of the plane
+ * double parameters
+ * byte   name, padded with zeros to a multiple of eight bytes
+ * int    number of x-coordinates, number of y-coordinates
+ * double x-coordinates, y-coordinates
+ * double values, indexed as [x][y]
+ * </pre>
+ *
+ * All values are big-endian. Loaded planes are memory-mapped; the values
+ * are read from the mapped file by a {@link SplinePlane} and never copied
+ * onto the heap.
+ *
+ * The library is only an optimization. Files that cannot be read or written
+ * are logged and otherwise ignored, and the planes are computed instead.
+ * Files are written under a temporary name and then renamed, so simulations
+ * that share a library never read partial files.
+ */
+public final class PSFLibrary {
+
+    private static final Logger LOGGER =
+            Logger.getLogger(PSFLibrary.class.getName());
+
+    private static final int MAGIC = 0x53415350;
+
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".psf";
+
+    private final File directory;
+
+    /**
+     * Creates a library in a directory.
+     *
+     * @param directory The directory of the library. It is created if it does
+     *                  not exist.
+     */
+    public PSFLibrary(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException(
+                    "Cannot create the PSF library " + directory + ".");
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * @return The directory of the library.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Loads a plane from the library.
+     *
+     * @param key The key of the plane.
+     * @return The plane, or null if it is not in the library.
+     */
+    SplinePlane load(PSFPlaneCache.Key key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, key);
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Cannot load the PSF plane " + file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a plane in the library.
+     *
+     * @param key The key of the plane.
+     * @param plane The plane.
+     */
+    void store(PSFPlaneCache.Key key, SplinePlane plane) {
+        double[] xval = plane.getX();
+        double[] yval = plane.getY();
+        byte[] name = key.getName().getBytes(StandardCharsets.UTF_8);
+        double[] parameters = key.getParameters();
+        int length = 24 + 8 * parameters.length + pad(name.length) + 8
+                     + 8 * (xval.length + yval.length
+                            + xval.length * yval.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putInt(parameters.length).putInt(name.length);
+        buffer.putLong(key.getPlane());
+        for (double parameter: parameters) {
+            buffer.putDouble(parameter);
+        }
+        buffer.put(name);
+        buffer.position(buffer.position() + pad(name.length) - name.length);
+        buffer.putInt(xval.length).putInt(yval.length);
+        DoubleBuffer values = buffer.asDoubleBuffer();
+        values.put(xval).put(yval).put(plane.getValues());
+        buffer.rewind();
+
+        File file = getFile(key);
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(directory.toPath(),
+                                             file.getName(), ".tmp");
+            try (FileChannel channel = FileChannel.open(
+                    temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporary, file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Cannot store the PSF plane " + file, ex);
+            if (temporary != null) {
+                temporary.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the file of a plane.
+     *
+     * @param key The key of the plane.
+     * @return The file of the plane, which may not exist.
+     */
+    File getFile(PSFPlaneCache.Key key) {
+        // 64-bit FNV-1a hash of the parameters and the name
+        long hash = 0xcbf29ce484222325L;
+        for (double parameter: key.getParameters()) {
+            long bits = Double.doubleToLongBits(parameter);
+            for (int i = 0; i < 8; i++) {
+                hash = (hash ^ ((bits >>> (8 * i)) & 0xff)) * 0x100000001b3L;
+            }
+        }
+        for (byte b: key.getName().getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return new File(directory, String.format("%016x_%d%s", hash,
+                                                 key.getPlane(), SUFFIX));
+    }
+
+    /**
+     * Reads a plane from a mapped file.
+     *
+     * @param buffer The mapped file.
+     * @param key The expected key of the plane.
+     * @return The plane, or null if the file belongs to another plane.
+     */
+    private static SplinePlane read(ByteBuffer buffer,
+                                          PSFPlaneCache.Key key) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IllegalArgumentException("Not a PSF library file.");
+        }
+        double[] parameters = new double[buffer.getInt()];
+        byte[] name = new byte[buffer.getInt()];
+        long plane = buffer.getLong();
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = buffer.getDouble();
+        }
+        buffer.get(name);
+        buffer.position(buffer.position() + pad(name.length) - name.length);
+
+        // Hash collisions are possible, if unlikely.
+        if (plane != key.getPlane() ||
+            !Arrays.equals(parameters, key.getParameters()) ||
+            !new String(name, StandardCharsets.UTF_8).equals(key.getName())) {
+            return null;
+        }
+
+        int nx = buffer.getInt();
+        int ny = buffer.getInt();
+        if (buffer.remaining() != 8L * (nx + ny + (long) nx * ny)) {
+            throw new IllegalArgumentException(
+                    "The size of the PSF library file does not match its grid.");
+        }
+        DoubleBuffer values = buffer.slice().asDoubleBuffer();
+        double[] xval = new double[nx];
+        double[] yval = new double[ny];
+        values.get(xval).get(yval);
+        return new SplinePlane(xval, yval, values.slice());
+    }
+
+    /**
+     * Rounds a number of bytes up to a multiple of eight.
+     */
+    private static int pad(int length) {
+        return (length + 7) & ~7;
+    }
+}
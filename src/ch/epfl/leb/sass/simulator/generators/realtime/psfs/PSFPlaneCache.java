@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the computed axial planes of a PSF.
+ *
+ * A plane may be any object computed for one axial plane, for example the
+ * interpolator of its CDF or tables derived from it.
+ *
+ * Planes are keyed by every parameter that determines them and by the index
+ * of the plane, so PSFs with different optical configurations may share one
+ * cache. When the estimated size of the cached planes exceeds the bound, the
+ * least recently used planes are evicted. The most recently added plane is
+ * always kept, even if it alone exceeds the bound.
+ *
+ * All methods may be called from several threads at once. Planes are
+ * computed outside of the cache, so two threads may compute the same plane;
+ * the first one to be added is kept.
+ */
+public final class PSFPlaneCache {
+
+    /**
+     * The default bound on the size of the cached planes [bytes].
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private final long maxBytes;
+
+    /**
+     * The cached planes, in access order.
+     */
+    private final LinkedHashMap<Key, Entry> planes =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    // Guarded by this
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a cache bounded by {@link #DEFAULT_MAX_BYTES}.
+     */
+    public PSFPlaneCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes The bound on the estimated size of the cached planes
+     *                 [bytes].
+     */
+    public PSFPlaneCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException(
+                    "The size of the cache must be positive.");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a cached plane.
+     *
+     * @param key The key of the plane.
+     * @return The plane, or null if it is not cached.
+     */
+    synchronized Object get(Key key) {
+        Entry entry = planes.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.plane;
+    }
+
+    /**
+     * Adds a plane unless one is already cached for its key.
+     *
+     * @param key The key of the plane.
+     * @param plane The plane.
+     * @param size The estimated size of the plane [bytes].
+     * @return The plane that is cached for the key.
+     */
+    synchronized Object putIfAbsent(Key key, Object plane, long size) {
+        Entry previous = planes.get(key);
+        if (previous != null) {
+            return previous.plane;
+        }
+        planes.put(key, new Entry(plane, size));
+        bytes += size;
+
+        // Evict the least recently used planes, but never the new one.
+        Iterator<Map.Entry<Key, Entry>> it = planes.entrySet().iterator();
+        while (bytes > maxBytes && planes.size() > 1) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            bytes -= eldest.size;
+            evictions++;
+        }
+        return plane;
+    }
+
+    /**
+     * Removes all planes. The counters are not reset.
+     */
+    public synchronized void clear() {
+        planes.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return The bound on the estimated size of the cached planes [bytes].
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return The estimated size of the cached planes [bytes].
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The number of cached planes.
+     */
+    public synchronized int size() {
+        return planes.size();
+    }
+
+    /**
+     * @return The number of lookups that found their plane.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups that did not find their plane.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of planes evicted to respect the bound.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Identifies a plane by the parameters of its PSF model and its index.
+     */
+    static final class Key {
+        private final double[] parameters;
+        private final String name;
+        private final long plane;
+
+        /**
+         * @param parameters Every numerical parameter that determines the
+         *                   planes.
+         * @param name The remaining parameters, e.g. the name of a solver.
+         * @param plane The index of the plane.
+         */
+        Key(double[] parameters, String name, long plane) {
+            this.parameters = parameters;
+            this.name = name;
+            this.plane = plane;
+        }
+
+        double[] getParameters() {
+            return parameters;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getPlane() {
+            return plane;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return plane == other.plane &&
+                   Arrays.equals(parameters, other.parameters) &&
+                   name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Arrays.hashCode(parameters);
+            result = 31 * result + name.hashCode();
+            return 31 * result + (int) (plane ^ (plane >>> 32));
+        }
+    }
+
+    private static final class Entry {
+        final Object plane;
+        final long size;
+
+        Entry(Object plane, long size) {
+            this.plane = plane;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+/**
+ * Pixel-integrated images of one axial plane of a PSF at a grid of sub-pixel
+ * emitter positions.
+ *
+ * An emitter at (eX, eY) lies at the offset (eX - floor(eX), eY - floor(eY))
+ * within its pixel. For offsets that are multiples of 1 / subdivisions, the
+ * probability of a photon hitting each pixel around the emitter is
+ * tabulated; this is the stamp of the offset. The signature of any other
+ * emitter is interpolated bilinearly between the stamps of the four
+ * surrounding offsets.
+ *
+ * The stamps are differences of the CDF of the PSF at the pixel corners. The
+ * corners of all stamps lie on a lattice with a spacing of 1 / subdivisions
+ * pixels, so the CDF is only evaluated once at each point of the lattice.
+ *
+ * Instances are immutable and may be used from several threads.
+ */
+final class PixelStamps {
+
+    private final int subdivisions;
+
+    /**
+     * The displacement of the first tabulated pixel from the emitter's
+     * pixel.
+     */
+    private final int from;
+
+    /**
+     * The number of tabulated pixels along each direction.
+     */
+    private final int size;
+
+    /**
+     * The stamps, indexed as [a][b][dx][dy] for the offset
+     * (a / subdivisions, b / subdivisions) and the pixel displacement
+     * (from + dx, from + dy). Pixels whose corners lie outside of the CDF's
+     * grid are NaN.
+     */
+    private final float[] stamps;
+
+    /**
+     * Computes the stamps of a plane.
+     *
+     * @param cdf The CDF of the plane. Its coordinates are in the units of
+     *            scale.
+     * @param scale The size of a pixel in the units of the CDF.
+     * @param radius The distance from the emitter to the farthest pixel
+     *               that is tabulated [pixels].
+     * @param subdivisions The number of offsets per pixel along each
+     *                     direction.
+     */
+    PixelStamps(SplinePlane cdf, double scale, double radius,
+                int subdivisions) {
+        if (subdivisions < 1) {
+            throw new IllegalArgumentException(
+                    "The number of subdivisions must be positive.");
+        }
+        this.subdivisions = subdivisions;
+
+        // Pixels within the radius of an emitter lie between -radius and
+        // radius + 1 pixels of the emitter's pixel.
+        int reach = (int) Math.ceil(radius);
+        this.from = -reach;
+        this.size = 2 * reach + 2;
+
+        // The pixel with displacement d at offset a / subdivisions has its
+        // corners at lattice points (d - from + 1) * subdivisions - a and
+        // (d - from + 2) * subdivisions - a.
+        int points = (size + 1) * subdivisions + 1;
+        double[] lattice = new double[points];
+        for (int m = 0; m < points; m++) {
+            lattice[m] = (from - 1.5 + (double) m / subdivisions) * scale;
+        }
+        double[] values = new double[points * points];
+        cdf.sample(lattice, lattice, values);
+
+        int n = subdivisions + 1;
+        this.stamps = new float[n * n * size * size];
+        int index = 0;
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                for (int dx = 0; dx < size; dx++) {
+                    int xPlus = (dx + 2) * subdivisions - a;
+                    int xMinus = xPlus - subdivisions;
+                    for (int dy = 0; dy < size; dy++) {
+                        int yPlus = (dy + 2) * subdivisions - b;
+                        int yMinus = yPlus - subdivisions;
+                        stamps[index++] = (float) (
+                                values[xPlus * points + yPlus] +
+                                values[xMinus * points + yMinus] -
+                                values[xPlus * points + yMinus] -
+                                values[xMinus * points + yPlus]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of bytes held by the stamps.
+     */
+    long getBytes() {
+        return 4L * stamps.length;
+    }
+
+    /**
+     * Interpolates the stamps of an emitter at one pixel.
+     *
+     * @param pixelX The pixel's x-position.
+     * @param pixelY The pixel's y-position.
+     * @param eX The emitter's x-position.
+     * @param eY The emitter's y-position.
+     * @return The probability of a photon hitting the pixel, or NaN if the
+     *         pixel is not tabulated.
+     */
+    double value(int pixelX, int pixelY, double eX, double eY) {
+        double floorX = Math.floor(eX);
+        double floorY = Math.floor(eY);
+        int dx = (int) (pixelX - floorX) - from;
+        int dy = (int) (pixelY - floorY) - from;
+        if (dx < 0 || dx >= size || dy < 0 || dy >= size) {
+            return Double.NaN;
+        }
+
+        double u = (eX - floorX) * subdivisions;
+        double v = (eY - floorY) * subdivisions;
+        int a = Math.min((int) u, subdivisions - 1);
+        int b = Math.min((int) v, subdivisions - 1);
+        double wa = u - a;
+        double wb = v - b;
+
+        int stampSize = size * size;
+        int n = subdivisions + 1;
+        int pixel = dx * size + dy;
+        int i00 = (a * n + b) * stampSize + pixel;
+        int i01 = i00 + stampSize;
+        int i10 = i00 + n * stampSize;
+        int i11 = i10 + stampSize;
+        return (1 - wa) * ((1 - wb) * stamps[i00] + wb * stamps[i01]) +
+               wa * ((1 - wb) * stamps[i10] + wb * stamps[i11]);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import org.apache.commons.math3.analysis.BivariateFunction;
+import org.apache.commons.math3.analysis.interpolation.AkimaSplineInterpolator;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+import org.apache.commons.math3.exception.OutOfRangeException;
+
+/**
+ * A piecewise bicubic spline through the values of a function on a grid.
+ *
+ * The spline through the 5 x 5 grid points around a point is computed with
+ * Akima splines, first along x and then along y, exactly as in
+ * {@link org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolatingFunction}.
+ * The values are held in a buffer, which may be a memory-mapped file (see
+ * {@link PSFLibrary}). The buffer is only read with absolute gets, so the
+ * plane may be used from several threads at once.
+ */
+final class SplinePlane implements BivariateFunction {
+    private static final int OFFSET = 2;
+    private static final int COUNT = OFFSET + 3;
+
+    private final double[] xval;
+    private final double[] yval;
+
+    /**
+     * The values on the grid, indexed as [x][y].
+     */
+    private final DoubleBuffer fval;
+
+    /**
+     * @param xval The x-coordinates of the grid, in increasing order.
+     * @param yval The y-coordinates of the grid, in increasing order.
+     * @param fval The values on the grid; the value at (xval[i], yval[j])
+     *             is at index i * yval.length + j.
+     */
+    SplinePlane(double[] xval, double[] yval, DoubleBuffer fval) {
+        if (xval.length < COUNT || yval.length < COUNT) {
+            throw new IllegalArgumentException(
+                    "The grid must have at least " + COUNT + " points along "
+                    + "each direction.");
+        }
+        if (fval.remaining() != xval.length * yval.length) {
+            throw new IllegalArgumentException(
+                    "The number of values does not match the grid.");
+        }
+        this.xval = xval;
+        this.yval = yval;
+        this.fval = fval;
+    }
+
+    /**
+     * Creates a spline through values held on the heap.
+     *
+     * @param xval The x-coordinates of the grid, in increasing order.
+     * @param yval The y-coordinates of the grid, in increasing order.
+     * @param fval The values on the grid, indexed as fval[x][y].
+     * @return The spline.
+     */
+    static SplinePlane of(double[] xval, double[] yval, double[][] fval) {
+        double[] values = new double[xval.length * yval.length];
+        for (int i = 0; i < fval.length; i++) {
+            System.arraycopy(fval[i], 0, values, i * yval.length,
+                             yval.length);
+        }
+        return new SplinePlane(xval, yval, DoubleBuffer.wrap(values));
+    }
+
+    /**
+     * @return The x-coordinates of the grid.
+     */
+    double[] getX() {
+        return xval;
+    }
+
+    /**
+     * @return The y-coordinates of the grid.
+     */
+    double[] getY() {
+        return yval;
+    }
+
+    /**
+     * @return A read-only view of the values on the grid, indexed as [x][y].
+     */
+    DoubleBuffer getValues() {
+        return fval.asReadOnlyBuffer();
+    }
+
+    @Override
+    public double value(double x, double y) {
+        AkimaSplineInterpolator interpolator = new AkimaSplineInterpolator();
+        int i = searchIndex(x, xval);
+        int j = searchIndex(y, yval);
+
+        double[] xArray = new double[COUNT];
+        double[] yArray = new double[COUNT];
+        double[] zArray = new double[COUNT];
+        double[] interpArray = new double[COUNT];
+        for (int index = 0; index < COUNT; index++) {
+            xArray[index] = xval[i + index];
+            yArray[index] = yval[j + index];
+        }
+
+        for (int zIndex = 0; zIndex < COUNT; zIndex++) {
+            for (int index = 0; index < COUNT; index++) {
+                zArray[index] = fval.get((i + index) * yval.length
+                                         + j + zIndex);
+            }
+            PolynomialSplineFunction spline =
+                    interpolator.interpolate(xArray, zArray);
+            interpArray[zIndex] = spline.value(x);
+        }
+
+        PolynomialSplineFunction spline =
+                interpolator.interpolate(yArray, interpArray);
+        return spline.value(y);
+    }
+
+    /**
+     * Evaluates the spline on a lattice of points.
+     *
+     * The result equals {@link #value(double, double)} at every point, but
+     * the one-dimensional splines are shared by all points that lie between
+     * the same grid points, which is much faster on fine lattices.
+     *
+     * @param xs The x-coordinates of the lattice, in increasing order.
+     * @param ys The y-coordinates of the lattice, in increasing order.
+     * @param result Receives the value at (xs[m], ys[k]) at index
+     *               m * ys.length + k, or NaN if the point lies outside of
+     *               the grid.
+     */
+    void sample(double[] xs, double[] ys, double[] result) {
+        AkimaSplineInterpolator interpolator = new AkimaSplineInterpolator();
+
+        // The grid points of each y-coordinate
+        int[] js = new int[ys.length];
+        int fromColumn = Integer.MAX_VALUE;
+        int toColumn = Integer.MIN_VALUE;
+        for (int k = 0; k < ys.length; k++) {
+            js[k] = searchIndexOrMinusOne(ys[k], yval);
+            if (js[k] >= 0) {
+                fromColumn = Math.min(fromColumn, js[k]);
+                toColumn = Math.max(toColumn, js[k] + COUNT);
+            }
+        }
+
+        double[] xArray = new double[COUNT];
+        double[] zArray = new double[COUNT];
+        double[] yArray = new double[COUNT];
+        double[] interpArray = new double[COUNT];
+        PolynomialSplineFunction[] columns =
+                new PolynomialSplineFunction[yval.length];
+        double[] columnValues = new double[yval.length];
+        int currentI = -1;
+        for (int m = 0; m < xs.length; m++) {
+            int i = searchIndexOrMinusOne(xs[m], xval);
+            if (i < 0 || fromColumn > toColumn) {
+                Arrays.fill(result, m * ys.length, (m + 1) * ys.length,
+                            Double.NaN);
+                continue;
+            }
+
+            // The splines along x only depend on the grid points.
+            if (i != currentI) {
+                for (int index = 0; index < COUNT; index++) {
+                    xArray[index] = xval[i + index];
+                }
+                for (int c = fromColumn; c < toColumn; c++) {
+                    for (int index = 0; index < COUNT; index++) {
+                        zArray[index] = fval.get((i + index) * yval.length
+                                                 + c);
+                    }
+                    columns[c] = interpolator.interpolate(xArray, zArray);
+                }
+                currentI = i;
+            }
+            for (int c = fromColumn; c < toColumn; c++) {
+                columnValues[c] = columns[c].value(xs[m]);
+            }
+
+            // The spline along y only depends on its grid points.
+            PolynomialSplineFunction spline = null;
+            int currentJ = -1;
+            for (int k = 0; k < ys.length; k++) {
+                int j = js[k];
+                if (j < 0) {
+                    result[m * ys.length + k] = Double.NaN;
+                    continue;
+                }
+                if (j != currentJ) {
+                    for (int index = 0; index < COUNT; index++) {
+                        yArray[index] = yval[j + index];
+                        interpArray[index] = columnValues[j + index];
+                    }
+                    spline = interpolator.interpolate(yArray, interpArray);
+                    currentJ = j;
+                }
+                result[m * ys.length + k] = spline.value(ys[k]);
+            }
+        }
+    }
+
+    /**
+     * Finds the first of the grid points used to interpolate at c.
+     */
+    private static int searchIndex(double c, double[] val) {
+        int r = searchIndexOrMinusOne(c, val);
+        if (r < 0) {
+            throw new OutOfRangeException(c, val[0], val[val.length - 1]);
+        }
+        return r;
+    }
+
+    /**
+     * Finds the first of the grid points used to interpolate at c, or
+     * returns -1 if c lies outside of the grid.
+     */
+    private static int searchIndexOrMinusOne(double c, double[] val) {
+        int r = Arrays.binarySearch(val, c);
+        if (r == -1 || r == -val.length - 1 || Double.isNaN(c)) {
+            return -1;
+        }
+        if (r < 0) {
+            r = -r - OFFSET - 1;
+        } else {
+            r -= OFFSET;
+        }
+        if (r < 0) {
+            r = 0;
+        }
+        if (r + COUNT >= val.length) {
+            r = val.length - COUNT;
+        }
+        return r;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.components.Camera;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CameraNoise class.
+ */
+public class CameraNoiseTest {
+
+    private static final int NX = 50;
+    private static final int NY = 70;
+
+    private Camera buildCamera(int emGain, double readoutNoise) {
+        Camera.Builder builder = new Camera.Builder();
+        builder.aduPerElectron(2.2).baseline(100).darkCurrent(0)
+               .emGain(emGain).pixelSize(6.5).quantumEfficiency(0.7)
+               .readoutNoise(readoutNoise).thermalNoise(0.05)
+               .nX(NX).nY(NY);
+        return builder.build();
+    }
+
+    private float[] uniformFrame(float value) {
+        float[] pixels = new float[NX * NY];
+        Arrays.fill(pixels, value);
+        return pixels;
+    }
+
+    @After
+    public void tearDown() {
+        RNG.setSeed(1);
+    }
+
+    /**
+     * Test of addNoise method, of class CameraNoise.
+     *
+     * The noise must not depend on the number of threads.
+     */
+    @Test
+    public void testAddNoiseIndependentOfThreads() {
+        System.out.println("addNoiseIndependentOfThreads");
+        Camera camera = buildCamera(100, 1.6);
+        RNG.setSeed(7);
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(4);
+        try {
+            float[] expected = uniformFrame(20.0f);
+            new CameraNoise(camera, single).addNoise(expected);
+            float[] result = uniformFrame(20.0f);
+            new CameraNoise(camera, several).addNoise(result);
+            assertArrayEquals(expected, result, 0.0f);
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+
+    /**
+     * Test of addNoise method, of class CameraNoise.
+     *
+     * Different seeds produce different noise.
+     */
+    @Test
+    public void testAddNoiseDependsOnSeed() {
+        System.out.println("addNoiseDependsOnSeed");
+        Camera camera = buildCamera(0, 1.6);
+
+        RNG.setSeed(7);
+        float[] first = uniformFrame(20.0f);
+        new CameraNoise(camera).addNoise(first);
+        RNG.setSeed(8);
+        float[] second = uniformFrame(20.0f);
+        new CameraNoise(camera).addNoise(second);
+
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    /**
+     * Test of addNoise method, of class CameraNoise.
+     *
+     * Without gain and dark noise the mean follows the Poisson mean.
+     */
+    @Test
+    public void testAddNoiseMean() {
+        System.out.println("addNoiseMean");
+        Camera camera = buildCamera(0, 0.0);
+        CameraNoise instance = new CameraNoise(camera);
+        float[] pixels = uniformFrame(100.0f);
+        instance.addNoise(pixels);
+
+        double sum = 0;
+        for (float value: pixels) {
+            sum += value;
+        }
+        // Standard error of the mean is 10 / sqrt(3500) = 0.17
+        assertEquals(100.0, sum / pixels.length, 1.0);
+    }
+
+    /**
+     * Test of addNoise method, of class CameraNoise, with a background.
+     *
+     * Adding the background in the noise stage gives the same frame as
+     * adding it beforehand.
+     */
+    @Test
+    public void testAddNoiseWithBackground() {
+        System.out.println("addNoiseWithBackground");
+        Camera camera = buildCamera(100, 1.6);
+        float[] background = new float[NX * NY];
+        for (int i = 0; i < background.length; i++) {
+            background[i] = 5.0f + (i % 13) * 0.7f;
+        }
+
+        RNG.setSeed(7);
+        float[] expected = uniformFrame(20.0f);
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] += background[i];
+        }
+        new CameraNoise(camera).addNoise(expected);
+
+        RNG.setSeed(7);
+        float[] result = uniformFrame(20.0f);
+        new CameraNoise(camera).addNoise(result, background);
+        assertArrayEquals(expected, result, 0.0f);
+    }
+
+    /**
+     * Test of addNoise method, of class CameraNoise.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testAddNoiseWrongSize() {
+        System.out.println("addNoiseWrongSize");
+        CameraNoise instance = new CameraNoise(buildCamera(0, 1.6));
+        instance.addNoise(new float[NX * NY + 1]);
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.psfs.Gaussian2D;
+import java.util.ArrayList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the EventDrivenKinetics class.
+ */
+public class EventDrivenKineticsTest {
+
+    private static final int NUM_FLUOROPHORES = 5000;
+
+    /**
+     * Creates a set of fluorophores with a fast blinking, bleaching
+     * three-state model.
+     */
+    private ArrayList<Fluorophore> createFluorophores() {
+        double[][][] rates = {
+            {{0.0}, {0.5}, {0.05}},
+            {{0.2}, {0.0}, {0.0}},
+            {{0.0}, {0.0}, {0.0}}
+        };
+        StateSystem stateSystem = new StateSystem(3, rates);
+        Gaussian2D.Builder psfBuilder = new Gaussian2D.Builder();
+        psfBuilder.FWHM(3.0);
+
+        ArrayList<Fluorophore> result = new ArrayList<>();
+        for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+            result.add(new Fluorophore(
+                    psfBuilder, 1000, stateSystem, 1, i % 64, i / 64, 0));
+        }
+        return result;
+    }
+
+    /**
+     * Test of advance method, of class EventDrivenKinetics.
+     *
+     * The photons must agree on average with the frame-by-frame kinetics.
+     */
+    @Test
+    public void testAdvanceMatchesFluorophoreKinetics() {
+        System.out.println("advanceMatchesFluorophoreKinetics");
+        KineticsEngine expected =
+                new FluorophoreKinetics(createFluorophores());
+        KineticsEngine instance =
+                new EventDrivenKinetics(createFluorophores());
+
+        double expTotal = 0;
+        double total = 0;
+        for (int frame = 0; frame < 10; frame++) {
+            for (double p: expected.advance()) {
+                expTotal += p;
+            }
+            for (double p: instance.advance()) {
+                total += p;
+            }
+        }
+        assertEquals(expTotal, total, 0.05 * expTotal);
+    }
+
+    /**
+     * Test of getOnCount and getEmitting methods, of class
+     * EventDrivenKinetics.
+     */
+    @Test
+    public void testActiveFluorophores() {
+        System.out.println("activeFluorophores");
+        ArrayList<Fluorophore> fluorophores = createFluorophores();
+        EventDrivenKinetics instance = new EventDrivenKinetics(fluorophores);
+        assertEquals(0, instance.getOnCount());
+
+        for (int frame = 0; frame < 10; frame++) {
+            double[] photons = instance.advance();
+
+            int expOnCount = 0;
+            for (Fluorophore f: fluorophores) {
+                if (f.isOn()) {
+                    expOnCount++;
+                }
+            }
+            assertEquals(expOnCount, instance.getOnCount());
+
+            // Every fluorophore that emitted light is listed exactly once.
+            boolean[] listed = new boolean[NUM_FLUOROPHORES];
+            int[] emitting = instance.getEmitting();
+            for (int i = 0; i < instance.getNumEmitting(); i++) {
+                assertFalse(listed[emitting[i]]);
+                listed[emitting[i]] = true;
+            }
+            for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+                assertTrue(photons[i] >= 0.0 && photons[i] <= 1000.0);
+                assertEquals(photons[i] > 0.0, listed[i]);
+            }
+        }
+    }
+
+    /**
+     * Test of setLaserPower method, of class EventDrivenKinetics.
+     */
+    @Test
+    public void testSetLaserPower() {
+        System.out.println("setLaserPower");
+        double[][][] rates = {
+            {{0.0}, {0.5}, {0.0}},
+            {{0.0, 1.0}, {0.0}, {0.0}},
+            {{0.0}, {0.0}, {0.0}}
+        };
+        StateSystem stateSystem = new StateSystem(3, rates);
+        Gaussian2D.Builder psfBuilder = new Gaussian2D.Builder();
+        psfBuilder.FWHM(3.0);
+        ArrayList<Fluorophore> fluorophores = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            fluorophores.add(new Fluorophore(
+                    psfBuilder, 1000, stateSystem, 1, i, 0, 0));
+        }
+        EventDrivenKinetics instance = new EventDrivenKinetics(fluorophores);
+
+        // Without light the fluorophores are never activated.
+        instance.setLaserPower(0.0);
+        for (int frame = 0; frame < 10; frame++) {
+            instance.advance();
+            assertEquals(0, instance.getNumEmitting());
+        }
+
+        // The pending transitions are redrawn when the power is raised.
+        instance.setLaserPower(100.0);
+        instance.advance();
+        assertTrue(instance.getNumEmitting() > 90);
+    }
+
+}
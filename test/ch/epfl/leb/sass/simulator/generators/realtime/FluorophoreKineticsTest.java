@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.psfs.Gaussian2D;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the FluorophoreKinetics class.
+ */
+public class FluorophoreKineticsTest {
+
+    private static final int NUM_FLUOROPHORES = 5000;
+
+    /**
+     * Creates a set of fluorophores with a fast blinking, bleaching
+     * three-state model.
+     */
+    private ArrayList<Fluorophore> createFluorophores() {
+        double[][][] rates = {
+            {{0.0}, {0.5}, {0.05}},
+            {{0.2}, {0.0}, {0.0}},
+            {{0.0}, {0.0}, {0.0}}
+        };
+        StateSystem stateSystem = new StateSystem(3, rates);
+        Gaussian2D.Builder psfBuilder = new Gaussian2D.Builder();
+        psfBuilder.FWHM(3.0);
+
+        ArrayList<Fluorophore> result = new ArrayList<>();
+        for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+            result.add(new Fluorophore(
+                    psfBuilder, 1000, stateSystem, 1, i % 64, i / 64, 0));
+        }
+        return result;
+    }
+
+    /**
+     * Test of advance method, of class FluorophoreKinetics.
+     *
+     * The photons of each fluorophore must not depend on the number of
+     * threads.
+     */
+    @Test
+    public void testAdvanceIndependentOfThreads() {
+        System.out.println("advanceIndependentOfThreads");
+
+        // Both sets of fluorophores receive the same IDs and therefore the
+        // same random number streams.
+        int firstId = Emitter.numberOfEmitters;
+        ArrayList<Fluorophore> first = createFluorophores();
+        Emitter.numberOfEmitters = firstId;
+        ArrayList<Fluorophore> second = createFluorophores();
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(4);
+        try {
+            FluorophoreKinetics expected =
+                    new FluorophoreKinetics(first, single);
+            FluorophoreKinetics result =
+                    new FluorophoreKinetics(second, several);
+            double total = 0;
+            for (int frame = 0; frame < 10; frame++) {
+                double[] expPhotons = expected.advance();
+                double[] photons = result.advance();
+                assertArrayEquals(expPhotons, photons, 0.0);
+                for (double p: photons) {
+                    total += p;
+                }
+            }
+            assertTrue(total > 0);
+            for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+                assertEquals(first.get(i).isOn(), second.get(i).isOn());
+            }
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+
+    /**
+     * Test of getOnCount and getEmitting methods, of class FluorophoreKinetics.
+     */
+    @Test
+    public void testActiveFluorophores() {
+        System.out.println("activeFluorophores");
+        ArrayList<Fluorophore> fluorophores = createFluorophores();
+        FluorophoreKinetics instance = new FluorophoreKinetics(fluorophores);
+        assertEquals(0, instance.getOnCount());
+
+        for (int frame = 0; frame < 10; frame++) {
+            double[] photons = instance.advance();
+
+            int expOnCount = 0;
+            for (Fluorophore f: fluorophores) {
+                if (f.isOn()) {
+                    expOnCount++;
+                }
+            }
+            assertEquals(expOnCount, instance.getOnCount());
+
+            int[] emitting = instance.getEmitting();
+            int ctr = 0;
+            for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+                if (photons[i] > 0.0) {
+                    assertEquals(i, emitting[ctr]);
+                    ctr++;
+                }
+            }
+            assertEquals(ctr, instance.getNumEmitting());
+        }
+    }
+
+    /**
+     * Test of advance method, of class FluorophoreKinetics.
+     */
+    @Test
+    public void testAdvanceBounds() {
+        System.out.println("advanceBounds");
+        ArrayList<Fluorophore> fluorophores = createFluorophores();
+        FluorophoreKinetics instance = new FluorophoreKinetics(fluorophores);
+        assertEquals(NUM_FLUOROPHORES, instance.getNumFluorophores());
+
+        double[] photons = instance.advance();
+        assertEquals(NUM_FLUOROPHORES, photons.length);
+        for (double p: photons) {
+            // A fluorophore emits at most its signal during one frame.
+            assertTrue(p >= 0.0 && p <= 1000.0);
+        }
+    }
+
+}
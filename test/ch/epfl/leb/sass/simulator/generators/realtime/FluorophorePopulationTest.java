@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.psfs.Gaussian2D;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the FluorophorePopulation class.
+ */
+public class FluorophorePopulationTest {
+
+    private static final int NUM_FLUOROPHORES = 5000;
+    private static final int NX = 64;
+    private static final int NY = 80;
+
+    /**
+     * Creates a population with a fast blinking, bleaching three-state model.
+     */
+    private FluorophorePopulation createPopulation(ForkJoinPool pool) {
+        double[][][] rates = {
+            {{0.0}, {0.5}, {0.05}},
+            {{0.2}, {0.0}, {0.0}},
+            {{0.0}, {0.0}, {0.0}}
+        };
+        StateSystem stateSystem = new StateSystem(3, rates);
+        stateSystem.recalculate_lifetimes(1.0);
+        Gaussian2D.Builder psfBuilder = new Gaussian2D.Builder();
+        psfBuilder.FWHM(3.0);
+
+        FluorophorePopulation result = new FluorophorePopulation(
+                psfBuilder, stateSystem, NX, NY, pool);
+        for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+            result.add(i % NX, (i / NX) % NY, 0, 1000, 1);
+        }
+        return result;
+    }
+
+    /**
+     * Test of add method, of class FluorophorePopulation.
+     */
+    @Test
+    public void testAdd() {
+        System.out.println("add");
+        FluorophorePopulation instance = createPopulation(
+                ForkJoinPool.commonPool());
+        assertEquals(NUM_FLUOROPHORES, instance.getNumFluorophores());
+        assertEquals(0, instance.getOnCount());
+
+        int index = instance.add(10.25, 20.5, 1.5, 500, 0);
+        assertEquals(NUM_FLUOROPHORES, index);
+        assertEquals(NUM_FLUOROPHORES + 1, instance.getNumFluorophores());
+        assertEquals(10.25, instance.getX(index), 0.0);
+        assertEquals(20.5, instance.getY(index), 0.0);
+        assertEquals(1.5, instance.getZ(index), 0.0);
+        assertEquals(500, instance.getSignal(index), 0.0);
+        assertEquals(0, instance.getState(index));
+        assertEquals(Emitter.numberOfEmitters, instance.getId(index));
+        assertTrue(instance.isOn(index));
+        assertEquals(1, instance.getOnCount());
+    }
+
+    /**
+     * Test of add method, of class FluorophorePopulation, with an invalid
+     * starting state.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddInvalidState() {
+        System.out.println("addInvalidState");
+        FluorophorePopulation instance = createPopulation(
+                ForkJoinPool.commonPool());
+        instance.add(0, 0, 0, 1000, 3);
+    }
+
+    /**
+     * Test of advance method, of class FluorophorePopulation.
+     *
+     * The photons of each fluorophore must not depend on the number of
+     * threads.
+     */
+    @Test
+    public void testAdvanceIndependentOfThreads() {
+        System.out.println("advanceIndependentOfThreads");
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(4);
+        try {
+            // Both populations receive the same IDs and therefore the same
+            // random number streams.
+            int firstId = Emitter.numberOfEmitters;
+            FluorophorePopulation expected = createPopulation(single);
+            Emitter.numberOfEmitters = firstId;
+            FluorophorePopulation result = createPopulation(several);
+
+            double total = 0;
+            for (int frame = 0; frame < 10; frame++) {
+                double[] expPhotons = expected.advance();
+                double[] photons = result.advance();
+                assertArrayEquals(expPhotons, photons, 0.0);
+                for (double p: photons) {
+                    assertTrue(p >= 0.0 && p <= 1000.0);
+                    total += p;
+                }
+            }
+            assertTrue(total > 0);
+            for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+                assertEquals(expected.getState(i), result.getState(i));
+                assertEquals(expected.getTimeElapsed(i),
+                             result.getTimeElapsed(i), 0.0);
+            }
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+
+    /**
+     * Test of getOnCount and getEmitting methods, of class
+     * FluorophorePopulation.
+     */
+    @Test
+    public void testActiveFluorophores() {
+        System.out.println("activeFluorophores");
+        FluorophorePopulation instance = createPopulation(
+                ForkJoinPool.commonPool());
+
+        for (int frame = 0; frame < 10; frame++) {
+            double[] photons = instance.advance();
+
+            int expOnCount = 0;
+            for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+                if (instance.isOn(i)) {
+                    expOnCount++;
+                }
+            }
+            assertEquals(expOnCount, instance.getOnCount());
+
+            int[] emitting = instance.getEmitting();
+            int ctr = 0;
+            for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+                if (photons[i] > 0.0) {
+                    assertEquals(i, emitting[ctr]);
+                    ctr++;
+                }
+            }
+            assertEquals(ctr, instance.getNumEmitting());
+        }
+    }
+
+    /**
+     * Test of draw method, of class FluorophorePopulation.
+     *
+     * A fluorophore inside the frame is drawn like a single Fluorophore;
+     * pixels outside of the frame are clipped.
+     */
+    @Test
+    public void testDraw() {
+        System.out.println("draw");
+        FluorophorePopulation instance = createPopulation(
+                ForkJoinPool.commonPool());
+        int center = instance.add(32, 40, 0, 1000, 0);
+        int corner = instance.add(0, 0, 0, 1000, 0);
+
+        Gaussian2D.Builder psfBuilder = new Gaussian2D.Builder();
+        psfBuilder.FWHM(3.0);
+        Fluorophore single = new Fluorophore(
+                psfBuilder, 1000,
+                new StateSystem(2, new double[][][] {{{0}, {0}}, {{0}, {0}}}),
+                0, 32, 40, 0);
+        float[] expected = new float[NX * NY];
+        single.draw(expected, NX, NY, 100.0);
+        float[] pixels = new float[NX * NY];
+        instance.draw(center, pixels, NX, NY, 100.0);
+        assertArrayEquals(expected, pixels, 1e-4f);
+
+        // Drawing again reuses the footprint.
+        single.draw(expected, NX, NY, 100.0);
+        instance.draw(center, pixels, NX, NY, 100.0);
+        assertArrayEquals(expected, pixels, 1e-4f);
+        double full = 0;
+        for (float p: pixels) {
+            full += p / 2;
+        }
+
+        // A fluorophore at the center of the corner pixel is cut in x and y.
+        pixels = new float[NX * NY];
+        instance.draw(corner, pixels, NX, NY, 100.0);
+        double sum = 0;
+        for (float p: pixels) {
+            sum += p;
+        }
+        assertTrue(sum > 0.3 * full && sum < 0.5 * full);
+    }
+
+    /**
+     * Test of draw method, of class FluorophorePopulation, with a frame that
+     * does not match the camera.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDrawWrongFrameSize() {
+        System.out.println("drawWrongFrameSize");
+        FluorophorePopulation instance = createPopulation(
+                ForkJoinPool.commonPool());
+        instance.draw(0, new float[NX * NX], NX, NX, 100.0);
+    }
+
+    /**
+     * Test of draw method, of class FluorophorePopulation, when the
+     * footprints of many fluorophores are packed.
+     */
+    @Test
+    public void testDrawAll() {
+        System.out.println("drawAll");
+        FluorophorePopulation instance = createPopulation(
+                ForkJoinPool.commonPool());
+        float[] expected = new float[NX * NY];
+        for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+            instance.draw(i, expected, NX, NY, 1.0);
+        }
+
+        // The packed footprints survive the bleaching of fluorophores.
+        for (int frame = 0; frame < 20; frame++) {
+            instance.advance();
+        }
+        float[] pixels = new float[NX * NY];
+        for (int i = 0; i < NUM_FLUOROPHORES; i++) {
+            instance.draw(i, pixels, NX, NY, 1.0);
+        }
+        assertArrayEquals(expected, pixels, 1e-3f);
+    }
+
+}
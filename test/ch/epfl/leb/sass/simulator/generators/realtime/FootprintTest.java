@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.psfs.Gaussian2D;
+import ch.epfl.leb.sass.simulator.generators.realtime.psfs.PSF;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the Footprint class.
+ */
+public class FootprintTest {
+    private static final int NX = 20;
+    private static final int NY = 16;
+
+    private ArrayList<Pixel> pixels;
+    private PSF psf;
+
+    @Before
+    public void setUp() {
+        Gaussian2D.Builder builder = new Gaussian2D.Builder();
+        builder.FWHM(3.0).eX(1.2).eY(14.7).eZ(0);
+        psf = builder.build();
+        pixels = Emitter.getPixelsWithinRadius(
+                new Point2D.Double(1.2, 14.7), psf.getRadius());
+        psf.generateSignature(pixels);
+    }
+
+    /**
+     * Draws the list of pixels the way emitters used to.
+     */
+    private float[] drawPixels(double brightness) {
+        float[] result = new float[NX * NY];
+        for (Pixel p: pixels) {
+            if (p.x >= 0 && p.x < NX && p.y >= 0 && p.y < NY) {
+                result[p.x + p.y * NX] += brightness * p.getSignature();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Test of fromPixels method, of class Footprint.
+     */
+    @Test
+    public void testFromPixels() {
+        System.out.println("fromPixels");
+        Footprint instance = Footprint.fromPixels(pixels);
+        double sum = 0;
+        for (Pixel p: pixels) {
+            assertEquals(p.getSignature(), instance.getWeight(p.x, p.y), 1e-7);
+            sum += p.getSignature();
+        }
+        assertEquals(sum, instance.getSum(), 1e-5);
+        assertEquals(0.0, instance.getWeight(100, 100), 0.0);
+        assertEquals(instance.getWidth() * instance.getHeight(),
+                     instance.getPackedLength()
+                         - Footprint.PACKED_HEADER_LENGTH);
+    }
+
+    /**
+     * Test of addTo method, of class Footprint.
+     *
+     * The footprint lies partly outside of the image.
+     */
+    @Test
+    public void testAddTo() {
+        System.out.println("addTo");
+        Footprint instance = Footprint.fromPSF(psf, 1.2, 14.7);
+        assertTrue(instance.getX0() < 0);
+        assertTrue(instance.getY0() + instance.getHeight() > NY);
+
+        float[] expected = drawPixels(1000.0);
+        float[] result = new float[NX * NY];
+        instance.addTo(result, NX, NY, 1000.0);
+        assertArrayEquals(expected, result, 1e-3f);
+
+        float[][] result2D = new float[NX][NY];
+        instance.addTo(result2D, 1000.0);
+        for (int x = 0; x < NX; x++) {
+            for (int y = 0; y < NY; y++) {
+                assertEquals(expected[x + y * NX], result2D[x][y], 1e-3f);
+            }
+        }
+    }
+
+    /**
+     * Test of clip method, of class Footprint.
+     */
+    @Test
+    public void testClip() {
+        System.out.println("clip");
+        Footprint instance = Footprint.fromPixels(pixels);
+        Footprint clipped = instance.clip(NX, NY);
+        assertEquals(0, clipped.getX0());
+        assertEquals(NY, clipped.getY0() + clipped.getHeight());
+        assertTrue(clipped.getSum() < instance.getSum());
+
+        float[] expected = new float[NX * NY];
+        instance.addTo(expected, NX, NY, 1.0);
+        float[] result = new float[NX * NY];
+        clipped.addTo(result, NX, NY, 1.0);
+        assertArrayEquals(expected, result, 0.0f);
+
+        // A footprint inside the image is not copied
+        assertSame(clipped, clipped.clip(NX, NY));
+
+        // A footprint outside the image is empty
+        assertEquals(0, instance.clip(NX, 5).getPackedLength()
+                            - Footprint.PACKED_HEADER_LENGTH);
+    }
+
+    /**
+     * Test of pack and addPacked methods, of class Footprint.
+     */
+    @Test
+    public void testPacked() {
+        System.out.println("packed");
+        Footprint instance = Footprint.fromPixels(pixels);
+        float[] packed = new float[3 + instance.getPackedLength()];
+        instance.pack(packed, 3);
+        assertEquals(instance.getPackedLength(),
+                     Footprint.getPackedLength(packed, 3));
+
+        float[] expected = drawPixels(50.0);
+        float[] result = new float[NX * NY];
+        Footprint.addPacked(packed, 3, result, NX, NY, 50.0);
+        assertArrayEquals(expected, result, 1e-4f);
+    }
+
+    /**
+     * Test of the constructor of class Footprint.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongNumberOfWeights() {
+        System.out.println("wrongNumberOfWeights");
+        new Footprint(0, 0, 3, 2, new float[5]);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the FrameBufferPool class.
+ */
+public class FrameBufferPoolTest {
+    
+    /**
+     * Released accumulation buffers are reused and cleared.
+     */
+    @Test
+    public void testFloatBufferReuse() {
+        FrameBufferPool pool = new FrameBufferPool(4, 3);
+        float[] buffer = pool.acquireFloatBuffer();
+        assertEquals(12, buffer.length);
+        
+        buffer[5] = 42.0f;
+        pool.releaseFloatBuffer(buffer);
+        
+        float[] reused = pool.acquireFloatBuffer();
+        assertSame(buffer, reused);
+        assertEquals(0.0f, reused[5], 0.0f);
+        
+        // The pool is now empty, so a new buffer must be created.
+        assertNotSame(reused, pool.acquireFloatBuffer());
+    }
+    
+    /**
+     * Released output buffers are reused.
+     */
+    @Test
+    public void testShortBufferReuse() {
+        FrameBufferPool pool = new FrameBufferPool(4, 3);
+        short[] buffer = pool.acquireShortBuffer();
+        assertEquals(12, buffer.length);
+        
+        pool.releaseShortBuffer(buffer);
+        assertSame(buffer, pool.acquireShortBuffer());
+    }
+    
+    /**
+     * No more than the capacity of idle buffers are retained.
+     */
+    @Test
+    public void testCapacity() {
+        FrameBufferPool pool = new FrameBufferPool(2, 2, 1);
+        short[] first = pool.acquireShortBuffer();
+        short[] second = pool.acquireShortBuffer();
+        pool.releaseShortBuffer(first);
+        pool.releaseShortBuffer(second);
+        
+        assertSame(first, pool.acquireShortBuffer());
+        short[] third = pool.acquireShortBuffer();
+        assertNotSame(first, third);
+        assertNotSame(second, third);
+    }
+    
+    /**
+     * Buffers of the wrong size cannot be released into the pool.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleaseWrongSize() {
+        FrameBufferPool pool = new FrameBufferPool(4, 3);
+        pool.releaseFloatBuffer(new float[10]);
+    }
+}
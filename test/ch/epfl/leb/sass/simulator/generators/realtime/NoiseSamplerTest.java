@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the NoiseSampler class.
+ */
+public class NoiseSamplerTest {
+
+    private static final int SAMPLES = 200000;
+
+    /**
+     * Checks the mean and the variance of Poisson deviates on both sides of
+     * the switch from inversion to PTRS.
+     */
+    @Test
+    public void testNextPoisson() {
+        System.out.println("nextPoisson");
+        NoiseSampler instance = new NoiseSampler(42);
+        double[] means = {0.05, 0.7, 3.0, 9.99, 10.0, 37.5, 1000.0};
+        for (double mean: means) {
+            double sum = 0;
+            double sumSq = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                int k = instance.nextPoisson(mean);
+                assertTrue(k >= 0);
+                sum += k;
+                sumSq += (double) k * k;
+            }
+            double sampleMean = sum / SAMPLES;
+            double sampleVar = sumSq / SAMPLES - sampleMean * sampleMean;
+            // Five standard errors of the mean and of the variance
+            assertEquals(mean, sampleMean, 5 * Math.sqrt(mean / SAMPLES));
+            assertEquals(mean, sampleVar,
+                         5 * Math.sqrt((mean + 2 * mean * mean) / SAMPLES));
+        }
+        assertEquals(0, instance.nextPoisson(0.0));
+        assertEquals(0, instance.nextPoisson(-1.0));
+    }
+
+    /**
+     * Checks the mean and the variance of Gamma deviates with the shapes of
+     * the EM gain register, including the shape of an empty pixel.
+     */
+    @Test
+    public void testNextGamma() {
+        System.out.println("nextGamma");
+        NoiseSampler instance = new NoiseSampler(42);
+        double scale = 100.0;
+        double[] shapes = {0.01, 0.5, 1.01, 20.01};
+        for (double shape: shapes) {
+            double sum = 0;
+            double sumSq = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                double x = instance.nextGamma(shape, scale) / scale;
+                assertTrue(x >= 0);
+                sum += x;
+                sumSq += x * x;
+            }
+            double sampleMean = sum / SAMPLES;
+            double sampleVar = sumSq / SAMPLES - sampleMean * sampleMean;
+            assertEquals(shape, sampleMean, 5 * Math.sqrt(shape / SAMPLES));
+            assertEquals(shape, sampleVar,
+                         5 * Math.sqrt((6 * shape + 2 * shape * shape)
+                                       / SAMPLES));
+        }
+    }
+
+    /**
+     * Checks the mean and the variance of normal deviates.
+     */
+    @Test
+    public void testNextGaussian() {
+        System.out.println("nextGaussian");
+        NoiseSampler instance = new NoiseSampler(42);
+        double sum = 0;
+        double sumSq = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            double x = instance.nextGaussian();
+            sum += x;
+            sumSq += x * x;
+        }
+        double sampleMean = sum / SAMPLES;
+        assertEquals(0.0, sampleMean, 5 * Math.sqrt(1.0 / SAMPLES));
+        assertEquals(1.0, sumSq / SAMPLES - sampleMean * sampleMean,
+                     5 * Math.sqrt(2.0 / SAMPLES));
+    }
+
+    /**
+     * The same seed gives the same deviates.
+     */
+    @Test
+    public void testSeed() {
+        System.out.println("seed");
+        NoiseSampler first = new NoiseSampler(7);
+        NoiseSampler second = new NoiseSampler(7);
+        NoiseSampler other = new NoiseSampler(8);
+        boolean differs = false;
+        for (int i = 0; i < 100; i++) {
+            double u = first.nextDouble();
+            assertTrue(u >= 0 && u < 1);
+            assertEquals(u, second.nextDouble(), 0.0);
+            differs |= u != other.nextDouble();
+        }
+        assertTrue(differs);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the StateSystem class.
+ */
+public class StateSystemTest {
+    private StateSystem instance;
+
+    @Before
+    public void setUp() {
+        // on -> dark at 1 + 2I, on -> bleached at 1, dark -> on at 0.5 I^2
+        double[][][] rates = {
+            {{0.0}, {1.0, 2.0}, {1.0}},
+            {{0.0, 0.0, 0.5}, {0.0}, {0.0}},
+            {{0.0}, {0.0}, {0.0}}
+        };
+        instance = new StateSystem(3, rates);
+    }
+
+    /**
+     * Test of getExitRate method, of class StateSystem.
+     */
+    @Test
+    public void testGetExitRate() {
+        System.out.println("getExitRate");
+        instance.recalculate_lifetimes(2.0);
+        assertEquals(6.0, instance.getExitRate(0), 1e-12);
+        assertEquals(2.0, instance.getExitRate(1), 1e-12);
+        assertEquals(0.0, instance.getExitRate(2), 0.0);
+    }
+
+    /**
+     * Test of nextState method, of class StateSystem.
+     */
+    @Test
+    public void testNextState() {
+        System.out.println("nextState");
+        instance.recalculate_lifetimes(2.0);
+
+        // From the on state, the dark state has 5/6 of the total rate.
+        assertEquals(1, instance.nextState(0, 0.0));
+        assertEquals(1, instance.nextState(0, 0.8));
+        assertEquals(2, instance.nextState(0, 0.84));
+        assertEquals(2, instance.nextState(0, 0.999999));
+
+        // The dark state can only return to the on state.
+        assertEquals(0, instance.nextState(1, 0.5));
+
+        // The bleached state cannot be left.
+        assertEquals(2, instance.nextState(2, 0.5));
+    }
+
+    /**
+     * Test of recalculate_lifetimes method, of class StateSystem.
+     *
+     * The tables of a laser power that was used before are reused.
+     */
+    @Test
+    public void testRecalculateLifetimesSwitchingPowers() {
+        System.out.println("recalculate_lifetimes");
+        instance.recalculate_lifetimes(2.0);
+        assertEquals(5.0, instance.getTransitionRate(0, 1), 1e-12);
+        assertEquals(0.2, instance.getMeanTransitionLifetime(0, 1), 1e-12);
+
+        instance.recalculate_lifetimes(0.0);
+        assertEquals(1.0, instance.getTransitionRate(0, 1), 1e-12);
+        assertEquals(Double.POSITIVE_INFINITY,
+                     instance.getMeanTransitionLifetime(1, 0), 0.0);
+        assertEquals(1, instance.nextState(0, 0.4));
+        assertEquals(2, instance.nextState(0, 0.6));
+
+        instance.recalculate_lifetimes(2.0);
+        assertEquals(5.0, instance.getTransitionRate(0, 1), 1e-12);
+        assertEquals(6.0, instance.getExitRate(0), 1e-12);
+        assertEquals(2.0, instance.getExitRate(1), 1e-12);
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.backgrounds.commands;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+import ij.process.ShortProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for replaying a background movie from a stack.
+ */
+public class GenerateBackgroundFromStackTest {
+    
+    private static final int WIDTH = 5;
+    private static final int HEIGHT = 4;
+    private static final int FRAMES = 3;
+    
+    /**
+     * A multi-page TIFF file written by ImageJ.
+     */
+    private File tiffFile;
+    
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+    
+    /**
+     * The value of a pixel of a frame.
+     */
+    private static int value(int frame, int x, int y) {
+        return 1000 * frame + 10 * y + x + 40000;
+    }
+    
+    /**
+     * Writes the test stack with 16-bit pixels above 32767.
+     */
+    @Before
+    public void setUp() throws IOException {
+        ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+        for (int k = 0; k < FRAMES; k++) {
+            ShortProcessor sp = new ShortProcessor(WIDTH, HEIGHT);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    sp.set(x, y, value(k, x, y));
+                }
+            }
+            stack.addSlice(sp);
+        }
+        tiffFile = tempDir.newFile("stack.tif");
+        new FileSaver(new ImagePlus("stack", stack))
+                .saveAsTiffStack(tiffFile.getAbsolutePath());
+    }
+    
+    /**
+     * Test of generateBackground method, of class GenerateBackgroundFromStack.
+     */
+    @Test
+    public void testGenerateBackground() {
+        System.out.println("testGenerateBackground");
+        GenerateBackgroundFromStack instance =
+                new GenerateBackgroundFromStack.Builder()
+                        .file(tiffFile).nX(3).nY(2).build();
+        assertEquals(FRAMES, instance.getNumFrames());
+        assertEquals(WIDTH, instance.getFrameWidth());
+        assertEquals(HEIGHT, instance.getFrameHeight());
+        assertFalse(instance.isStatic());
+        
+        // The last frame is repeated at the end of the movie.
+        for (int k = 0; k < FRAMES + 2; k++) {
+            float[][] background = instance.generateBackground();
+            int frame = Math.min(k, FRAMES - 1);
+            assertEquals(3, background.length);
+            for (int x = 0; x < 3; x++) {
+                assertEquals(2, background[x].length);
+                for (int y = 0; y < 2; y++) {
+                    assertEquals(value(frame, x, y), background[x][y], 0.0);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test of the loop option of GenerateBackgroundFromStack.
+     */
+    @Test
+    public void testLoop() {
+        System.out.println("testLoop");
+        GenerateBackgroundFromStack instance =
+                new GenerateBackgroundFromStack.Builder()
+                        .file(tiffFile).nX(WIDTH).nY(HEIGHT).loop(true)
+                        .build();
+        for (int k = 0; k < 2 * FRAMES + 1; k++) {
+            float[][] background = instance.generateBackground();
+            assertEquals(value(k % FRAMES, 4, 3), background[4][3], 0.0);
+        }
+    }
+    
+    /**
+     * Test of getFrame method, of class GenerateBackgroundFromStack.
+     */
+    @Test
+    public void testGetFrame() {
+        System.out.println("testGetFrame");
+        GenerateBackgroundFromStack instance =
+                new GenerateBackgroundFromStack.Builder()
+                        .file(tiffFile).nX(WIDTH).nY(HEIGHT).build();
+        ByteBuffer frame = instance.getFrame(2);
+        assertTrue(frame.isDirect());
+        assertTrue(frame.isReadOnly());
+        assertEquals(2 * WIDTH * HEIGHT, frame.remaining());
+        assertEquals(value(2, 3, 1),
+                     frame.getShort(2 * (WIDTH + 3)) & 0xffff);
+    }
+    
+    /**
+     * Test of reading a raw stack of floats with a header.
+     */
+    @Test
+    public void testRawStack() throws IOException {
+        System.out.println("testRawStack");
+        File rawFile = tempDir.newFile("stack.raw");
+        int header = 12;
+        ByteBuffer buffer = ByteBuffer.allocate(header + 4 * WIDTH * HEIGHT * 2)
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(header);
+        for (int k = 0; k < 2; k++) {
+            for (int i = 0; i < WIDTH * HEIGHT; i++) {
+                buffer.putFloat(k + 0.25f * i);
+            }
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(
+                rawFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(buffer);
+        }
+        
+        GenerateBackgroundFromStack instance =
+                new GenerateBackgroundFromStack.Builder()
+                        .file(rawFile).nX(WIDTH).nY(HEIGHT)
+                        .raw(WIDTH, HEIGHT, 32).rawHeader(header)
+                        .rawByteOrder(ByteOrder.LITTLE_ENDIAN).loop(true)
+                        .build();
+        assertEquals(2, instance.getNumFrames());
+        for (int k = 0; k < 3; k++) {
+            float[][] background = instance.generateBackground();
+            assertEquals(k % 2 + 0.25f * (2 * WIDTH + 4), background[4][2],
+                         0.0);
+        }
+    }
+    
+    /**
+     * Writes a little-endian TIFF file with a single page.
+     * 
+     * @param bitsPerSample The number of bits of the pixels.
+     * @param sampleFormat 1 for unsigned and 2 for signed integers.
+     * @param pixels The pixels, row by row.
+     * @return The file.
+     */
+    private File writeTiff(int bitsPerSample, int sampleFormat,
+                           ByteBuffer pixels) throws IOException {
+        int[][] entries = {
+            {256, WIDTH}, {257, HEIGHT}, {258, bitsPerSample}, {259, 1},
+            {273, 0}, {277, 1}, {279, pixels.remaining()}, {339, sampleFormat}
+        };
+        int dataOffset = 8 + 2 + 12 * entries.length + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(dataOffset + pixels.remaining())
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        buffer.putShort((short) entries.length);
+        for (int[] entry: entries) {
+            int value = entry[0] == 273 ? dataOffset : entry[1];
+            buffer.putShort((short) entry[0]).putShort((short) 4).putInt(1)
+                  .putInt(value);
+        }
+        buffer.putInt(0).put(pixels);
+        buffer.flip();
+        
+        File tiff = tempDir.newFile();
+        try (FileChannel channel = FileChannel.open(
+                tiff.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(buffer);
+        }
+        return tiff;
+    }
+    
+    /**
+     * Test of reading signed 8-bit pixels.
+     */
+    @Test
+    public void testSigned8Bit() throws IOException {
+        System.out.println("testSigned8Bit");
+        ByteBuffer pixels = ByteBuffer.allocate(WIDTH * HEIGHT);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            pixels.put((byte) (i * 13 - 128));
+        }
+        pixels.flip();
+        GenerateBackgroundFromStack instance =
+                new GenerateBackgroundFromStack.Builder()
+                        .file(writeTiff(8, 2, pixels)).nX(WIDTH).nY(HEIGHT)
+                        .build();
+        float[][] background = instance.generateBackground();
+        assertEquals(-128, background[0][0], 0.0);
+        assertEquals((byte) (7 * 13 - 128), background[2][1], 0.0);
+        assertEquals(19 * 13 - 128, background[4][3], 0.0);
+    }
+    
+    /**
+     * Test of reading unsigned 32-bit pixels above 2^31.
+     */
+    @Test
+    public void testUnsigned32Bit() throws IOException {
+        System.out.println("testUnsigned32Bit");
+        ByteBuffer pixels = ByteBuffer.allocate(4 * WIDTH * HEIGHT)
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            pixels.putInt((int) (3000000000L + 1000 * i));
+        }
+        pixels.flip();
+        GenerateBackgroundFromStack instance =
+                new GenerateBackgroundFromStack.Builder()
+                        .file(writeTiff(32, 1, pixels)).nX(WIDTH).nY(HEIGHT)
+                        .build();
+        float[][] background = instance.generateBackground();
+        assertEquals(3000000000.0f, background[0][0], 0.0);
+        assertEquals((float) (3000000000L + 1000 * 7), background[2][1],
+                     0.0);
+    }
+    
+    /**
+     * A rejected stack does not leave its file open.
+     */
+    @Test
+    public void testFileClosedOnFailure() {
+        System.out.println("testFileClosedOnFailure");
+        File descriptors = new File("/proc/self/fd");
+        Assume.assumeTrue(descriptors.isDirectory());
+        int before = descriptors.list().length;
+        for (int i = 0; i < 20; i++) {
+            try {
+                new GenerateBackgroundFromStack.Builder()
+                        .file(tiffFile).nX(WIDTH + 1).nY(HEIGHT).build();
+                fail();
+            } catch (ArrayIndexOutOfBoundsException ex) {
+                // Expected
+            }
+        }
+        assertTrue(descriptors.list().length < before + 20);
+    }
+    
+    /**
+     * Stacks smaller than the camera are rejected.
+     */
+    @Test(expected=ArrayIndexOutOfBoundsException.class)
+    public void testTooSmall() {
+        System.out.println("testTooSmall");
+        new GenerateBackgroundFromStack.Builder()
+                .file(tiffFile).nX(WIDTH + 1).nY(HEIGHT).build();
+    }
+}
@@ -17,6 +17,7 @@
  */
 package ch.epfl.leb.sass.simulator.generators.realtime.backgrounds.commands;
 
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -68,4 +69,101 @@ public class GenerateRandomBackgroundTest {
         assertTrue("Hello", minValue >= 100 - delta);
         assertTrue("Goodbye", maxValue <= 250 + delta);
     }    
+    
+    /**
+     * Test of generateBackground method, of class GenerateRandomBackground,
+     * with a time step.
+     * 
+     * The background stays within its range and drifts slowly from frame
+     * to frame.
+     */
+    @Test
+    public void testGenerateDriftingBackground() {
+        System.out.println("generateDriftingBackground");
+        builder.nX(64).nY(48).max(250).min(100).timeStep(0.02);
+        GenerateRandomBackground bg = builder.build();
+        assertFalse(bg.isStatic());
+        
+        float[][] first = bg.generateBackground();
+        float[][] second = bg.generateBackground();
+        float[][] later = first;
+        for (int i = 0; i < 20; i++) {
+            later = bg.generateBackground();
+        }
+        
+        double step = 0;
+        double drift = 0;
+        for (int y = 0; y < 48; y++) {
+            for (int x = 0; x < 64; x++) {
+                assertTrue(first[y][x] >= 100 - 0.001f);
+                assertTrue(first[y][x] <= 250 + 0.001f);
+                step += Math.abs(second[y][x] - first[y][x]);
+                drift += Math.abs(later[y][x] - first[y][x]);
+            }
+        }
+        assertTrue(step > 0);
+        assertTrue(drift > 5 * step);
+        
+        // The frames only depend on the seed.
+        float[][] again = builder.build().generateBackground();
+        for (int y = 0; y < 48; y++) {
+            assertArrayEquals(first[y], again[y], 0.0f);
+        }
+    }
+    
+    /**
+     * Test of generateBackground method, of class GenerateRandomBackground.
+     * 
+     * The tiles give the same background as a single pass over the pixels,
+     * no matter how many threads evaluate them.
+     */
+    @Test
+    public void testGenerateBackgroundTiles() {
+        System.out.println("generateBackgroundTiles");
+        int nX = 40;
+        int nY = 2 * GenerateRandomBackground.ROWS_PER_TILE + 5;
+        builder.nX(nX).nY(nY).max(250).min(100);
+        
+        OpenSimplexNoise noise = new OpenSimplexNoise();
+        float[][] expected = new float[nY][nX];
+        float maxValue = Float.NEGATIVE_INFINITY;
+        float minValue = Float.POSITIVE_INFINITY;
+        for (int y = 0; y < nY; y++) {
+            for (int x = 0; x < nX; x++) {
+                expected[y][x] = (float) noise.eval(x / 10.0, y / 10.0, 0.0);
+                maxValue = Math.max(maxValue, expected[y][x]);
+                minValue = Math.min(minValue, expected[y][x]);
+            }
+        }
+        float slope = (250f - 100f) / (maxValue - minValue);
+        for (int y = 0; y < nY; y++) {
+            for (int x = 0; x < nX; x++) {
+                expected[y][x] = slope * expected[y][x] + 250f
+                                 - slope * maxValue;
+            }
+        }
+        
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(4);
+        try {
+            float[][] first = builder.pool(single).build().generateBackground();
+            float[][] second = builder.pool(several).build()
+                                      .generateBackground();
+            for (int y = 0; y < nY; y++) {
+                assertArrayEquals(expected[y], first[y], 0.0f);
+                assertArrayEquals(expected[y], second[y], 0.0f);
+            }
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+    
+    /**
+     * Test of timeStep method, of class GenerateRandomBackground.Builder.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTimeStep() {
+        builder.timeStep(-1);
+    }
 }
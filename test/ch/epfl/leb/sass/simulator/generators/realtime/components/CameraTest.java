@@ -158,4 +158,23 @@ public class CameraTest {
         assertEquals(expResult, result);
     }
     
+    /**
+     * Test of convertToADU method, of class Camera.
+     */
+    @Test
+    public void testConvertToADU() {
+        System.out.println("convertToADU");
+        Camera instance = this.camera;
+        float[] electrons = {0.0f, 10.0f, 0.2f, -50.0f, 40000.0f};
+        short[] adu = new short[electrons.length];
+        instance.convertToADU(electrons, adu);
+        
+        // 2.2 ADU per electron and a baseline of 100 ADU
+        assertEquals(100, adu[0] & 0xffff);
+        assertEquals(122, adu[1] & 0xffff);
+        assertEquals(100, adu[2] & 0xffff); // 100.44 is rounded down
+        assertEquals(0, adu[3] & 0xffff); // clipped at zero
+        assertEquals(65535, adu[4] & 0xffff); // clipped at 16 bits
+    }
+    
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.commands;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.Fluorophore;
+import ch.epfl.leb.sass.simulator.generators.realtime.FluorophorePopulation;
+import ch.epfl.leb.sass.simulator.generators.realtime.RNG;
+import ch.epfl.leb.sass.simulator.generators.realtime.components.Camera;
+import ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.dynamics.FluorophoreDynamics;
+import ch.epfl.leb.sass.simulator.generators.realtime.fluorophores.dynamics.SimpleDynamics;
+import ch.epfl.leb.sass.simulator.generators.realtime.psfs.Gaussian2D;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the FluorophoreReceiver class.
+ */
+public class FluorophoreReceiverTest {
+    
+    private final Camera camera = new Camera.Builder()
+            .aduPerElectron(2.2).baseline(100).darkCurrent(0).emGain(0)
+            .pixelSize(6.5).quantumEfficiency(0.7).readoutNoise(1.6)
+            .thermalNoise(0.05).nX(32).nY(24).build();
+    
+    private final Gaussian2D.Builder psfBuilder =
+            new Gaussian2D.Builder().FWHM(3.0);
+    
+    private final FluorophoreDynamics dynamics = new SimpleDynamics.Builder()
+            .signal(1000).wavelength(0.6).tOn(2).tOff(20).tBl(100).build();
+    
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+    
+    @After
+    public void tearDown() {
+        RNG.setSeed(1);
+    }
+    
+    /**
+     * Asserts that fluorophores and a population have the same positions,
+     * up to the single precision of the population.
+     */
+    private static void assertSamePositions(ArrayList<Fluorophore> expected,
+                                            FluorophorePopulation actual) {
+        assertEquals(expected.size(), actual.getNumFluorophores());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).x, actual.getX(i), 1e-5);
+            assertEquals(expected.get(i).y, actual.getY(i), 1e-5);
+            assertEquals(expected.get(i).z, actual.getZ(i), 1e-5);
+        }
+    }
+    
+    /**
+     * Test of generateFluorophoresFromCSV and generatePopulationFromCSV
+     * methods, of class FluorophoreReceiver.
+     */
+    @Test
+    public void testFromCSV() throws IOException {
+        System.out.println("fromCSV");
+        File file = tempDir.newFile("emitters.csv");
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("# x, y, z");
+            writer.println("3.5,4.5,1.0");
+            writer.println("-1.0,2.0,0.0");
+            writer.println("10.5,20.5");
+            writer.println("40.5,5.5,2.0");
+        }
+        
+        ArrayList<Fluorophore> cropped = FluorophoreReceiver
+                .generateFluorophoresFromCSV(file, camera, psfBuilder,
+                                             dynamics, false);
+        assertEquals(2, cropped.size());
+        assertEquals(3.0, cropped.get(0).x, 0.0);
+        assertEquals(4.0, cropped.get(0).y, 0.0);
+        assertEquals(1.0, cropped.get(0).z, 0.0);
+        assertEquals(0.0, cropped.get(1).z, 0.0);
+        assertSamePositions(cropped, FluorophoreReceiver
+                .generatePopulationFromCSV(file, camera, psfBuilder,
+                                           dynamics, false));
+        
+        ArrayList<Fluorophore> rescaled = FluorophoreReceiver
+                .generateFluorophoresFromCSV(file, camera, psfBuilder,
+                                             dynamics, true);
+        assertEquals(3, rescaled.size());
+        assertEquals(32.0, rescaled.get(2).x, 1e-12);
+        assertSamePositions(rescaled, FluorophoreReceiver
+                .generatePopulationFromCSV(file, camera, psfBuilder,
+                                           dynamics, true));
+        
+        // The file is closed after reading.
+        assertTrue(file.delete());
+    }
+    
+    /**
+     * Test of the random and grid methods of class FluorophoreReceiver.
+     * 
+     * Fluorophores and populations are placed at the same positions.
+     */
+    @Test
+    public void testRandomAndGrid() {
+        System.out.println("randomAndGrid");
+        RNG.setSeed(3);
+        ArrayList<Fluorophore> random = FluorophoreReceiver
+                .generateFluorophoresRandom3D(50, -1.0, 2.0, camera,
+                                              psfBuilder, dynamics);
+        RNG.setSeed(3);
+        assertSamePositions(random, FluorophoreReceiver
+                .generatePopulationRandom3D(50, -1.0, 2.0, camera,
+                                            psfBuilder, dynamics));
+        for (Fluorophore f: random) {
+            assertTrue(f.z >= -1.0 && f.z < 2.0);
+        }
+        
+        ArrayList<Fluorophore> grid = FluorophoreReceiver
+                .generateFluorophoresGrid3D(5, 0.0, 3.0, camera,
+                                            psfBuilder, dynamics);
+        assertEquals(6 * 4, grid.size());
+        assertSamePositions(grid, FluorophoreReceiver
+                .generatePopulationGrid3D(5, 0.0, 3.0, camera,
+                                          psfBuilder, dynamics));
+    }
+}
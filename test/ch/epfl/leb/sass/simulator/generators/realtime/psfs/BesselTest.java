@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import org.apache.commons.math3.special.BesselJ;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the Bessel class.
+ */
+public class BesselTest {
+
+    /**
+     * Test of j0 method, of class Bessel.
+     */
+    @Test
+    public void testJ0() {
+        System.out.println("j0");
+        BesselJ expected = new BesselJ(0);
+        for (double x = 0.0; x <= 300.0; x += 0.0137) {
+            assertEquals(expected.value(x), Bessel.j0(x), 1e-14);
+            assertEquals(Bessel.j0(x), Bessel.j0(-x), 0.0);
+        }
+        assertEquals(1.0, Bessel.j0(0.0), 0.0);
+        // The first zero of J0
+        assertEquals(0.0, Bessel.j0(2.404825557695773), 1e-15);
+    }
+
+    /**
+     * Test of j1 method, of class Bessel.
+     */
+    @Test
+    public void testJ1() {
+        System.out.println("j1");
+        BesselJ expected = new BesselJ(1);
+        for (double x = 0.0; x <= 300.0; x += 0.0137) {
+            assertEquals(expected.value(x), Bessel.j1(x), 1e-14);
+            assertEquals(-Bessel.j1(x), Bessel.j1(-x), 0.0);
+        }
+        assertEquals(0.0, Bessel.j1(0.0), 0.0);
+        // The first zero of J1
+        assertEquals(0.0, Bessel.j1(3.8317059702075125), 1e-15);
+    }
+
+    /**
+     * Test of the array versions of j0 and j1, of class Bessel.
+     */
+    @Test
+    public void testArrays() {
+        System.out.println("arrays");
+        double[] x = {0.0, 1e-6, 4.99, 5.0, 5.01, 17.3, 250.0, -3.0};
+        double[] result0 = new double[x.length];
+        double[] result1 = new double[x.length];
+        Bessel.j0(x, result0, x.length);
+        Bessel.j1(x, result1, x.length);
+        for (int i = 0; i < x.length; i++) {
+            assertEquals(Bessel.j0(x[i]), result0[i], 0.0);
+            assertEquals(Bessel.j1(x[i]), result1[i], 0.0);
+        }
+
+        // In place, and only the first count values
+        double[] inPlace = x.clone();
+        Bessel.j0(inPlace, inPlace, 3);
+        assertEquals(result0[2], inPlace[2], 0.0);
+        assertEquals(x[3], inPlace[3], 0.0);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import ch.epfl.leb.sass.simulator.generators.realtime.Footprint;
+import org.apache.commons.math.MathException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CachingPSFBuilder class.
+ */
+public class CachingPSFBuilderTest {
+    private Gaussian3D.Builder gaussian;
+    private CachingPSFBuilder instance;
+
+    @Before
+    public void setUp() {
+        gaussian = new Gaussian3D.Builder();
+        gaussian.FWHM(3.0).NA(1.3).resLateral(0.1).wavelength(0.6);
+        instance = new CachingPSFBuilder(gaussian, 10, 0.05);
+    }
+
+    /**
+     * Test of build method, of class CachingPSFBuilder.
+     *
+     * Emitters in the same bin share the template of the bin's center.
+     */
+    @Test
+    public void testBuild() throws MathException {
+        System.out.println("build");
+        instance.eX(4.52).eY(7.33).eZ(0.1);
+        Footprint first = Footprint.fromPSF(instance.build(), 4.52, 7.33);
+        instance.eX(-11.48).eY(2.38).eZ(0.11);
+        Footprint second = Footprint.fromPSF(instance.build(), -11.48, 2.38);
+        assertEquals(1, instance.getTemplates().size());
+        assertEquals(1, instance.getTemplates().getHits());
+
+        assertEquals(first.getX0() - 16, second.getX0());
+        assertEquals(first.getY0() - 5, second.getY0());
+        assertEquals(first.getWeight(5, 8), second.getWeight(-11, 3), 0.0);
+
+        // The template matches the PSF of the bin's center.
+        gaussian.eX(4.55).eY(7.35).eZ(0.1);
+        PSF expected = gaussian.build();
+        CachingPSFBuilder.CachedPSF psf = instance.eX(4.52).eY(7.33).build();
+        for (int x = 0; x < 10; x++) {
+            for (int y = 4; y < 12; y++) {
+                assertEquals(expected.generatePixelSignature(x, y),
+                             psf.generatePixelSignature(x, y), 1e-7);
+            }
+        }
+        assertEquals(expected.getRadius(), psf.getRadius(), 0.0);
+
+        // Another bin
+        instance.eX(4.62).eY(7.33).eZ(0.1).build();
+        assertEquals(2, instance.getTemplates().size());
+    }
+
+    /**
+     * Test of the parameters of class CachingPSFBuilder.
+     *
+     * Changing an optical parameter builds new templates.
+     */
+    @Test
+    public void testChangeParameters() {
+        System.out.println("changeParameters");
+        instance.FWHM(3.0).NA(1.3).eX(0.5).eY(0.5).eZ(0.0);
+        double before = instance.build().generatePixelSignature(0, 0);
+        instance.FWHM(3.0).NA(1.3);
+        instance.build();
+        assertEquals(1, instance.getTemplates().size());
+
+        instance.FWHM(5.0);
+        double after = instance.build().generatePixelSignature(0, 0);
+        assertEquals(2, instance.getTemplates().size());
+        assertTrue(after < before);
+
+        // The templates of the earlier parameters are still valid.
+        instance.FWHM(3.0);
+        assertEquals(before, instance.build().generatePixelSignature(0, 0),
+                     0.0);
+        assertEquals(2, instance.getTemplates().size());
+    }
+
+    /**
+     * Test of the constructor of class CachingPSFBuilder.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoBins() {
+        System.out.println("noBins");
+        new CachingPSFBuilder(gaussian, 0, 0.05);
+    }
+    
+    /**
+     * Test of energyFraction method, of class CachingPSFBuilder.
+     */
+    @Test
+    public void testEnergyFraction() {
+        System.out.println("energyFraction");
+        CachingPSFBuilder caching = new CachingPSFBuilder(
+                new Gaussian2D.Builder().FWHM(3), 4, 1);
+        caching.eX(0.1).eY(0.1).eZ(0).build();
+        assertEquals(1, caching.getTemplates().size());
+        
+        caching.energyFraction(1 - Math.exp(-4.5));
+        assertEquals(1.2740 * 3, caching.build().getRadius(), 0.0001);
+        assertEquals(2, caching.getTemplates().size());
+    }
+
+    /**
+     * Test of build method, of class CachingPSFBuilder, with a shared cache.
+     *
+     * Wrappers with different axial spacings or wrapped builders do not
+     * share their templates.
+     */
+    @Test
+    public void testSharedCache() throws MathException {
+        System.out.println("sharedCache");
+        PSFPlaneCache cache = new PSFPlaneCache();
+        CachingPSFBuilder fine = new CachingPSFBuilder(gaussian, 10, 0.1,
+                                                       cache);
+        CachingPSFBuilder coarse = new CachingPSFBuilder(gaussian, 10, 1.0,
+                                                         cache);
+        Gaussian3D.Builder other = new Gaussian3D.Builder();
+        other.FWHM(3.0).NA(1.3).resLateral(0.1).wavelength(0.6);
+        CachingPSFBuilder wrapped = new CachingPSFBuilder(other, 10, 1.0,
+                                                          cache);
+
+        // Both keys have the plane index 2.
+        fine.eX(0.55).eY(0.55).eZ(0.2).build();
+        double signature = coarse.eX(0.55).eY(0.55).eZ(2.0).build()
+                                 .generatePixelSignature(0, 0);
+        assertEquals(2, cache.size());
+        gaussian.eX(0.55).eY(0.55).eZ(2.0);
+        assertEquals(gaussian.build().generatePixelSignature(0, 0),
+                     signature, 1e-7);
+
+        wrapped.eX(0.55).eY(0.55).eZ(2.0).build();
+        assertEquals(3, cache.size());
+
+        // A second wrapper with the same parameters shares the template.
+        new CachingPSFBuilder(gaussian, 10, 1.0, cache)
+                .eX(0.55).eY(0.55).eZ(2.0).build();
+        assertEquals(3, cache.size());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.special.Erf;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the FastErf class.
+ */
+public class FastErfTest {
+
+    /**
+     * Test of erf method, of class FastErf.
+     */
+    @Test
+    public void testErf() throws MathException {
+        System.out.println("erf");
+        for (double x = -5.0; x <= 5.0; x += 0.0007) {
+            assertEquals(Erf.erf(x), FastErf.erf(x), 1e-9);
+        }
+        assertEquals(0.0, FastErf.erf(0.0), 0.0);
+        assertEquals(1.0, FastErf.erf(10.0), 0.0);
+        assertEquals(-1.0, FastErf.erf(Double.NEGATIVE_INFINITY), 0.0);
+        assertTrue(Double.isNaN(FastErf.erf(Double.NaN)));
+    }
+
+    /**
+     * Test of integratePixels method, of class FastErf.
+     */
+    @Test
+    public void testIntegratePixels() throws MathException {
+        System.out.println("integratePixels");
+        double mean = 3.3;
+        double sigma = 1.7;
+        double[] result = new double[21];
+        FastErf.integratePixels(-7, 21, mean, sigma, result);
+
+        double sum = 0;
+        double denom = Math.sqrt(2.0) * sigma;
+        for (int k = 0; k < result.length; k++) {
+            int x = -7 + k;
+            double expected = 0.5 * (Erf.erf((x + 0.5 - mean) / denom) -
+                                     Erf.erf((x - 0.5 - mean) / denom));
+            assertEquals(expected, result[k], 1e-9);
+            sum += result[k];
+        }
+        // The pixels span more than five standard deviations on both sides.
+        assertEquals(1.0, sum, 1e-6);
+    }
+}
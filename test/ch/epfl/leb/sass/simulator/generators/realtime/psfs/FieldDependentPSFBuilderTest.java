@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import org.apache.commons.math.MathException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the FieldDependentPSFBuilder class.
+ */
+public class FieldDependentPSFBuilderTest {
+    private FieldDependentPSFBuilder instance;
+
+    @Before
+    public void setUp() {
+        // The FWHM grows linearly across the field.
+        FieldDependentPSFBuilder.FieldModel model =
+                new FieldDependentPSFBuilder.FieldModel() {
+            @Override
+            public PSFBuilder createBuilder(double x, double y) {
+                return new Gaussian2D.Builder().FWHM(2 + x / 100);
+            }
+        };
+        instance = new FieldDependentPSFBuilder(model, 50);
+    }
+
+    /**
+     * Test of build method, of class FieldDependentPSFBuilder.
+     *
+     * Emitters use the PSF of the center of their tile, and tiles are
+     * created once.
+     */
+    @Test
+    public void testBuild() {
+        System.out.println("build");
+        PSF psf = instance.eX(10).eY(20).eZ(0).build();
+        assertEquals(3 * 2.25 / 2.3548, psf.getRadius(), 1e-12);
+        psf = instance.eX(120).eY(30).eZ(0).build();
+        assertEquals(3 * 3.25 / 2.3548, psf.getRadius(), 1e-12);
+        assertEquals(2, instance.getTileCount());
+
+        instance.eX(40).eY(45).build();
+        instance.eX(149).eY(1).build();
+        assertEquals(2, instance.getTileCount());
+
+        // Parameters are forwarded to existing and new tiles.
+        instance.energyFraction(1 - Math.exp(-2));
+        psf = instance.eX(10).eY(20).build();
+        assertEquals(2 * 2.25 / 2.3548, psf.getRadius(), 1e-12);
+        psf = instance.eX(260).eY(20).build();
+        assertEquals(2 * 4.75 / 2.3548, psf.getRadius(), 1e-12);
+    }
+
+    /**
+     * Test of interpolate method, of class FieldDependentPSFBuilder.
+     */
+    @Test
+    public void testInterpolate() throws MathException {
+        System.out.println("interpolate");
+        instance.interpolate(true);
+
+        // At a tile center, the PSF is the tile's.
+        PSF psf = instance.eX(75).eY(25).eZ(0).build();
+        assertTrue(psf instanceof Gaussian2D);
+        assertEquals(3 * 2.75 / 2.3548, psf.getRadius(), 1e-12);
+
+        // Halfway between two centers, the signature is their average.
+        psf = instance.eX(100).eY(25).build();
+        PSF left = new Gaussian2D.Builder().FWHM(2.75).eX(100).eY(25).build();
+        PSF right = new Gaussian2D.Builder().FWHM(3.25).eX(100).eY(25).build();
+        for (int x = 96; x <= 104; x++) {
+            double expected = 0.5 * (left.generatePixelSignature(x, 26) +
+                                     right.generatePixelSignature(x, 26));
+            assertEquals(expected, psf.generatePixelSignature(x, 26), 1e-12);
+        }
+        assertEquals(3 * 3.25 / 2.3548, psf.getRadius(), 1e-12);
+    }
+
+    /**
+     * Test of the constructor of class FieldDependentPSFBuilder.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveTileSize() {
+        new FieldDependentPSFBuilder(null, 0);
+    }
+}
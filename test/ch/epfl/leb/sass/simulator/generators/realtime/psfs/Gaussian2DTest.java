@@ -122,4 +122,25 @@ public class Gaussian2DTest {
         
         assertEquals(psf.getRadius(), 1.2740 * 3, 0.0001);
     }
+    
+    /**
+     * Test of getRadius method, of class Gaussian2D, with an energy fraction.
+     */
+    @Test
+    public void testGetRadiusEnergyFraction() {
+        System.out.println("getRadiusEnergyFraction");
+        builder.energyFraction(1 - Math.exp(-4.5)).eX(0).eY(0).eZ(0);
+        PSF psf = builder.build();
+        
+        // Three standard deviations hold 1 - exp(-9 / 2) of the energy.
+        assertEquals(1.2740 * 3, psf.getRadius(), 0.0001);
+    }
+    
+    /**
+     * Test of energyFraction method, of class Gaussian2D.Builder.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testEnergyFractionOutOfRange() {
+        builder.energyFraction(1);
+    }
 }
@@ -17,6 +17,8 @@
  */
 package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
 
+import ch.epfl.leb.sass.simulator.generators.realtime.Emitter;
+import ch.epfl.leb.sass.simulator.generators.realtime.Footprint;
 import ch.epfl.leb.sass.simulator.generators.realtime.Pixel;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
@@ -159,4 +161,58 @@ public class Gaussian3DTest {
         double actualRadius = 5 * 1.2740;
         assertEquals(psf.getRadius(), actualRadius, 0.0001);
     }  
+    
+    /**
+     * Test of getRadius method, of class Gaussian3D, with an energy fraction.
+     * 
+     * The radius grows with the width of the defocused PSF.
+     */
+    @Test
+    public void testGetRadiusEnergyFraction() {
+        System.out.println("getRadiusEnergyFraction");
+        double sigma = 1.2740;
+        double zR = 2 * sigma / numericalAperture;
+        builder.energyFraction(1 - Math.exp(-4.5)).eX(0).eY(0);
+        
+        PSF psf = builder.eZ(0).build();
+        assertEquals(3 * sigma, psf.getRadius(), 0.0001);
+        
+        psf = builder.eZ(zR).build();
+        assertEquals(3 * sigma * Math.sqrt(2), psf.getRadius(), 0.001);
+    }
+    
+    /**
+     * Test of getFootprint method, of class Gaussian3D.
+     * 
+     * The footprint equals the one computed from the pixels within the radius.
+     */
+    @Test
+    public void testGetFootprint() {
+        System.out.println("getFootprint");
+        double[][] positions = {
+            {0, 0, 0}, {12.3, 7.8, 0.5}, {-3.6, 2.1, -1.2}, {4.5, -0.5, 2.0}};
+        for (double[] position: positions) {
+            FootprintPSF psf = (FootprintPSF) builder.eX(position[0])
+                    .eY(position[1]).eZ(position[2]).build();
+            ArrayList<Pixel> pixels = Emitter.getPixelsWithinRadius(
+                    new Point2D.Double(position[0], position[1]),
+                    psf.getRadius());
+            psf.generateSignature(pixels);
+            Footprint expected = Footprint.fromPixels(pixels);
+            
+            Footprint result = psf.getFootprint();
+            assertEquals(expected.getX0(), result.getX0());
+            assertEquals(expected.getY0(), result.getY0());
+            assertEquals(expected.getWidth(), result.getWidth());
+            assertEquals(expected.getHeight(), result.getHeight());
+            for (int x = expected.getX0() - 1;
+                 x <= expected.getX0() + expected.getWidth(); x++) {
+                for (int y = expected.getY0() - 1;
+                     y <= expected.getY0() + expected.getHeight(); y++) {
+                    assertEquals(expected.getWeight(x, y),
+                                 result.getWeight(x, y), 0.0);
+                }
+            }
+        }
+    }
 }
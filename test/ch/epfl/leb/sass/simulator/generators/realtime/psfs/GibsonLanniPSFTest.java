@@ -21,9 +21,17 @@ import ch.epfl.leb.sass.simulator.generators.realtime.Pixel;
 import java.awt.geom.Point2D;
 import org.junit.Test;
 import org.junit.Before;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  *  Tests for the GibsonLanniPSF class.
@@ -33,6 +41,9 @@ import java.util.ArrayList;
 public class GibsonLanniPSFTest {
     private GibsonLanniPSF.Builder builder;
     
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
     public GibsonLanniPSFTest() {
     }
     
@@ -167,4 +178,234 @@ public class GibsonLanniPSFTest {
         assertEquals(psf.getRadius(), 3, 0.1);
     }
     
+    /**
+     * Test of the Bessel basis shared by the planes of GibsonLanniPSF.
+     * 
+     * Planes of the same optical configuration reuse the basis, and a plane
+     * computed with a cached basis matches the one computed with a new basis.
+     */
+    @Test
+    public void testBasisSharedBetweenPlanes() {
+        GibsonLanniBasis first = GibsonLanniBasis.get(
+                1.4, 0.610, 1.33, 100, 1000, 2, 256, 256, 0.02, "svd");
+        GibsonLanniBasis second = GibsonLanniBasis.get(
+                1.4, 0.610, 1.33, 100, 1000, 2, 256, 256, 0.02, "svd");
+        assertSame(first, second);
+        
+        GibsonLanniBasis other = GibsonLanniBasis.get(
+                1.4, 0.610, 1.33, 100, 1000, 2, 256, 256, 0.02, "qrd");
+        assertNotSame(first, other);
+        
+        // Planes built after the basis is cached agree with the ground truth
+        // of testGeneratePixelSignature.
+        this.builder.eX(0).eY(-1).eZ(2);
+        GibsonLanniPSF psf = this.builder.build();
+        assertEquals(0.02800, psf.generatePixelSignature(0, 0), 0.0001);
+        this.builder.eX(1).eY(1).eZ(2);
+        psf = this.builder.build();
+        assertEquals(0.03726, psf.generatePixelSignature(1, 1), 0.0001);
+    }
+    
+    /**
+     * Test of get method, of class GibsonLanniBasis.
+     * 
+     * Callers that request a new basis at the same time share one instance.
+     */
+    @Test
+    public void testBasisBuiltOnce() throws Exception {
+        Callable<GibsonLanniBasis> request = new Callable<GibsonLanniBasis>() {
+            @Override
+            public GibsonLanniBasis call() {
+                return GibsonLanniBasis.get(
+                        1.2, 0.580, 1.33, 100, 1000, 2, 128, 128, 0.02, "qrd");
+            }
+        };
+        List<Callable<GibsonLanniBasis>> requests =
+                new ArrayList<Callable<GibsonLanniBasis>>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(request);
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<GibsonLanniBasis>> results =
+                    executor.invokeAll(requests);
+            GibsonLanniBasis first = results.get(0).get();
+            for (Future<GibsonLanniBasis> result: results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * Test of precompute method, of class GibsonLanniPSF.Builder.
+     * 
+     * Planes computed in parallel before the first PSF is built match the
+     * planes computed on demand.
+     */
+    @Test
+    public void testPrecompute() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        GibsonLanniPSF.Builder precomputing = this.builder;
+        precomputing.precompute(1.99, 2.01).pool(pool);
+        precomputing.eX(0).eY(-1).eZ(2);
+        GibsonLanniPSF psf = precomputing.build();
+        assertEquals(0.02800, psf.generatePixelSignature(0, 0), 0.0001);
+        
+        double[] zs = {1.99, 1.996, 2.004, 2.01};
+        double[] precomputed = new double[zs.length];
+        for (int i = 0; i < zs.length; i++) {
+            precomputing.eX(0).eY(-1).eZ(zs[i]);
+            precomputed[i] = precomputing.build().generatePixelSignature(0, 0);
+        }
+        pool.shutdown();
+        
+        // A new builder has its own cache, so the planes are computed again.
+        setUp();
+        for (int i = 0; i < zs.length; i++) {
+            this.builder.eX(0).eY(-1).eZ(zs[i]);
+            double lazy = this.builder.build().generatePixelSignature(0, 0);
+            assertEquals(lazy, precomputed[i], 0.0);
+        }
+    }
+    
+    /**
+     * Test of cache method, of class GibsonLanniPSF.Builder.
+     * 
+     * Builders with different stage displacements share a cache without
+     * reading each other's planes.
+     */
+    @Test
+    public void testSharedCache() {
+        PSFPlaneCache cache = new PSFPlaneCache();
+        this.builder.cache(cache).eX(0).eY(-1).eZ(2);
+        double expected = this.builder.build().generatePixelSignature(0, 0);
+        assertEquals(0.02800, expected, 0.0001);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        
+        GibsonLanniPSF.Builder other = this.builder;
+        setUp();
+        other.stageDisplacement(-1.5);
+        double displaced = other.build().generatePixelSignature(0, 0);
+        assertEquals(2, cache.size());
+        assertNotEquals(expected, displaced, 0.0001);
+        
+        // The plane of the first builder is still cached.
+        this.builder.cache(cache).eX(0).eY(-1).eZ(2);
+        assertEquals(expected,
+                     this.builder.build().generatePixelSignature(0, 0), 0.0);
+        assertEquals(1, cache.getHits());
+        assertSame(cache, this.builder.getCache());
+    }
+    
+    /**
+     * Test of library method, of class GibsonLanniPSF.Builder.
+     * 
+     * Planes loaded from the library match the computed ones.
+     */
+    @Test
+    public void testLibrary() throws IOException {
+        PSFLibrary library = new PSFLibrary(folder.newFolder());
+        this.builder.library(library).eX(0).eY(-1).eZ(2);
+        double computed = this.builder.build().generatePixelSignature(0, 0);
+        assertEquals(0.02800, computed, 0.0001);
+        assertEquals(1, library.getDirectory().list().length);
+        
+        setUp();
+        this.builder.library(library).eX(0).eY(-1).eZ(2);
+        assertEquals(computed,
+                     this.builder.build().generatePixelSignature(0, 0), 0.0);
+        assertEquals(1, library.getDirectory().list().length);
+    }
+    
+    /**
+     * Test of stamps method, of class GibsonLanniPSF.Builder.
+     * 
+     * Signatures interpolated between tabulated sub-pixel positions agree
+     * with the integrated PSF.
+     */
+    @Test
+    public void testStamps() {
+        double[][] positions = {{0.25, 0.5}, {0.3, -0.71}, {10.97, 3.01}};
+        this.builder.maxRadius(6);
+        for (double[] position: positions) {
+            this.builder.stamps(0).eX(position[0]).eY(position[1]).eZ(2);
+            ArrayList<Pixel> expected = getPixels(position);
+            this.builder.build().generateSignature(expected);
+            
+            this.builder.stamps(16);
+            ArrayList<Pixel> result = getPixels(position);
+            this.builder.build().generateSignature(result);
+            
+            // Tabulated positions are exact up to single precision.
+            double delta = position == positions[0] ? 1e-7 : 2e-5;
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getSignature(),
+                             result.get(i).getSignature(), delta);
+            }
+        }
+    }
+    
+    private ArrayList<Pixel> getPixels(double[] position) {
+        ArrayList<Pixel> pixels = new ArrayList<>();
+        for (int x = -7; x <= 18; x++) {
+            for (int y = -8; y <= 10; y++) {
+                double dx = x - position[0];
+                double dy = y - position[1];
+                if (dx * dx + dy * dy <= 36) {
+                    pixels.add(new Pixel(x, y, 0));
+                }
+            }
+        }
+        return pixels;
+    }
+    
+    /**
+     * Test of precompute method, of class GibsonLanniPSF.Builder.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrecomputeEmptyRange() {
+        this.builder.precompute(1.0, -1.0);
+    }
+    
+    
+    /**
+     * Test of getRadius method, of class GibsonLanniPSF, with an energy
+     * fraction.
+     * 
+     * The footprint within the radius holds the energy fraction, and the
+     * radius grows with defocus up to the radius of the grid.
+     */
+    @Test
+    public void testGetRadiusEnergyFraction() {
+        System.out.println("getRadiusEnergyFraction");
+        this.builder.energyFraction(0.9).eX(0).eY(0);
+        
+        PSF psf = this.builder.eZ(2).build();
+        double radius = psf.getRadius();
+        assertTrue(radius < 24.6);
+        
+        ArrayList<Pixel> pixels = new ArrayList<>();
+        int reach = (int) Math.ceil(radius);
+        for (int x = -reach; x <= reach; x++) {
+            for (int y = -reach; y <= reach; y++) {
+                if (x * x + y * y <= radius * radius) {
+                    pixels.add(new Pixel(x, y, 0));
+                }
+            }
+        }
+        psf.generateSignature(pixels);
+        double energy = 0;
+        for (Pixel pixel: pixels) {
+            energy += pixel.getSignature();
+        }
+        assertEquals(0.9, energy, 0.01);
+        
+        double defocused = this.builder.eZ(3).build().getRadius();
+        assertTrue(defocused > radius);
+        assertTrue(defocused <= 24.6);
+    }
 }
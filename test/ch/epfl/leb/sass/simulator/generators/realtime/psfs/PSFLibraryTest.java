@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.apache.commons.math3.analysis.BivariateFunction;
+import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolatingFunction;
+import org.apache.commons.math3.exception.OutOfRangeException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the PSFLibrary class.
+ */
+public class PSFLibraryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PSFLibrary library;
+    private double[] xval;
+    private double[] yval;
+    private double[][] fval;
+
+    @Before
+    public void setUp() throws IOException {
+        library = new PSFLibrary(new File(folder.getRoot(), "library"));
+
+        Random random = new Random(42);
+        xval = new double[12];
+        yval = new double[9];
+        for (int i = 0; i < xval.length; i++) {
+            xval[i] = 0.1 * i - 0.5;
+        }
+        for (int j = 0; j < yval.length; j++) {
+            yval[j] = 0.2 * j * j;
+        }
+        fval = new double[xval.length][yval.length];
+        for (int i = 0; i < xval.length; i++) {
+            for (int j = 0; j < yval.length; j++) {
+                fval[i][j] = random.nextDouble();
+            }
+        }
+    }
+
+    private static PSFPlaneCache.Key key(long plane) {
+        return new PSFPlaneCache.Key(new double[] {1.4, 0.61}, "svd", plane);
+    }
+
+    /**
+     * Test of store and load methods, of class PSFLibrary.
+     *
+     * Loaded planes are interpolated exactly like the stored ones.
+     */
+    @Test
+    public void testStoreAndLoad() {
+        System.out.println("storeAndLoad");
+        assertNull(library.load(key(-7)));
+        library.store(key(-7), SplinePlane.of(xval, yval, fval));
+        assertTrue(library.getFile(key(-7)).isFile());
+
+        BivariateFunction expected =
+                new PiecewiseBicubicSplineInterpolatingFunction(
+                        xval, yval, fval);
+        BivariateFunction loaded = library.load(key(-7));
+        assertNotNull(loaded);
+        Random random = new Random(1);
+        for (int k = 0; k < 1000; k++) {
+            double x = xval[0] + random.nextDouble()
+                       * (xval[xval.length - 1] - xval[0]);
+            double y = yval[0] + random.nextDouble()
+                       * (yval[yval.length - 1] - yval[0]);
+            assertEquals(expected.value(x, y), loaded.value(x, y), 0.0);
+        }
+        assertEquals(expected.value(xval[3], yval[4]),
+                     loaded.value(xval[3], yval[4]), 0.0);
+
+        // Other planes and configurations are not in the library.
+        assertNull(library.load(key(-6)));
+        assertNull(library.load(new PSFPlaneCache.Key(
+                new double[] {1.4, 0.61}, "qrd", -7)));
+    }
+
+    /**
+     * Test of the range of loaded planes.
+     */
+    @Test(expected = OutOfRangeException.class)
+    public void testOutOfRange() {
+        System.out.println("outOfRange");
+        library.store(key(0), SplinePlane.of(xval, yval, fval));
+        library.load(key(0)).value(xval[0] - 0.01, yval[1]);
+    }
+
+    /**
+     * Test of load method, of class PSFLibrary, with a damaged file.
+     */
+    @Test
+    public void testDamagedFile() throws IOException {
+        System.out.println("damagedFile");
+        library.store(key(1), SplinePlane.of(xval, yval, fval));
+        File file = library.getFile(key(1));
+        long length = file.length();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[3]);
+        }
+        assertEquals(length + 3, file.length());
+        assertNull(library.load(key(1)));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import org.apache.commons.math3.analysis.BivariateFunction;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the PSFPlaneCache class.
+ */
+public class PSFPlaneCacheTest {
+
+    private static PSFPlaneCache.Key key(double parameter, long plane) {
+        return new PSFPlaneCache.Key(new double[] {1.4, parameter}, "qrd",
+                                     plane);
+    }
+
+    private static BivariateFunction constant(final double value) {
+        return new BivariateFunction() {
+            @Override
+            public double value(double x, double y) {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Test of get and putIfAbsent methods, of class PSFPlaneCache.
+     */
+    @Test
+    public void testGetAndPut() {
+        System.out.println("getAndPut");
+        PSFPlaneCache instance = new PSFPlaneCache(1000);
+        assertNull(instance.get(key(0.5, 3)));
+
+        BivariateFunction plane = constant(1.0);
+        assertSame(plane, instance.putIfAbsent(key(0.5, 3), plane, 100));
+        assertSame(plane, instance.putIfAbsent(key(0.5, 3), constant(2.0),
+                                               100));
+        assertSame(plane, instance.get(key(0.5, 3)));
+
+        // Other parameters or planes are other keys.
+        assertNull(instance.get(key(0.6, 3)));
+        assertNull(instance.get(key(0.5, 4)));
+
+        assertEquals(1, instance.getHits());
+        assertEquals(3, instance.getMisses());
+        assertEquals(1, instance.size());
+        assertEquals(100, instance.getBytes());
+    }
+
+    /**
+     * Test of the eviction of the least recently used planes.
+     */
+    @Test
+    public void testEviction() {
+        System.out.println("eviction");
+        PSFPlaneCache instance = new PSFPlaneCache(300);
+        instance.putIfAbsent(key(0.5, 0), constant(0), 100);
+        instance.putIfAbsent(key(0.5, 1), constant(1), 100);
+        instance.putIfAbsent(key(0.5, 2), constant(2), 100);
+
+        // Plane 0 becomes the most recently used one, so plane 1 is evicted.
+        assertNotNull(instance.get(key(0.5, 0)));
+        instance.putIfAbsent(key(0.5, 3), constant(3), 100);
+        assertNull(instance.get(key(0.5, 1)));
+        assertNotNull(instance.get(key(0.5, 0)));
+        assertEquals(1, instance.getEvictions());
+        assertEquals(300, instance.getBytes());
+
+        // A plane larger than the bound is kept on its own.
+        instance.putIfAbsent(key(0.5, 4), constant(4), 500);
+        assertEquals(1, instance.size());
+        assertEquals(4, instance.getEvictions());
+        assertNotNull(instance.get(key(0.5, 4)));
+
+        instance.clear();
+        assertEquals(0, instance.size());
+        assertEquals(0, instance.getBytes());
+    }
+
+    /**
+     * Test of the constructor of class PSFPlaneCache.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveBound() {
+        System.out.println("nonPositiveBound");
+        new PSFPlaneCache(0);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.sass.simulator.generators.realtime.psfs;
+
+import java.util.Random;
+import org.apache.commons.math3.analysis.BivariateFunction;
+import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolatingFunction;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the SplinePlane class.
+ */
+public class SplinePlaneTest {
+    private double[] xval;
+    private double[] yval;
+    private double[][] fval;
+    private SplinePlane instance;
+
+    @Before
+    public void setUp() {
+        xval = new double[20];
+        yval = new double[14];
+        for (int i = 0; i < xval.length; i++) {
+            xval[i] = 0.1 * i - 1.0;
+        }
+        for (int j = 0; j < yval.length; j++) {
+            yval[j] = 0.05 * j * j - 2.0;
+        }
+        Random random = new Random(7);
+        fval = new double[xval.length][yval.length];
+        for (int i = 0; i < xval.length; i++) {
+            for (int j = 0; j < yval.length; j++) {
+                fval[i][j] = Math.sin(xval[i] + yval[j])
+                             + 0.1 * random.nextDouble();
+            }
+        }
+        instance = SplinePlane.of(xval, yval, fval);
+    }
+
+    /**
+     * Test of value method, of class SplinePlane.
+     */
+    @Test
+    public void testValue() {
+        System.out.println("value");
+        BivariateFunction expected =
+                new PiecewiseBicubicSplineInterpolatingFunction(
+                        xval, yval, fval);
+        Random random = new Random(3);
+        for (int k = 0; k < 1000; k++) {
+            double x = -1.0 + 1.9 * random.nextDouble();
+            double y = -2.0 + 8.45 * random.nextDouble();
+            assertEquals(expected.value(x, y), instance.value(x, y), 0.0);
+        }
+    }
+
+    /**
+     * Test of sample method, of class SplinePlane.
+     */
+    @Test
+    public void testSample() {
+        System.out.println("sample");
+        double[] xs = new double[97];
+        double[] ys = new double[131];
+        for (int m = 0; m < xs.length; m++) {
+            xs[m] = -1.1 + 0.021 * m;
+        }
+        for (int k = 0; k < ys.length; k++) {
+            ys[k] = -2.2 + 0.07 * k;
+        }
+        double[] result = new double[xs.length * ys.length];
+        instance.sample(xs, ys, result);
+        for (int m = 0; m < xs.length; m++) {
+            for (int k = 0; k < ys.length; k++) {
+                double value = result[m * ys.length + k];
+                if (xs[m] <= xval[0] || xs[m] >= xval[xval.length - 1] ||
+                    ys[k] <= yval[0] || ys[k] >= yval[yval.length - 1]) {
+                    // Points on the boundary of the grid are valid, too.
+                    if (Double.isNaN(value)) {
+                        continue;
+                    }
+                }
+                assertEquals(instance.value(xs[m], ys[k]), value, 0.0);
+            }
+        }
+        assertTrue(Double.isNaN(result[0]));
+    }
+
+    /**
+     * Test of the constructor of class SplinePlane.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testGridTooSmall() {
+        System.out.println("gridTooSmall");
+        SplinePlane.of(new double[4], yval, new double[4][yval.length]);
+    }
+}